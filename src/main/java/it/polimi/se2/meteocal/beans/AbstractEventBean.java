@@ -1,7 +1,9 @@
 package it.polimi.se2.meteocal.beans;
 
+import it.polimi.se2.meteocal.control.BestDayFinder;
 import it.polimi.se2.meteocal.control.CalendarManager;
 import it.polimi.se2.meteocal.control.EventManager;
+import it.polimi.se2.meteocal.control.ForecastUpdater;
 import it.polimi.se2.meteocal.control.NotificationManager;
 import it.polimi.se2.meteocal.control.UserManager;
 import it.polimi.se2.meteocal.entity.Event;
@@ -9,6 +11,7 @@ import it.polimi.se2.meteocal.entity.User;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
@@ -37,8 +40,18 @@ public abstract class AbstractEventBean
     @EJB
     CalendarManager calendarManager;
     
+    @EJB
+    ForecastUpdater forecastUpdater;
+    
+    @EJB
+    BestDayFinder bestDayFinder;
+    
     Event current;
     
+    User organizer;
+    
+    List<BestDayFinder.DaySuggestion> bestDays = Collections.emptyList();
+    
     String componentId;
     
     DualListModel<User> usersToInvite;
@@ -91,6 +104,16 @@ public abstract class AbstractEventBean
     }
     
     
+    /**
+    * Returns the best days for the current event, as computed by the last call to updateBestDays()
+    * @return the suggested days, best first, empty if the event is not outdoor or has no city
+    */
+    public List<BestDayFinder.DaySuggestion> getBestDays()
+    {
+        return bestDays;
+    }
+    
+    
     /***************** BEAN METHODS *****************/
 
     /**
@@ -166,23 +189,42 @@ public abstract class AbstractEventBean
     }
     
     /**
-    * Gets the weather forecast from the Calendar Manager for the current event and then saves it in the database
+    * Ajax listener that updates the best days suggested for the current event, using the city, the times and the participants (organizer, users who already have the event in their calendar and invitees) currently in the form. Only cached forecasts are used, so it can run at every change of the form
     */
-    void setWeatherForecast()
+    public void updateBestDays()
     {
-        // Get weather forecast from the Calendar Manager
-        String weatherForecast;
-        try
+        if(current==null || !current.isOutdoor())
         {
-            weatherForecast = calendarManager.requestWeatherForecast(current);
-        }
-        catch(Exception ex)
-        {
-            weatherForecast = "";
+            bestDays = Collections.emptyList();
+            return;
         }
         
-        // Save weather forecast
-        eventManager.saveWeatherForecast(weatherForecast, current);
+        // Participants: the organizer, the users who accepted so far (when updating) and the users invited now, duplicates are counted once
+        if(organizer==null) organizer = (current.getOrganizer()!=null) ? current.getOrganizer() : userManager.getLoggedUser();
+        List<User> participants = new ArrayList<>();
+        participants.add(organizer);
+        if(current.getCalendars()!=null) participants.addAll(current.getUsersThatHaveTheEventInCalendar());
+        if(usersToInvite!=null) participants.addAll(usersToInvite.getTarget());
+        
+        bestDays = bestDayFinder.findBestDays(current.getCity(), current.getStartTime(), current.getEndTime(), participants, BestDayFinder.DEFAULT_SUGGESTIONS);
+    }
+    
+    /**
+    * Sets one of the suggested days as the event day
+    * @param day: the chosen day
+    */
+    public void chooseDay(Date day)
+    {
+        current.setDay(day);
+    }
+    
+    /**
+    * Asks the Forecast Updater to get the weather forecast for the current event and save it in the database. The request runs in background, so the form does not wait for the weather provider, and possibly under another user: the current user is checked here
+    */
+    void setWeatherForecast()
+    {
+        if(!eventManager.canCurrentUserAlterEvent(current)) return;
+        forecastUpdater.updateEventForecast(current.getId());
     }
     
     /**
@@ -178,6 +178,30 @@ public class CalendarBean
         return "home?faces-redirect=true";
     }
       
+    /**
+    * Loads the bad weather preferences of the current user's calendar into the current calendar instance, a copy that can be changed by the preferences form
+    **/
+    public void loadPreferences()
+    {
+        User owner = userManager.getLoggedUser();
+        if(owner==null || !owner.ownsCalendar()) return;
+        current = new Calendar();
+        current.setId(owner.getCalendar().getId());
+        current.setRainIsBad(owner.getCalendar().getRainIsBad());
+        current.setCloudyIsBad(owner.getCalendar().getCloudyIsBad());
+        current.setSnowIsBad(owner.getCalendar().getSnowIsBad());
+    }
+    
+    /**
+    * Calls the Calendar Manager to save the new bad weather preferences of the current calendar: tomorrow's events are checked again right away if more conditions are now bad weather
+    * @return: web page that will be shown after the form submit (home)
+    **/
+    public String updatePreferences()
+    {
+        if(current!=null && current.getId()!=null) calendarManager.updateBadWeatherPreferences(current);
+        return "home?faces-redirect=true";
+    }
+      
     /**
     * Checks if the current user owns a calendar
     * @return true if the current user owns a calendar
@@ -113,8 +113,8 @@ public class LoginBean
             return "index";
         }
         
-        // If login successful, call initializer
-        initializer.initialize();
+        // If login successful, start the initializer in background
+        initializer.initialize(this.username);
         
         // If login successful, redirect to the Registered User Home
         return "/user/home?faces-redirect=true";
@@ -27,7 +27,7 @@ public class NewEventBean extends AbstractEventBean
     /***************** BEAN METHODS *****************/
     
     /**
-    * Method that saves a new event in the database: persists the event in the database, then gets the weather forecast and finally manages the invitations, if any. Note that validation is automatically performed by the bean validators, so this method is called only when the event is correct.
+    * Method that saves a new event in the database: persists the event in the database, then requests the weather forecast in background and finally manages the invitations, if any. Note that validation is automatically performed by the bean validators, so this method is called only when the event is correct.
     * @return: web page that will be shown after the form submit: home
     **/
     public String create() 
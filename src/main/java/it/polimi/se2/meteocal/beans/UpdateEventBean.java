@@ -30,7 +30,7 @@ public class UpdateEventBean extends AbstractEventBean
     /***************** BEAN METHODS *****************/
     
     /**
-    * Method that updates an existing event in the database: persists the event in the database and then gets the updated weather forecast. Note that validation is automatically performed by the bean validators, so this method is called only when the event is correct.
+    * Method that updates an existing event in the database: persists the event in the database and then requests the updated weather forecast in background. Note that validation is automatically performed by the bean validators, so this method is called only when the event is correct.
     * @return: web page that will be shown after the form submit: home if everything is OK, update_event if errors occur
     **/
     public String update() 
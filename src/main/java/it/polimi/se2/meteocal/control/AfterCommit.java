@@ -0,0 +1,42 @@
+package it.polimi.se2.meteocal.control;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+/**
+* Support methods to run an action only once the current transaction has committed, used for the effects that cannot be rolled back (e.g. the notifications sent in their own transaction, or the in-memory state shared by all the requests): if the transaction rolls back, the action never runs
+**/
+final class AfterCommit
+{
+    private AfterCommit()
+    {
+    }
+
+    /**
+    * Runs an action after the commit of the current transaction, or right away if there is no transaction. The action runs when the transaction is already completed, so it must not expect a transaction of its own (a bean method called by it can start one, e.g. with REQUIRES_NEW) and its exceptions are not seen by the caller
+    * @param registry: the transaction synchronization registry of the container
+    * @param action: the action to run
+    **/
+    static void run(TransactionSynchronizationRegistry registry, final Runnable action)
+    {
+        if(registry.getTransactionKey()==null)
+        {
+            action.run();
+            return;
+        }
+        registry.registerInterposedSynchronization(new Synchronization()
+        {
+            @Override
+            public void beforeCompletion()
+            {
+            }
+
+            @Override
+            public void afterCompletion(int status)
+            {
+                if(status==Status.STATUS_COMMITTED) action.run();
+            }
+        });
+    }
+}
@@ -0,0 +1,118 @@
+package it.polimi.se2.meteocal.control;
+
+import it.polimi.se2.meteocal.entity.Event;
+import it.polimi.se2.meteocal.entity.Notification;
+import it.polimi.se2.meteocal.entity.User;
+import it.polimi.se2.meteocal.entity.WeatherCondition;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Future;
+import javax.ejb.AsyncResult;
+import javax.ejb.Asynchronous;
+import javax.ejb.EJB;
+import javax.ejb.Stateless;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+/**
+* Control class that evaluates the bad weather alerts of a single location, the partition of the Bad Weather Alert Job: the partitions are independent (events in the same location share the forecast), so they are evaluated in parallel on the container thread pool, each in its own transaction
+**/
+@Stateless
+public class BadWeatherAlertEvaluator
+{
+    /** Maximum number of event IDs in a single bulk update **/
+    static final int MAX_UPDATE_IDS = 1000;
+
+    /** Maximum number of events read and evaluated at once (at most MAX_UPDATE_IDS, so that each page is marked with a single update) **/
+    static final int PAGE_SIZE = 500;
+
+    @PersistenceContext(name = "meteocalPU")
+    EntityManager entityManager;
+
+    @EJB
+    CalendarManager calendarManager;
+
+    @EJB
+    NotificationManager notificationManager;
+
+    /**
+    * Asynchronously sends the bad weather alerts of the pending outdoor events in a location on a day, and marks the events as alerted
+    * @param location: the canonical location key (see LocationIndex)
+    * @param day: the day of the events
+    * @return the number of notifications sent
+    **/
+    @Asynchronous
+    public Future<Integer> evaluate(String location, Date day)
+    {
+        return new AsyncResult<>(this.evaluatePartition(location, day));
+    }
+
+    /**
+    * Sends the bad weather alerts of a location, a page of events at a time: the IDs of the pending events are read in order starting after the last page, so the memory used does not depend on the size of the location
+    * @param location: the canonical location key
+    * @param day: the day of the events
+    * @return the number of notifications sent
+    **/
+    int evaluatePartition(String location, Date day)
+    {
+        int sent = 0;
+        long lastId = 0;
+        List<Long> ids;
+        do
+        {
+            ids = entityManager.createNamedQuery(Event.findPendingBadWeatherAlertIds, Long.class)
+                .setParameter("location", location)
+                .setParameter("date", day)
+                .setParameter("lastId", lastId)
+                .setMaxResults(PAGE_SIZE)
+                .getResultList();
+            if(ids.isEmpty()) break;
+            sent += this.evaluatePage(ids);
+            lastId = ids.get(ids.size()-1);
+            
+            // The evaluated events are not needed anymore
+            entityManager.clear();
+        }
+        while(ids.size()==PAGE_SIZE);
+        return sent;
+    }
+    
+    /**
+    * Sends the bad weather alerts of a page of events: the events come with the preferences and owners of their calendars in a single query ordered by event, so each event is evaluated once and the notifications of the whole page are written together. The events in no calendar are not in the rows, but they are marked as alerted too, so they are not selected again by the next run
+    * @param ids: the IDs of the events
+    * @return the number of notifications sent
+    **/
+    private int evaluatePage(List<Long> ids)
+    {
+        List<Object[]> rows = entityManager.createNamedQuery(Event.findPendingBadWeatherAlerts, Object[].class)
+            .setParameter("events", ids)
+            .getResultList();
+
+        // Rows of the same event are consecutive: compute its conditions once, checking only the event hours if available
+        List<Notification> alerts = new ArrayList<>();
+        Set<Long> receivers = new HashSet<>();
+        Event current = null;
+        int conditionMask = 0;
+        for(Object[] row : rows)
+        {
+            Event event = (Event) row[0];
+            if(event!=current)
+            {
+                current = event;
+                conditionMask = calendarManager.getEventConditionMask(event);
+                receivers.clear();
+            }
+            User owner = (User) row[2];
+            if(owner==null || !WeatherCondition.isBad(conditionMask, (Integer) row[1]) || !receivers.add(owner.getId())) continue;
+            alerts.add(notificationManager.createBadWeatherAlert(owner, event));
+        }
+
+        // Write the notifications of the page together and mark all its events, with or without calendars, with a bulk update
+        int sent = notificationManager.sendAlerts(alerts);
+        entityManager.createNamedQuery(Event.updateBadWeatherAlertSent).setParameter("events", ids).executeUpdate();
+        return sent;
+    }
+}
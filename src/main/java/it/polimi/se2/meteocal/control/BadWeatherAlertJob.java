@@ -0,0 +1,122 @@
+package it.polimi.se2.meteocal.control;
+
+import it.polimi.se2.meteocal.entity.Event;
+import java.time.LocalDate;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJB;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.ejb.Timeout;
+import javax.ejb.TimerConfig;
+import javax.ejb.TimerService;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+/**
+* Control class that sends the bad weather alerts of all the users, after each forecast refresh, so that nobody has to log in the day before to be alerted. Tomorrow's outdoor events are partitioned by canonical location and the partitions are evaluated in parallel by the Bad Weather Alert Evaluator, a page of events at a time, each page with a single query for its events and attendee preferences, a single batch of notifications and a bulk update of the events. Each alert has a unique key, so an event evaluated twice is never alerted twice.
+* The job alone sends the alerts, so the log-in does no alert work: besides the run after each refresh, it also runs once shortly after the start, so that a restart does not delay the alerts until the first refresh completes
+**/
+@Singleton
+@Startup
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class BadWeatherAlertJob
+{
+    /** Delay (in milliseconds) of the run after the start, so that the deployment does not wait for it **/
+    static final long STARTUP_DELAY = 60*1000;
+
+    private static final Logger LOGGER = Logger.getLogger(BadWeatherAlertJob.class.getName());
+
+    @PersistenceContext(name = "meteocalPU")
+    EntityManager entityManager;
+
+    @EJB
+    BadWeatherAlertEvaluator badWeatherAlertEvaluator;
+
+    @Resource
+    TimerService timerService;
+
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    /**
+    * Schedules the run after the start, with a timer that is not persisted (a restart schedules a new one)
+    **/
+    @PostConstruct
+    void scheduleStartupRun()
+    {
+        timerService.createSingleActionTimer(STARTUP_DELAY, new TimerConfig(null, false));
+    }
+
+    /**
+    * Sends the alerts once after the start, e.g. for the events of tomorrow that were not alerted before a restart
+    **/
+    @Timeout
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    void startupRun()
+    {
+        this.sendAlerts();
+    }
+
+    /**
+    * Sends the bad weather alerts for all the outdoor events of tomorrow that have a forecast and have not been alerted yet. Events without a forecast are left for the next run, when it may be available. The events without a location key are assigned one at the start (see CitySubscriptionRegistry), so they are left for the next run too
+    * @return the number of notifications sent, or -1 if another run is still going
+    **/
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public int sendAlerts()
+    {
+        // Skip if the previous run is still going
+        if(!running.compareAndSet(false, true)) return -1;
+        try
+        {
+            long start = System.currentTimeMillis();
+            LocalDate today = LocalDate.now();
+            Date tomorrow = ForecastKey.toDate(today.plusDays(1));
+
+            // Start the evaluation of each location with pending events, in parallel
+            List<String> locations = entityManager.createNamedQuery(Event.findPendingBadWeatherAlertLocations, String.class).setParameter("date", tomorrow).getResultList();
+            Map<String, Future<Integer>> partitions = new LinkedHashMap<>();
+            for(String location : locations) partitions.put(location, badWeatherAlertEvaluator.evaluate(location, tomorrow));
+
+            // Wait for all of them: a failed location does not affect the others, and is evaluated again in the next run
+            int sent = 0;
+            int failures = 0;
+            for(Map.Entry<String, Future<Integer>> partition : partitions.entrySet())
+            {
+                try
+                {
+                    sent += partition.getValue().get();
+                }
+                catch(InterruptedException ex)
+                {
+                    Thread.currentThread().interrupt();
+                    return sent;
+                }
+                catch(ExecutionException ex)
+                {
+                    LOGGER.log(Level.WARNING, "Bad weather alerts failed for "+partition.getKey(), ex.getCause());
+                    failures++;
+                }
+            }
+
+            LOGGER.log(Level.INFO, "Bad weather alerts completed: {0} locations ({1} failed), {2} notifications in {3} ms", new Object[]{partitions.size(), failures, sent, System.currentTimeMillis()-start});
+            return sent;
+        }
+        finally
+        {
+            running.set(false);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package it.polimi.se2.meteocal.control;
+
+import it.polimi.se2.meteocal.entity.Calendar;
+import it.polimi.se2.meteocal.entity.User;
+import it.polimi.se2.meteocal.entity.WeatherCondition;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.ejb.EJB;
+import javax.ejb.Stateless;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+/**
+* Control class that suggests the best days of the next week for an outdoor event, ranking them by the number of participants (organizer and invitees) that would consider the forecast bad weather. Only the forecasts already in memory are used, and the preferences of all the participants are read with a single query, so the suggestions can be updated at every change of the form without calling the weather provider
+**/
+@Stateless
+public class BestDayFinder
+{
+    /** Default number of suggested days **/
+    public static final int DEFAULT_SUGGESTIONS = 3;
+
+    @PersistenceContext(name = "meteocalPU")
+    EntityManager entityManager;
+
+    @EJB
+    ForecastCache forecastCache;
+
+    @EJB
+    HourlyForecastStore hourlyForecastStore;
+
+    @EJB
+    LocationIndex locationIndex;
+
+    /**
+    * Finds the best days for an outdoor event in the given city
+    * @param city: the event city, as written by the user
+    * @param startTime: the starting time of the event, null if not chosen yet
+    * @param endTime: the ending time of the event, null if not chosen yet
+    * @param participants: the organizer and the invitees
+    * @param maxResults: the maximum number of days to return
+    * @return the best days, best first (days without a forecast in memory come last), empty if the city is not set
+    **/
+    public List<DaySuggestion> findBestDays(String city, Date startTime, Date endTime, Collection<User> participants, int maxResults)
+    {
+        if(city==null || "".equals(city.trim())) return Collections.emptyList();
+        return this.rankDays(city, LocalDate.now(), startTime, endTime, this.getPreferenceCounts(participants), maxResults);
+    }
+
+    /**
+    * Gets how many of the participants' calendars have each bad weather mask, with a single query
+    * @param participants: the users, possibly with duplicates or without calendar
+    * @return the number of calendars for each bad weather mask
+    **/
+    Map<Integer, Long> getPreferenceCounts(Collection<User> participants)
+    {
+        Set<Long> userIds = new HashSet<>();
+        for(User user : participants) if(user!=null && user.getId()!=null) userIds.add(user.getId());
+        Map<Integer, Long> counts = new HashMap<>();
+        if(userIds.isEmpty()) return counts;
+
+        List<Object[]> rows = entityManager.createNamedQuery(Calendar.findBadWeatherMaskCounts, Object[].class).setParameter("users", userIds).getResultList();
+        for(Object[] row : rows) counts.put(((Number) row[0]).intValue(), ((Number) row[1]).longValue());
+        return counts;
+    }
+
+    /**
+    * Ranks the days of the forecast window using the cached forecasts only
+    * @param city: the event city, as written by the user
+    * @param today: the first day of the window
+    * @param startTime: the starting time of the event, null if not chosen yet
+    * @param endTime: the ending time of the event, null if not chosen yet
+    * @param preferences: the number of calendars for each bad weather mask
+    * @param maxResults: the maximum number of days to return
+    * @return the best days, best first
+    **/
+    List<DaySuggestion> rankDays(String city, LocalDate today, Date startTime, Date endTime, Map<Integer, Long> preferences, int maxResults)
+    {
+        String location = locationIndex.resolve(city).getKey();
+        List<DaySuggestion> days = new ArrayList<>(CalendarManager.FORECAST_DAYS);
+        for(int i=0; i<CalendarManager.FORECAST_DAYS; i++)
+        {
+            // Use the event hours if they are known, otherwise the whole day (also when expired, a forecast is better than none)
+            LocalDate day = today.plusDays(i);
+            String condition = forecastCache.getStale(location, day);
+            int conditionMask = (startTime!=null && endTime!=null) ? hourlyForecastStore.getConditionMask(location, day, startTime, endTime) : -1;
+            if(conditionMask<0)
+            {
+                if(condition==null) 
+                {
+                    days.add(new DaySuggestion(day, null, -1));
+                    continue;
+                }
+                conditionMask = WeatherCondition.parse(condition);
+            }
+
+            // Show the conditions of the event hours, the ones the participants are counted on (also when the daily forecast is missing)
+            else condition = WeatherCondition.describe(conditionMask);
+
+            // Count the participants that would not like this weather
+            long unhappy = 0;
+            for(Map.Entry<Integer, Long> preference : preferences.entrySet())
+            {
+                if(WeatherCondition.isBad(conditionMask, preference.getKey())) unhappy += preference.getValue();
+            }
+            days.add(new DaySuggestion(day, condition, unhappy));
+        }
+
+        // Fewest unhappy participants first, then the earliest day
+        Collections.sort(days, new Comparator<DaySuggestion>()
+        {
+            @Override
+            public int compare(DaySuggestion first, DaySuggestion second)
+            {
+                if(first.hasForecast()!=second.hasForecast()) return first.hasForecast() ? -1 : 1;
+                if(first.unhappyParticipants!=second.unhappyParticipants) return Long.compare(first.unhappyParticipants, second.unhappyParticipants);
+                return first.day.compareTo(second.day);
+            }
+        });
+        return days.subList(0, Math.min(maxResults, days.size()));
+    }
+
+
+    /***************** SUPPORT CLASSES *****************/
+
+    /**
+    * A suggested day with its forecast
+    **/
+    public static class DaySuggestion
+    {
+        private final LocalDate day;
+        private final String condition;
+        private final long unhappyParticipants;
+
+        DaySuggestion(LocalDate day, String condition, long unhappyParticipants)
+        {
+            this.day = day;
+            this.condition = condition;
+            this.unhappyParticipants = unhappyParticipants;
+        }
+
+        /** Getter
+        * @return the suggested day
+        */
+        public Date getDay()
+        {
+            return ForecastKey.toDate(day);
+        }
+
+        /** Getter
+        * @return the forecast condition of the day, null if no forecast is available yet
+        */
+        public String getCondition()
+        {
+            return condition;
+        }
+
+        /** Getter
+        * @return the number of participants that consider the forecast bad weather, -1 if no forecast is available yet
+        */
+        public long getUnhappyParticipants()
+        {
+            return unhappyParticipants;
+        }
+
+        /** Getter
+        * @return true if a forecast is available for the day
+        */
+        public boolean hasForecast()
+        {
+            return unhappyParticipants>=0;
+        }
+    }
+}
@@ -1,22 +1,22 @@
 package it.polimi.se2.meteocal.control;
 
-import com.mashape.unirest.http.HttpResponse;
-import com.mashape.unirest.http.JsonNode;
-import com.mashape.unirest.http.Unirest;
 import com.mashape.unirest.http.exceptions.UnirestException;
 import it.polimi.se2.meteocal.entity.Calendar;
 import it.polimi.se2.meteocal.entity.Event;
+import it.polimi.se2.meteocal.entity.Notification;
 import it.polimi.se2.meteocal.entity.User;
+import it.polimi.se2.meteocal.entity.WeatherCondition;
 import java.security.Principal;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.Date;
-import java.util.concurrent.TimeUnit;
+import java.util.List;
 import javax.ejb.EJB;
 import javax.ejb.Stateless;
 import javax.inject.Inject;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
-import org.json.JSONArray;
-import org.json.JSONObject;
 
 /**
 * Control class that takes care of the calendar management: creation of Calendar entities and support methods for general calendar behavior, like requesting the weather forecasts
@@ -24,6 +24,9 @@ import org.json.JSONObject;
 @Stateless
 public class CalendarManager
 {
+    /** Number of days covered by the provider forecasts, starting from today **/
+    public static final int FORECAST_DAYS = 7;
+    
     @PersistenceContext(name = "meteocalPU")
     EntityManager entityManager;
     
@@ -32,6 +35,24 @@ public class CalendarManager
     
     @EJB
     UserManager userManager;
+    
+    @EJB
+    ForecastCache forecastCache;
+    
+    @EJB
+    ForecastFetcher forecastFetcher;
+    
+    @EJB
+    LocationIndex locationIndex;
+    
+    @EJB
+    HourlyForecastStore hourlyForecastStore;
+    
+    @EJB
+    ForecastHistoryStore forecastHistoryStore;
+    
+    @EJB
+    NotificationManager notificationManager;
 
     /**
     * Method to save the calendar in the database
@@ -50,10 +71,59 @@ public class CalendarManager
     }
     
     /**
-    * Method to retrieve the weather forecast for the given event via HTTP Request
+    * Saves new bad weather preferences of a calendar. If the user now dislikes more conditions, the outdoor events of the calendar in the alert window (tomorrow) are checked again immediately, without waiting for the next Bad Weather Alert Job: only this calendar's events are read, through the calendar-event join, and their conditions come from the forecasts already known
+    * @param calendar: the calendar with the new preferences
+    * @return the number of bad weather alerts sent because of the change
+    **/
+    public int updateBadWeatherPreferences(Calendar calendar)
+    {
+        // Get the previous preferences
+        Calendar saved = entityManager.find(Calendar.class, calendar.getId());
+        if(saved==null) return 0;
+        int previousMask = saved.getBadWeatherMask();
+        
+        // Save the new ones
+        saved.setRainIsBad(calendar.getRainIsBad());
+        saved.setCloudyIsBad(calendar.getCloudyIsBad());
+        saved.setSnowIsBad(calendar.getSnowIsBad());
+        
+        // Only the conditions added can make an event bad weather
+        if((saved.getBadWeatherMask() & ~previousMask)==0) return 0;
+        return this.reevaluateBadWeatherAlerts(saved);
+    }
+    
+    /**
+    * Sends the bad weather alerts of a single calendar, for its outdoor events of tomorrow. Alerts already sent are skipped (see NotificationManager.sendAlerts)
+    * @param calendar: the calendar to check
+    * @return the number of alerts sent
+    **/
+    int reevaluateBadWeatherAlerts(Calendar calendar)
+    {
+        User owner = calendar.getOwner();
+        if(owner==null) return 0;
+        
+        // Get the outdoor events of tomorrow, with their forecasts in the same query
+        List<Object[]> rows = entityManager.createNamedQuery(Calendar.findOutdoorEventsByDay, Object[].class)
+            .setParameter("calendarId", calendar.getId())
+            .setParameter("date", ForecastKey.toDate(LocalDate.now().plusDays(1)))
+            .getResultList();
+        
+        // Check them with the new preferences, using only the event hours if available
+        List<Notification> alerts = new ArrayList<>();
+        for(Object[] row : rows)
+        {
+            Event event = (Event) row[0];
+            if(this.isBadWeather(calendar, this.getEventConditionMask(event))) alerts.add(notificationManager.createBadWeatherAlert(owner, event));
+        }
+        return notificationManager.sendAlerts(alerts);
+    }
+    
+    /**
+    * Method to retrieve the weather forecast for the given event: the city is resolved to its canonical location, then the forecast cache is checked first and, if the forecast is not there, it's requested via HTTP Request through the Forecast Fetcher. Since the provider returns the whole week, all the received days are saved in the cache. If the provider quota is over, the expired cached forecast is returned, if any. Failed lookups are cached too, so they are not requested again until they expire
     * @param event: the event linked with the forecast
     * @return a string containing the weather forecast description
     * @throws com.mashape.unirest.http.exceptions.UnirestException if an error occurs during the HTTP request, like a network problem
+    * @throws ForecastDeferredException if the provider quota is over and there is no cached forecast: the forecast should be requested again later
     * @throws IllegalStateException if the event is not fit for a forecast (e.g. date or place missing, date too far away, etc.)
     **/
     public String requestWeatherForecast(Event event) throws Exception, UnirestException
@@ -65,29 +135,100 @@ public class CalendarManager
         // Stop if parameters are missing
         if(city==null || "".equals(city) || date==null) throw new Exception("Param err");
         
-        // Stop if the event date is too far away
-        Date now = new Date();
-        long difference = TimeUnit.DAYS.convert(date.getTime()-now.getTime(), TimeUnit.MILLISECONDS);
-        if(difference>=7) throw new Exception("Too far away for a weather forecast");
+        // Stop if the event date is too far away or in the past
+        LocalDate today = LocalDate.now();
+        long difference = this.getDaysFromToday(ForecastKey.toLocalDate(date));
+        if(difference>=FORECAST_DAYS) throw new Exception("Too far away for a weather forecast");
+        if(difference<0) throw new Exception("Error! Past event!");
         
-        // Get weather forecast as JSON via HTTP Request
-        HttpResponse<JsonNode> response = Unirest.get("https://george-vustrey-weather.p.mashape.com/api.php?location="+city)
-        .header("X-Mashape-Key", "2U4bcVKdsmmshcolTeVciXb7PQimp1iSBGQjsnO4OBLADJoSpU")
-        .asJson();
-
-        // Get the array of nodes
-        JSONArray array = response.getBody().getArray();
+        // Forecasts are shared by all the cities in the same location bucket
+        Location location = locationIndex.resolve(city);
+        String key = location.getKey();
+        
+        // Return the cached forecast, if any
+        LocalDate eventDay = ForecastKey.toLocalDate(date);
+        String cachedForecast = forecastCache.get(key, eventDay);
+        if(cachedForecast!=null) return cachedForecast;
+        
+        // Stop if the same lookup failed recently
+        ForecastFailure cachedFailure = forecastCache.getFailure(key, eventDay);
+        if(cachedFailure!=null) throw new Exception(cachedFailure.getMessage());
+        
+        // Get the weekly forecast from the provider, sharing the request with concurrent callers for the same location
+        ForecastWeek conditions;
+        try
+        {
+            conditions = forecastFetcher.fetchWeek(location.getName(), ForecastPriority.INTERACTIVE);
+        }
+        catch(ForecastDeferredException ex)
+        {
+            // If the quota is over, use the expired forecast, if any
+            String staleForecast = forecastCache.getStale(key, eventDay);
+            if(staleForecast!=null) return staleForecast;
+            throw ex;
+        }
+        catch(UnknownCityException ex)
+        {
+            forecastCache.putFailure(key, eventDay, ForecastFailure.UNKNOWN_CITY);
+            throw ex;
+        }
+        catch(Exception ex)
+        {
+            forecastCache.putFailure(key, eventDay, ForecastFailure.PROVIDER_ERROR);
+            throw ex;
+        }
+        
+        // Save the whole week in the cache, with its hours
+        forecastCache.putAll(key, today, conditions);
+        hourlyForecastStore.putWeek(key, today, conditions);
+        if(!conditions.isNotModified()) forecastHistoryStore.record(key, today, conditions);
 
-        // In the array, today is the element 0, tomorrow 1, etc. so let's check if the day we want is present
+        // Check if the day we want is present
         int day = (int) difference;
-        if(day<0) throw new Exception("Error! Past event!");
-        if(day>=array.length()) throw new Exception("No weather forecast available");
+        if(day>=conditions.size() || conditions.get(day)==null)
+        {
+            forecastCache.putFailure(key, eventDay, ForecastFailure.OUT_OF_RANGE);
+            throw new Exception(ForecastFailure.OUT_OF_RANGE.getMessage());
+        }
 
         // Return the forecast
-        JSONObject dayForecast = array.getJSONObject(day);
-        return dayForecast.getString("condition");
+        return conditions.get(day);
     }
 
+    /**
+    * Checks if a weather forecast can be requested for the given day, with the same rules used by requestWeatherForecast: no past days and no days too far away
+    * @param day: the day to check
+    * @return true if the day is in the forecast window
+    **/
+    public boolean isForecastAvailable(LocalDate day)
+    {
+        if(day==null) return false;
+        long difference = this.getDaysFromToday(day);
+        return difference>=0 && difference<FORECAST_DAYS;
+    }
+    
+    /**
+    * Gets the number of days between today and the given day
+    * @param day: the day to check
+    * @return 0 if the day is today, 1 if tomorrow, etc.; negative if in the past
+    **/
+    public long getDaysFromToday(LocalDate day)
+    {
+        return ChronoUnit.DAYS.between(LocalDate.now(), day);
+    }
+    
+    /**
+    * Gets the weather conditions of an event: if the hourly forecast is available, only the hours covered by the event are considered, otherwise the daily forecast is used
+    * @param event: the event, linked to its forecast
+    * @return the mask of the event conditions (see WeatherCondition), 0 if there is no forecast
+    **/
+    public int getEventConditionMask(Event event)
+    {
+        String location = (event.getLocationKey()!=null) ? event.getLocationKey() : locationIndex.resolve(event.getCity()).getKey();
+        int hourlyMask = hourlyForecastStore.getConditionMask(location, ForecastKey.toLocalDate(event.getDay()), event.getStartTime(), event.getEndTime());
+        return (hourlyMask>=0) ? hourlyMask : event.getWeatherConditionMask();
+    }
+    
     /**
     * Checks if, given a calendar and a weather forecast, it's considered bad weather by the user
     * @param calendar: the calendar, containing the "definition" of bad weather
@@ -96,21 +237,17 @@ public class CalendarManager
     **/
     public boolean isBadWeather(Calendar calendar, String weatherForecast)
     {
-        if(weatherForecast==null) return false;
-        
-        // Check what the weather is
-        boolean weatherIsCloudy = weatherForecast.toLowerCase().contains("cloud");
-        boolean weatherIsRainy = weatherForecast.toLowerCase().contains("rain");
-        boolean weatherIsSnowy = weatherForecast.toLowerCase().contains("snow");
-        
-        // Return true if the condition is considered bad by the user
-        return
-            (
-                (weatherIsCloudy && calendar.getCloudyIsBad())
-                ||
-                (weatherIsRainy && calendar.getRainIsBad())
-                ||
-                (weatherIsSnowy && calendar.getSnowIsBad())
-            );
+        return this.isBadWeather(calendar, WeatherCondition.parse(weatherForecast));
+    }
+    
+    /**
+    * Checks if, given a calendar and the conditions of an already parsed weather forecast, it's considered bad weather by the user
+    * @param calendar: the calendar, containing the "definition" of bad weather
+    * @param conditionMask: the mask of the forecast conditions (see WeatherCondition)
+    * @return true if the weather is bad
+    **/
+    public boolean isBadWeather(Calendar calendar, int conditionMask)
+    {
+        return WeatherCondition.isBad(conditionMask, calendar.getBadWeatherMask());
     }
 }
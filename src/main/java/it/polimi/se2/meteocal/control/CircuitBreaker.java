@@ -0,0 +1,107 @@
+package it.polimi.se2.meteocal.control;
+
+/**
+* Circuit breaker that protects the callers of an unreliable service: after a number of consecutive failures the circuit opens and the calls fail immediately; after a while a single trial call is allowed, closing the circuit again if it succeeds
+**/
+public class CircuitBreaker
+{
+    /** The possible states of the circuit **/
+    public enum State
+    {
+        /** Calls are allowed **/
+        CLOSED,
+        
+        /** Calls fail immediately **/
+        OPEN,
+        
+        /** A single trial call is in progress **/
+        HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openDuration;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private long rejectedCalls;
+
+
+    /***************** CONSTRUCTORS *****************/
+
+    /**
+    * Constructor with the circuit parameters
+    * @param failureThreshold: the number of consecutive failures that opens the circuit
+    * @param openDuration: the time (in milliseconds) the circuit stays open before allowing a trial call
+    **/
+    public CircuitBreaker(int failureThreshold, long openDuration)
+    {
+        this.failureThreshold = failureThreshold;
+        this.openDuration = openDuration;
+    }
+
+
+    /***************** CIRCUIT METHODS *****************/
+
+    /**
+    * Checks if a call can be made now. When the open time is over, the first caller is allowed as a trial call
+    * @return true if the call is allowed, false if it must fail immediately
+    **/
+    public synchronized boolean allowRequest()
+    {
+        switch(state)
+        {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if(System.currentTimeMillis()-openedAt>=openDuration)
+                {
+                    state = State.HALF_OPEN;
+                    return true;
+                }
+                rejectedCalls++;
+                return false;
+            default:
+                rejectedCalls++;
+                return false;
+        }
+    }
+
+    /**
+    * Records a successful call, closing the circuit
+    **/
+    public synchronized void recordSuccess()
+    {
+        consecutiveFailures = 0;
+        state = State.CLOSED;
+    }
+
+    /**
+    * Records a failed call, opening the circuit if the trial call failed or if there are too many consecutive failures
+    **/
+    public synchronized void recordFailure()
+    {
+        consecutiveFailures++;
+        if(state==State.HALF_OPEN || consecutiveFailures>=failureThreshold)
+        {
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+        }
+    }
+
+    /** Getter
+    * @return the current state of the circuit
+    */
+    public synchronized State getState()
+    {
+        return state;
+    }
+
+    /** Getter
+    * @return the number of calls rejected because the circuit was open
+    */
+    public synchronized long getRejectedCalls()
+    {
+        return rejectedCalls;
+    }
+}
@@ -0,0 +1,350 @@
+package it.polimi.se2.meteocal.control;
+
+import it.polimi.se2.meteocal.entity.Event;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.PostConstruct;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJB;
+import javax.ejb.Schedule;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+/**
+* Control class that keeps, in memory, how many upcoming events (and attendees) there are for each canonical location and day, so that the forecast refresh gets its worklist without scanning the events. The counts are updated by the Event Manager at every save, update and delete, and a location disappears from the worklist as soon as its last event goes away.
+* The registry is rebuilt from the database with a single aggregate query at startup and every night, which also drops the past days. The events are subscribed by the Event Manager only after their transaction has committed, so a rolled back save or update never reaches the registry. Only the forecast window is kept, plus the day that enters it before the next rebuild, so the memory follows the events that can have a forecast and not all the future ones
+**/
+@Singleton
+@Startup
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class CitySubscriptionRegistry
+{
+    private static final Logger LOGGER = Logger.getLogger(CitySubscriptionRegistry.class.getName());
+
+    @PersistenceContext(name = "meteocalPU")
+    EntityManager entityManager;
+
+    @EJB
+    EventManager eventManager;
+
+    @EJB
+    LocationIndex locationIndex;
+
+    /** Number of days kept after today: the forecast window, plus the day that enters it at midnight, before the next rebuild **/
+    static final int HORIZON_DAYS = CalendarManager.FORECAST_DAYS;
+
+    private Map<Long, EventSubscription> events = new HashMap<>();
+    private Map<ForecastKey, Subscription> subscriptions = new HashMap<>();
+    private Set<Long> updatedDuringRebuild;
+
+
+    /***************** REBUILD *****************/
+
+    /**
+    * Rebuilds the registry from the upcoming events, giving a location to the events saved without one. The query runs without the lock, so the updates keep going meanwhile: the registry is rebuilt in new maps, where the events updated during the query keep the state reached in the current maps instead of the one read, and then the new maps replace the current ones
+    **/
+    @PostConstruct
+    @Schedule(hour = "3", minute = "30", persistent = false)
+    public void rebuild()
+    {
+        long start = System.currentTimeMillis();
+        LocalDate today = LocalDate.now();
+        eventManager.assignMissingLocations();
+
+        // One row per upcoming event in the horizon, with its number of attendees, tracking the updates that happen meanwhile
+        synchronized(this)
+        {
+            updatedDuringRebuild = new HashSet<>();
+        }
+        try
+        {
+            List<Object[]> rows = entityManager.createNamedQuery(Event.findUpcomingSubscriptions, Object[].class)
+                .setParameter("today", ForecastKey.toDate(today))
+                .setParameter("lastDay", ForecastKey.toDate(today.plusDays(HORIZON_DAYS)))
+                .getResultList();
+            synchronized(this)
+            {
+                Map<Long, EventSubscription> newEvents = new HashMap<>();
+                Map<ForecastKey, Subscription> newSubscriptions = new HashMap<>();
+                for(Object[] row : rows)
+                {
+                    if(updatedDuringRebuild.contains((Long) row[0])) continue;
+                    String city = (String) row[2];
+                    String location = (row[1]!=null) ? (String) row[1] : locationIndex.resolve(city).getKey();
+                    add(newEvents, newSubscriptions, (Long) row[0], new ForecastKey(location, ForecastKey.toLocalDate((Date) row[3])), city, (Boolean) row[4], ((Number) row[5]).longValue());
+                }
+
+                // The events updated meanwhile may be missing or outdated in the rows: they keep their current subscription, if any
+                for(Long eventId : updatedDuringRebuild)
+                {
+                    EventSubscription current = events.get(eventId);
+                    if(current!=null) add(newEvents, newSubscriptions, eventId, current.key, subscriptions.get(current.key).city, current.outdoor, current.attendees);
+                }
+                events = newEvents;
+                subscriptions = newSubscriptions;
+                LOGGER.log(Level.INFO, "City subscriptions rebuilt: {0} events in {1} location-days ({2} updated meanwhile), {3} ms", new Object[]{events.size(), subscriptions.size(), updatedDuringRebuild.size(), System.currentTimeMillis()-start});
+            }
+        }
+        finally
+        {
+            synchronized(this)
+            {
+                updatedDuringRebuild = null;
+            }
+        }
+    }
+
+
+    /***************** UPDATES *****************/
+
+    /**
+    * Subscribes a saved or updated event to the forecasts of its location and day, replacing its previous subscription, if any
+    * @param event: the event, with its location key
+    **/
+    public void subscribe(Event event)
+    {
+        if(event.getId()==null || event.getDay()==null) return;
+        String location = (event.getLocationKey()!=null) ? event.getLocationKey() : locationIndex.resolve(event.getCity()).getKey();
+        int attendees = (event.getCalendars()==null) ? 0 : event.getCalendars().size();
+        this.subscribe(event.getId(), location, event.getCity(), ForecastKey.toLocalDate(event.getDay()), event.isOutdoor(), attendees);
+    }
+
+    /**
+    * Subscribes an event to the forecasts of its location and day, replacing its previous subscription, if any
+    * @param eventId: the event ID
+    * @param location: the canonical location key
+    * @param city: the event city, as written by the user
+    * @param day: the event day
+    * @param outdoor: true if the event takes place outdoor
+    * @param attendees: the number of users that have the event in their calendars
+    **/
+    public synchronized void subscribe(Long eventId, String location, String city, LocalDate day, boolean outdoor, long attendees)
+    {
+        EventSubscription previous = events.get(eventId);
+        if(previous!=null)
+        {
+            // Nothing to do if the event did not move (e.g. only the name changed)
+            if(previous.key.equals(new ForecastKey(location, day)) && previous.outdoor==outdoor) return;
+            this.unsubscribe(eventId);
+        }
+
+        // Events beyond the horizon are loaded by the rebuild, when their day gets close
+        if(updatedDuringRebuild!=null) updatedDuringRebuild.add(eventId);
+        if(day.isAfter(LocalDate.now().plusDays(HORIZON_DAYS))) return;
+        add(events, subscriptions, eventId, new ForecastKey(location, day), city, outdoor, attendees);
+    }
+
+    /**
+    * Adds an attendee to a subscribed event, e.g. when a user accepts an invitation
+    * @param eventId: the event ID
+    **/
+    public synchronized void addAttendee(Long eventId)
+    {
+        if(updatedDuringRebuild!=null) updatedDuringRebuild.add(eventId);
+        EventSubscription event = events.get(eventId);
+        if(event==null) return;
+        event.attendees++;
+        subscriptions.get(event.key).add(event.outdoor, 0, 1);
+    }
+
+    /**
+    * Removes the subscription of a deleted event: its location and day drop out of the worklist when no events are left
+    * @param eventId: the event ID
+    **/
+    public synchronized void unsubscribe(Long eventId)
+    {
+        if(updatedDuringRebuild!=null) updatedDuringRebuild.add(eventId);
+        EventSubscription event = events.remove(eventId);
+        if(event==null) return;
+        Subscription subscription = subscriptions.get(event.key);
+        subscription.add(event.outdoor, -1, -event.attendees);
+        if(subscription.getEvents()<=0) subscriptions.remove(event.key);
+    }
+
+
+    /**
+    * Adds the subscription of an event to the given maps
+    **/
+    private static void add(Map<Long, EventSubscription> events, Map<ForecastKey, Subscription> subscriptions, Long eventId, ForecastKey key, String city, boolean outdoor, long attendees)
+    {
+        Subscription subscription = subscriptions.get(key);
+        if(subscription==null) subscriptions.put(key, subscription = new Subscription(key, city));
+        subscription.add(outdoor, 1, attendees);
+        events.put(eventId, new EventSubscription(key, outdoor, attendees));
+    }
+
+
+    /***************** QUERIES *****************/
+
+    /**
+    * Gets the locations and days with upcoming events in the given period, without accessing the database
+    * @param from: the first day of the period
+    * @param to: the last day of the period
+    * @return a copy of the subscriptions in the period
+    **/
+    public synchronized List<Subscription> getSubscriptions(LocalDate from, LocalDate to)
+    {
+        List<Subscription> result = new ArrayList<>();
+        for(Subscription subscription : subscriptions.values())
+        {
+            LocalDate day = subscription.key.getDay();
+            if(!day.isBefore(from) && !day.isAfter(to)) result.add(subscription.copy());
+        }
+        return result;
+    }
+
+    /**
+    * Removes the subscriptions of the days before the given one
+    * @param today: the first day to keep
+    **/
+    public synchronized void removeBefore(LocalDate today)
+    {
+        for(Iterator<EventSubscription> i = events.values().iterator(); i.hasNext();)
+        {
+            if(i.next().key.getDay().isBefore(today)) i.remove();
+        }
+        for(Iterator<ForecastKey> i = subscriptions.keySet().iterator(); i.hasNext();)
+        {
+            if(i.next().getDay().isBefore(today)) i.remove();
+        }
+    }
+
+    /** Getter
+    * @return the number of subscribed events
+    */
+    public synchronized int getEventCount()
+    {
+        return events.size();
+    }
+
+    /** Getter
+    * @return the number of locations and days with at least one event
+    */
+    public synchronized int size()
+    {
+        return subscriptions.size();
+    }
+
+
+    /***************** SUPPORT CLASSES *****************/
+
+    /**
+    * The events of a location on a single day
+    **/
+    public static class Subscription
+    {
+        private final ForecastKey key;
+        private final String city;
+        private int indoorEvents;
+        private int outdoorEvents;
+        private long indoorAttendees;
+        private long outdoorAttendees;
+
+        private Subscription(ForecastKey key, String city)
+        {
+            this.key = key;
+            this.city = city;
+        }
+
+        private void add(boolean outdoor, int events, long attendees)
+        {
+            if(outdoor)
+            {
+                outdoorEvents += events;
+                outdoorAttendees += attendees;
+            }
+            else
+            {
+                indoorEvents += events;
+                indoorAttendees += attendees;
+            }
+        }
+
+        private Subscription copy()
+        {
+            Subscription copy = new Subscription(key, city);
+            copy.indoorEvents = indoorEvents;
+            copy.outdoorEvents = outdoorEvents;
+            copy.indoorAttendees = indoorAttendees;
+            copy.outdoorAttendees = outdoorAttendees;
+            return copy;
+        }
+
+        /** Getter
+        * @return the canonical location key
+        */
+        public String getLocation()
+        {
+            return key.getCity();
+        }
+
+        /** Getter
+        * @return the name of a city in the location, as written in one of its events
+        */
+        public String getCity()
+        {
+            return city;
+        }
+
+        /** Getter
+        * @return the events day
+        */
+        public LocalDate getDay()
+        {
+            return key.getDay();
+        }
+
+        /** Getter
+        * @return the number of events in the location on that day
+        */
+        public int getEvents()
+        {
+            return indoorEvents+outdoorEvents;
+        }
+
+        /** Getter
+        * @return true if at least one of the events takes place outdoor
+        */
+        public boolean isOutdoor()
+        {
+            return outdoorEvents>0;
+        }
+
+        /** Getter
+        * @return the number of attendees of the most urgent events: the outdoor ones if any, otherwise the indoor ones
+        */
+        public long getAttendees()
+        {
+            return (outdoorEvents>0) ? outdoorAttendees : indoorAttendees;
+        }
+    }
+
+    /**
+    * The subscription of a single event, kept to undo it when the event is updated or deleted
+    **/
+    private static final class EventSubscription
+    {
+        private final ForecastKey key;
+        private final boolean outdoor;
+        private long attendees;
+
+        private EventSubscription(ForecastKey key, boolean outdoor, long attendees)
+        {
+            this.key = key;
+            this.outdoor = outdoor;
+            this.attendees = attendees;
+        }
+    }
+}
@@ -2,6 +2,7 @@ package it.polimi.se2.meteocal.control;
 
 import it.polimi.se2.meteocal.entity.Calendar;
 import it.polimi.se2.meteocal.entity.Event;
+import it.polimi.se2.meteocal.entity.Forecast;
 import it.polimi.se2.meteocal.entity.Notification;
 import it.polimi.se2.meteocal.entity.User;
 import java.security.Principal;
@@ -9,6 +10,7 @@ import java.util.Date;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
+import javax.annotation.Resource;
 import javax.ejb.EJB;
 import javax.ejb.Stateless;
 import javax.inject.Inject;
@@ -16,6 +18,7 @@ import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
 import javax.persistence.PersistenceContext;
 import javax.persistence.TypedQuery;
+import javax.transaction.TransactionSynchronizationRegistry;
 
 /**
 * Control class that takes care of the event management: create, delete, update and search Event entities
@@ -37,6 +40,18 @@ public class EventManager
     
     @EJB
     NotificationManager notificationManager;
+    
+    @EJB
+    ForecastManager forecastManager;
+    
+    @EJB
+    LocationIndex locationIndex;
+    
+    @EJB
+    CitySubscriptionRegistry citySubscriptionRegistry;
+    
+    @Resource
+    TransactionSynchronizationRegistry transactionRegistry;
 
     /**
     * Method to save the event in the database
@@ -57,9 +72,15 @@ public class EventManager
         if(calendar==null) return;
         calendar.addEvent(event);
         event.addCalendar(calendar);
+        
+        // Set the canonical location, shared with the events in the same area
+        event.setLocationKey(locationIndex.resolve(event.getCity()).getKey());
           
         // Save event
         entityManager.persist(event);
+        
+        // Subscribe its location and day to the forecast refresh, once saved
+        this.subscribeAfterCommit(event);
     }
     
     /**
@@ -71,8 +92,12 @@ public class EventManager
         // Check again that the current user can update the event, just to be sure
         if(!this.canCurrentUserAlterEvent(event)) return;
         
-        // Update event
+        // Update event, with the canonical location of its (possibly new) city
+        event.setLocationKey(locationIndex.resolve(event.getCity()).getKey());
         entityManager.merge(event);
+        
+        // Move the subscription, if the location or the day changed, once saved
+        this.subscribeAfterCommit(event);
     }
 
     /**
@@ -106,8 +131,33 @@ public class EventManager
             notificationManager.delete(notification);
         }
         
-        // Delete the event entity
+        // Delete the event entity and, once deleted, its subscription
+        final Long id = event.getId();
         entityManager.remove(event);
+        AfterCommit.run(transactionRegistry, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                citySubscriptionRegistry.unsubscribe(id);
+            }
+        });
+    }
+    
+    /**
+    * Subscribes the location and day of an event to the forecast refresh after the commit of the current transaction, so that a rolled back save or update does not change the refresh worklist (see CitySubscriptionRegistry)
+    * @param event: the saved event
+    **/
+    private void subscribeAfterCommit(final Event event)
+    {
+        AfterCommit.run(transactionRegistry, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                citySubscriptionRegistry.subscribe(event);
+            }
+        });
     }
     
     /**
@@ -135,14 +185,47 @@ public class EventManager
     }
     
     /**
-    * Method to update a persisted Event entity with a weather forecast
-    * @param forecast: the String containing the event forecast description
+    * Method to update a persisted Event entity with a weather forecast: the forecast is saved once for the event location and day, then the event is simply linked to it
+    * @param forecast: the String containing the event forecast description, null or empty if no forecast is available
     * @param event: the event that needs to be updated
     **/
     public void saveWeatherForecast(String forecast, Event event)
     {
-        event.setWeatherForecast(forecast);
-        this.update(event);
+        // Check again that the current user can update the event, just to be sure
+        if(!this.canCurrentUserAlterEvent(event)) return;
+        
+        this.linkWeatherForecast(forecast, event);
+    }
+    
+    /**
+    * Method to update a persisted Event entity with a weather forecast, without the checks on the current user: for the background requests, e.g. of the Forecast Updater, that run under the principal of whoever takes them from the queue, while the user who asked for them has already been checked before queueing
+    * @param forecast: the String containing the event forecast description, null or empty if no forecast is available
+    * @param event: the event that needs to be updated
+    **/
+    public void linkWeatherForecast(String forecast, Event event)
+    {
+        // Save the shared forecast, if any, and link the event to it
+        Forecast savedForecast = (forecast==null || "".equals(forecast)) ? null : forecastManager.saveForecast(locationIndex.resolve(event.getCity()).getKey(), event.getDay(), forecast);
+        forecastManager.linkEvent(event, savedForecast);
+    }
+    
+    /**
+    * Method to set the location key of the events that do not have one yet, with a bulk update for each distinct city
+    * @return the number of events updated
+    **/
+    public int assignMissingLocations()
+    {
+        int updated = 0;
+        List<String> cities = entityManager.createNamedQuery(Event.findCitiesWithoutLocation, String.class).getResultList();
+        for(String city : cities)
+        {
+            if(city==null) continue;
+            updated += entityManager.createNamedQuery(Event.updateLocationByCity)
+                .setParameter("location", locationIndex.resolve(city).getKey())
+                .setParameter("city", city)
+                .executeUpdate();
+        }
+        return updated;
     }
     
     /**
@@ -184,7 +267,7 @@ public class EventManager
     * @param id: the ID of the event
     * @return the event with the given ID if found, null otherwise
     **/
-    public Event getEventById(int id)
+    public Event getEventById(long id)
     {
         // Get event
         TypedQuery<Event> query1 = entityManager.createNamedQuery(Event.findById, Event.class);
@@ -255,6 +338,16 @@ public class EventManager
         User currentUser = userManager.getLoggedUser();
         if(currentUser==null) return null;
         
+        return this.getEventsForBadWeatherAlerts(currentUser);
+    }
+    
+    /**
+    * Query to get the events for bad weather alerts of the given user, e.g. when there is no logged user in the current thread
+    * @param user: the user whose calendar contains the events
+    * @return the list of the events for bad weather alerts, possibly null
+    **/
+    public List<Event> getEventsForBadWeatherAlerts(User user)
+    {
         // Date is tomorrow
         Date today = new Date();
         java.util.Calendar c = java.util.Calendar.getInstance();
@@ -262,9 +355,9 @@ public class EventManager
         c.add(java.util.Calendar.DATE, 1);
         Date tomorrow = c.getTime();
         
-        // Get outdoor events in the current user's calendar (with no distinction about organizer or not)
+        // Get outdoor events in the user's calendar (with no distinction about organizer or not)
         TypedQuery<Event> query1 = entityManager.createNamedQuery(Event.findEventsForBadWeatherAlert, Event.class);
-        TypedQuery<Event> query2 = query1.setParameter("date", tomorrow).setParameter("user", currentUser);
+        TypedQuery<Event> query2 = query1.setParameter("date", tomorrow).setParameter("user", user);
         try
         {
             return query2.getResultList();
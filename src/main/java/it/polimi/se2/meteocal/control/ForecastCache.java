@@ -0,0 +1,349 @@
+package it.polimi.se2.meteocal.control;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+
+/**
+* Control class that keeps in memory the weather forecasts received from the provider, keyed by city and day, so that events in the same city share the same HTTP request. Entries expire after a fixed time, but are kept as stale forecasts until, when the cache is full, the least recently used ones are evicted.
+* The failed lookups are cached too (negative caching), each failure type with its own shorter expiration time, so that a city unknown to the provider or a missing day do not cause the same failing request at every save
+**/
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class ForecastCache
+{
+    /** Default time after which a cached forecast is considered expired **/
+    public static final long DEFAULT_TIME_TO_LIVE = TimeUnit.HOURS.toMillis(1);
+
+    /** Default maximum number of (city, day) forecasts kept in memory **/
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+    private final long timeToLive;
+    private final int maxEntries;
+    private final Map<ForecastKey, Entry> entries;
+    private final Map<ForecastKey, FailureEntry> failures;
+    private final Map<ForecastFailure, Long> failureTimeToLive = new EnumMap<>(ForecastFailure.class);
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long failureHits;
+
+
+    /***************** CONSTRUCTORS *****************/
+
+    /** Constructor with the default expiration time and size **/
+    public ForecastCache()
+    {
+        this(DEFAULT_TIME_TO_LIVE, DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+    * Constructor with custom expiration time and size
+    * @param timeToLive: the time (in milliseconds) after which a forecast expires
+    * @param maxEntries: the maximum number of forecasts kept in memory
+    **/
+    public ForecastCache(long timeToLive, final int maxEntries)
+    {
+        this.timeToLive = timeToLive;
+        this.maxEntries = maxEntries;
+
+        // Access-ordered map, so that the eldest entry is the least recently used one
+        this.entries = new LinkedHashMap<ForecastKey, Entry>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ForecastKey, Entry> eldest)
+            {
+                if(size()<=ForecastCache.this.maxEntries) return false;
+                evictions++;
+                return true;
+            }
+        };
+        this.failures = new LinkedHashMap<ForecastKey, FailureEntry>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ForecastKey, FailureEntry> eldest)
+            {
+                return size()>ForecastCache.this.maxEntries;
+            }
+        };
+        for(ForecastFailure failure : ForecastFailure.values()) failureTimeToLive.put(failure, failure.getTimeToLive());
+    }
+
+    /**
+    * Changes the expiration time of a failure type
+    * @param failure: the failure type
+    * @param timeToLive: the time (in milliseconds) after which a cached failure of that type expires
+    **/
+    public synchronized void setFailureTimeToLive(ForecastFailure failure, long timeToLive)
+    {
+        failureTimeToLive.put(failure, timeToLive);
+    }
+
+
+    /***************** CACHE METHODS *****************/
+
+    /**
+    * Gets the cached forecast for the given city and day
+    * @param city: the city name, not necessarily normalized
+    * @param day: the forecast day
+    * @return the forecast condition, or null if not cached or expired
+    **/
+    public synchronized String get(String city, LocalDate day)
+    {
+        Entry entry = entries.get(new ForecastKey(city, day));
+
+        // Miss if not present or expired (expired entries are kept as stale forecasts until evicted)
+        if(entry==null || entry.expiresAt<=System.currentTimeMillis())
+        {
+            misses++;
+            return null;
+        }
+
+        hits++;
+        return entry.condition;
+    }
+
+    /**
+    * Gets the cached forecast for the given city and day even if expired, to be used when a fresh one cannot be requested
+    * @param city: the city name, not necessarily normalized
+    * @param day: the forecast day
+    * @return the forecast condition, possibly expired, or null if not cached
+    **/
+    public synchronized String getStale(String city, LocalDate day)
+    {
+        Entry entry = entries.get(new ForecastKey(city, day));
+        return (entry==null) ? null : entry.condition;
+    }
+
+    /**
+    * Saves a single forecast in the cache
+    * @param city: the city name, not necessarily normalized
+    * @param day: the forecast day
+    * @param condition: the forecast condition
+    **/
+    public synchronized void put(String city, LocalDate day, String condition)
+    {
+        if(condition==null) return;
+        ForecastKey key = new ForecastKey(city, day);
+        entries.put(key, new Entry(condition, System.currentTimeMillis()+timeToLive));
+        failures.remove(key);
+    }
+
+    /**
+    * Saves all the forecasts returned by a single provider request: the element 0 is the first day, 1 the day after, etc.
+    * @param city: the city name, not necessarily normalized
+    * @param firstDay: the day of the first forecast in the list
+    * @param conditions: the forecast conditions, one for each consecutive day (null elements are skipped)
+    **/
+    public synchronized void putAll(String city, LocalDate firstDay, List<String> conditions)
+    {
+        // The provider answered, so the city-wide failures are not valid anymore
+        failures.remove(new ForecastKey(city, (LocalDate) null));
+        for(int i=0; i<conditions.size(); i++)
+        {
+            this.put(city, firstDay.plusDays(i), conditions.get(i));
+        }
+    }
+
+    /**
+    * Gets the cached failure for the given city and day, checking the city-wide failures first
+    * @param city: the city name, not necessarily normalized
+    * @param day: the forecast day
+    * @return the failure type, or null if no valid failure is cached
+    **/
+    public synchronized ForecastFailure getFailure(String city, LocalDate day)
+    {
+        long now = System.currentTimeMillis();
+        FailureEntry entry = failures.get(new ForecastKey(city, (LocalDate) null));
+        if(entry==null || entry.expiresAt<=now) entry = failures.get(new ForecastKey(city, day));
+        if(entry==null || entry.expiresAt<=now) return null;
+
+        failureHits++;
+        return entry.failure;
+    }
+
+    /**
+    * Saves a failed lookup: city-wide failures affect all the days of the city, the others only the given day
+    * @param city: the city name, not necessarily normalized
+    * @param day: the forecast day
+    * @param failure: the failure type
+    **/
+    public synchronized void putFailure(String city, LocalDate day, ForecastFailure failure)
+    {
+        ForecastKey key = new ForecastKey(city, failure.isCityWide() ? null : day);
+        failures.put(key, new FailureEntry(failure, System.currentTimeMillis()+failureTimeToLive.get(failure)));
+    }
+
+    /**
+    * Gets a copy of all the cached forecasts, including the expired ones, e.g. to save them in a snapshot
+    * @return the cached forecasts with their expiration times
+    **/
+    public synchronized List<CachedForecast> getEntries()
+    {
+        List<CachedForecast> copy = new ArrayList<>(entries.size());
+        for(Map.Entry<ForecastKey, Entry> entry : entries.entrySet())
+        {
+            copy.add(new CachedForecast(entry.getKey(), entry.getValue().condition, entry.getValue().expiresAt));
+        }
+        return copy;
+    }
+
+    /**
+    * Restores a forecast with its original expiration time, e.g. from a snapshot. A forecast already in the cache is not replaced, since it's newer
+    * @param key: the forecast key
+    * @param condition: the forecast condition
+    * @param expiresAt: the expiration time (milliseconds since the epoch)
+    **/
+    public synchronized void restore(ForecastKey key, String condition, long expiresAt)
+    {
+        if(condition==null || entries.containsKey(key)) return;
+        entries.put(key, new Entry(condition, expiresAt));
+    }
+
+    /**
+    * Removes all the forecasts and failures and resets the counters
+    **/
+    public synchronized void clear()
+    {
+        entries.clear();
+        failures.clear();
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+        failureHits = 0;
+    }
+
+
+    /***************** STATISTICS *****************/
+
+    /** Getter
+    * @return the number of forecasts currently in memory, including the expired ones
+    */
+    public synchronized int size()
+    {
+        return entries.size();
+    }
+
+    /** Getter
+    * @return the number of requests that found a valid forecast
+    */
+    public synchronized long getHits()
+    {
+        return hits;
+    }
+
+    /** Getter
+    * @return the number of requests that did not find a valid forecast
+    */
+    public synchronized long getMisses()
+    {
+        return misses;
+    }
+
+    /** Getter
+    * @return the number of forecasts removed because the cache was full
+    */
+    public synchronized long getEvictions()
+    {
+        return evictions;
+    }
+
+    /** Getter
+    * @return the number of requests answered with a cached failure instead of asking the provider again
+    */
+    public synchronized long getFailureHits()
+    {
+        return failureHits;
+    }
+
+    /** Getter
+    * @return the ratio between hits and total requests, 0 if no requests have been made
+    */
+    public synchronized double getHitRatio()
+    {
+        long total = hits+misses;
+        return (total==0) ? 0 : (double) hits/total;
+    }
+
+
+    /***************** SUPPORT CLASSES *****************/
+
+    /**
+    * A cached forecast as seen from outside the cache
+    **/
+    public static final class CachedForecast
+    {
+        private final ForecastKey key;
+        private final String condition;
+        private final long expiresAt;
+
+        private CachedForecast(ForecastKey key, String condition, long expiresAt)
+        {
+            this.key = key;
+            this.condition = condition;
+            this.expiresAt = expiresAt;
+        }
+
+        /** Getter
+        * @return the forecast key
+        */
+        public ForecastKey getKey()
+        {
+            return key;
+        }
+
+        /** Getter
+        * @return the forecast condition
+        */
+        public String getCondition()
+        {
+            return condition;
+        }
+
+        /** Getter
+        * @return the expiration time (milliseconds since the epoch)
+        */
+        public long getExpiresAt()
+        {
+            return expiresAt;
+        }
+    }
+
+    /**
+    * A single cached forecast with its expiration time
+    **/
+    private static final class Entry
+    {
+        private final String condition;
+        private final long expiresAt;
+
+        private Entry(String condition, long expiresAt)
+        {
+            this.condition = condition;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+    * A single cached failure with its expiration time
+    **/
+    private static final class FailureEntry
+    {
+        private final ForecastFailure failure;
+        private final long expiresAt;
+
+        private FailureEntry(ForecastFailure failure, long expiresAt)
+        {
+            this.failure = failure;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
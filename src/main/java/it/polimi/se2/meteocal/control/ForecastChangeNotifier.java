@@ -0,0 +1,92 @@
+package it.polimi.se2.meteocal.control;
+
+import it.polimi.se2.meteocal.entity.Calendar;
+import it.polimi.se2.meteocal.entity.Event;
+import it.polimi.se2.meteocal.entity.Forecast;
+import it.polimi.se2.meteocal.entity.User;
+import it.polimi.se2.meteocal.entity.WeatherCondition;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.ejb.EJB;
+import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+/**
+* Control class that tells the attendees of the outdoor events when the forecast of their event changes in a way that matters to them: a change is notified only to the calendars whose bad weather preferences it crosses (from good to bad weather or vice versa), so the number of notifications follows the real weather changes and not the refresh frequency
+**/
+@Stateless
+public class ForecastChangeNotifier
+{
+    @PersistenceContext(name = "meteocalPU")
+    EntityManager entityManager;
+
+    @EJB
+    NotificationManager notificationManager;
+
+    /**
+    * Notifies a forecast change to the attendees for which it crosses the bad weather preferences. The recipients are found with a single query and the notifications are sent in one batch per event. The method is called after the forecast update has committed (see ForecastManager), and the notifications are written in their own transaction
+    * @param forecast: the updated forecast
+    * @param previousCondition: the previous weather condition description
+    * @param previousMask: the mask of the previous weather conditions
+    * @return the number of notifications sent
+    **/
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public int notifyChange(Forecast forecast, String previousCondition, int previousMask)
+    {
+        // Get the calendar masks for which the change matters
+        List<Integer> calendarMasks = WeatherCondition.getCrossingMasks(previousMask, forecast.getConditionMask());
+        if(calendarMasks.isEmpty()) return 0;
+
+        // Get the outdoor events linked to the forecast, with the calendars affected by the change
+        List<Object[]> rows = entityManager.createNamedQuery(Event.findForecastChangeRecipients, Object[].class)
+            .setParameter("forecast", forecast)
+            .setParameter("calendarMasks", calendarMasks)
+            .getResultList();
+        Map<Event, List<Calendar>> recipients = new LinkedHashMap<>();
+        for(Object[] row : rows)
+        {
+            List<Calendar> calendars = recipients.get((Event) row[0]);
+            if(calendars==null) recipients.put((Event) row[0], calendars = new ArrayList<>());
+            calendars.add((Calendar) row[1]);
+        }
+
+        // Send the notifications of each event together
+        int sent = 0;
+        for(Map.Entry<Event, List<Calendar>> entry : recipients.entrySet())
+        {
+            sent += this.notifyEvent(entry.getKey(), entry.getValue(), forecast, previousCondition, previousMask);
+        }
+        return sent;
+    }
+
+    /**
+    * Sends the notifications of a single event, once per calendar owner
+    * @return the number of notifications sent
+    **/
+    private int notifyEvent(Event event, List<Calendar> calendars, Forecast forecast, String previousCondition, int previousMask)
+    {
+        String day = new SimpleDateFormat("dd-MM-yyyy").format(forecast.getDay());
+        Set<Long> receivers = new HashSet<>();
+        for(Calendar calendar : calendars)
+        {
+            User owner = calendar.getOwner();
+            if(owner==null || !receivers.add(owner.getId())) continue;
+
+            // The calendar is affected, so the forecast is either bad weather now or it is not anymore
+            boolean nowBad = WeatherCondition.isBad(forecast.getConditionMask(), calendar.getBadWeatherMask());
+            String title = nowBad ? "Weather is getting worse!" : "Weather is getting better!";
+            String content = "The forecast for the outdoor event \""+event.getName()+"\" on "+day+" changed from \""+previousCondition+"\" to \""+forecast.getCondition()+"\": "
+                +(nowBad ? "it's now bad weather for you" : "it's no longer bad weather for you");
+            notificationManager.sendNotification(title, content, false, owner, event);
+        }
+        return receivers.size();
+    }
+}
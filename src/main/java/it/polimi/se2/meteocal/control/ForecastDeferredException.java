@@ -0,0 +1,18 @@
+package it.polimi.se2.meteocal.control;
+
+/**
+* Exception thrown when a forecast request is not sent because the provider quota is running out: the forecast should be taken from the cache or requested again later
+**/
+public class ForecastDeferredException extends WeatherProviderException
+{
+    private static final long serialVersionUID = 1L;
+
+    /**
+    * Constructor with the error description
+    * @param message: the error description
+    **/
+    public ForecastDeferredException(String message)
+    {
+        super(message);
+    }
+}
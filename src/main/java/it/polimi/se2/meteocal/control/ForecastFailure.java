@@ -0,0 +1,53 @@
+package it.polimi.se2.meteocal.control;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+* Reason why a forecast could not be obtained, used to cache the failed lookups: each type has its own expiration time, so that permanent failures are not requested again for a long time while transient ones are retried soon
+**/
+public enum ForecastFailure
+{
+    /** The provider does not know the city: no day of that city can have a forecast **/
+    UNKNOWN_CITY("Unknown city", TimeUnit.HOURS.toMillis(6), true),
+
+    /** The provider answered but has no forecast for that day **/
+    OUT_OF_RANGE("No weather forecast available", TimeUnit.HOURS.toMillis(1), false),
+
+    /** The provider is not available (network problem, timeout, HTTP error, etc.) **/
+    PROVIDER_ERROR("Weather provider not available", TimeUnit.MINUTES.toMillis(1), true);
+
+    private final String message;
+    private final long timeToLive;
+    private final boolean cityWide;
+
+    private ForecastFailure(String message, long timeToLive, boolean cityWide)
+    {
+        this.message = message;
+        this.timeToLive = timeToLive;
+        this.cityWide = cityWide;
+    }
+
+    /** Getter
+    * @return the error description shown when the failure is returned from the cache
+    */
+    public String getMessage()
+    {
+        return message;
+    }
+
+    /** Getter
+    * @return the default time (in milliseconds) after which the cached failure expires
+    */
+    public long getTimeToLive()
+    {
+        return timeToLive;
+    }
+
+    /** Getter
+    * @return true if the failure affects all the days of the city, false if only the requested day
+    */
+    public boolean isCityWide()
+    {
+        return cityWide;
+    }
+}
@@ -0,0 +1,223 @@
+package it.polimi.se2.meteocal.control;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+import javax.enterprise.concurrent.ManagedExecutorService;
+
+/**
+* Control class that sends the weather forecast requests to the provider. Concurrent requests for the same city are coalesced: only the first caller sends the HTTP request, the others wait for its result. The provider is protected by a circuit breaker, so that while it's down the callers fail immediately instead of waiting for the timeouts, and by a rate limiter that keeps the requests within the API quota.
+* The provider is chosen with the system property "meteocal.weather.provider": "stub" for the in-memory one, otherwise the HTTP one configured by the "meteocal.weather.*" properties. Setting "meteocal.weather.secondary.provider" (and the other "meteocal.weather.secondary.*" properties) enables the hedged requests to a second provider
+**/
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class ForecastFetcher
+{
+    /** Maximum time (in seconds) a caller waits for a request sent by another caller **/
+    static final long WEATHER_REQUEST_TIMEOUT = 10;
+
+    /** Number of consecutive failures that make the provider considered down **/
+    static final int FAILURE_THRESHOLD = 5;
+
+    /** Time (in milliseconds) before trying again a provider considered down **/
+    static final long OPEN_CIRCUIT_DURATION = TimeUnit.SECONDS.toMillis(30);
+
+    private final ConcurrentMap<String, InFlightRequest> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong providerRequests = new AtomicLong();
+    private final AtomicLong coalescedRequests = new AtomicLong();
+    private final CircuitBreaker circuitBreaker = new CircuitBreaker(FAILURE_THRESHOLD, OPEN_CIRCUIT_DURATION);
+    private final WeatherRateLimiter rateLimiter = WeatherRateLimiter.fromSystemProperties();
+
+    private volatile WeatherProvider provider;
+
+    @Resource
+    ManagedExecutorService executor;
+
+    /**
+    * Chooses the weather provider from the system properties. If a secondary provider is configured, the requests are hedged between the two
+    **/
+    @PostConstruct
+    void initializeProvider()
+    {
+        provider = this.createProvider("meteocal.weather");
+        if(System.getProperty("meteocal.weather.secondary.provider")!=null)
+        {
+            double percentile = Double.parseDouble(System.getProperty("meteocal.weather.hedge.percentile", String.valueOf(HedgedWeatherProvider.DEFAULT_PERCENTILE)));
+            provider = new HedgedWeatherProvider(provider, this.createProvider("meteocal.weather.secondary"), executor, percentile);
+        }
+    }
+
+    /**
+    * Creates a provider from the system properties with the given prefix: PREFIX.provider is "stub" for the in-memory provider, otherwise the HTTP one is configured by the other PREFIX.* properties
+    * @param prefix: the prefix of the system properties
+    * @return the configured provider
+    **/
+    private WeatherProvider createProvider(String prefix)
+    {
+        if("stub".equals(System.getProperty(prefix+".provider"))) return new StubWeatherProvider();
+        return HttpWeatherProvider.fromSystemProperties(prefix);
+    }
+
+    /**
+    * Gets the weekly forecast for the given city, sharing the HTTP request with the other callers that are asking for the same city at the same time. The request is sent only if the provider quota allows it for the given priority: a caller that joined a request deferred for a lower priority tries again with its own
+    * @param city: the city name, not necessarily normalized
+    * @param priority: the priority of the request, interactive requests can use the quota reserved to them
+    * @return the list of forecast conditions: today is the element 0, tomorrow 1, etc. (elements may be null if the provider has no condition for that day), with the hourly forecasts if available
+    * @throws ForecastDeferredException if the request is not sent because the quota is running out
+    * @throws Exception if an error occurs during the HTTP request, like a network problem or a timeout
+    **/
+    public ForecastWeek fetchWeek(String city, ForecastPriority priority) throws Exception
+    {
+        String key = ForecastKey.normalizeCity(city);
+
+        // Join the request in flight for this city, if any
+        InFlightRequest request = new InFlightRequest(priority);
+        InFlightRequest existing = inFlight.putIfAbsent(key, request);
+        if(existing!=null)
+        {
+            coalescedRequests.incrementAndGet();
+            try
+            {
+                return existing.get(WEATHER_REQUEST_TIMEOUT, TimeUnit.SECONDS);
+            }
+            catch(ExecutionException ex)
+            {
+                // Deferred for the priority of the caller that sent it: a more urgent caller is entitled to its own try
+                if(ex.getCause() instanceof ForecastDeferredException && priority.compareTo(existing.priority)<0)
+                {
+                    inFlight.remove(key, existing);
+                    return this.fetchWeek(city, priority);
+                }
+                throw (ex.getCause() instanceof Exception) ? (Exception) ex.getCause() : ex;
+            }
+        }
+
+        // Otherwise send the request, if the quota allows it, and share its result
+        try
+        {
+            if(!rateLimiter.tryAcquire(priority)) throw new ForecastDeferredException("Weather provider quota exhausted");
+            providerRequests.incrementAndGet();
+            ForecastWeek conditions = this.requestWeek(city);
+            request.complete(conditions);
+            return conditions;
+        }
+        catch(Exception ex)
+        {
+            request.completeExceptionally(ex);
+            throw ex;
+        }
+        finally
+        {
+            inFlight.remove(key, request);
+        }
+    }
+
+    /**
+    * Sends the actual request to the weather provider, unless the circuit breaker says that the provider is down
+    * @param city: the city name
+    * @return the list of forecast conditions, starting from today
+    * @throws UnknownCityException if the provider does not know the city, which does not count as a provider failure
+    * @throws WeatherProviderException if the provider fails or the circuit is open
+    **/
+    ForecastWeek requestWeek(String city) throws WeatherProviderException
+    {
+        // Fail fast while the provider is down
+        if(!circuitBreaker.allowRequest()) throw new WeatherProviderException("Weather provider temporarily unavailable");
+        
+        try
+        {
+            ForecastWeek conditions = provider.requestWeek(city);
+            circuitBreaker.recordSuccess();
+            return conditions;
+        }
+        catch(UnknownCityException ex)
+        {
+            // The provider answered: an unknown city says nothing about its health
+            circuitBreaker.recordSuccess();
+            throw ex;
+        }
+        catch(WeatherProviderException | RuntimeException ex)
+        {
+            circuitBreaker.recordFailure();
+            throw ex;
+        }
+    }
+
+    /**
+    * Makes the next request for a city get the full forecast, instead of a "not modified" answer based on the last one (e.g. because the last one could not be saved)
+    * @param city: the city name, as sent to the provider
+    **/
+    public void invalidate(String city)
+    {
+        provider.invalidate(city);
+    }
+
+    /**
+    * Replaces the weather provider, e.g. with a stub in tests
+    * @param provider: the new weather provider
+    **/
+    void setProvider(WeatherProvider provider)
+    {
+        this.provider = provider;
+    }
+
+    /** Getter
+    * @return the circuit breaker that protects the provider
+    */
+    public CircuitBreaker getCircuitBreaker()
+    {
+        return circuitBreaker;
+    }
+
+    /** Getter
+    * @return the rate limiter that keeps the requests within the provider quota
+    */
+    public WeatherRateLimiter getRateLimiter()
+    {
+        return rateLimiter;
+    }
+
+
+    /***************** STATISTICS *****************/
+
+    /** Getter
+    * @return the number of HTTP requests actually sent to the provider
+    */
+    public long getProviderRequests()
+    {
+        return providerRequests.get();
+    }
+
+    /** Getter
+    * @return the number of callers that joined a request already in flight instead of sending a new one
+    */
+    public long getCoalescedRequests()
+    {
+        return coalescedRequests.get();
+    }
+
+
+    /***************** SUPPORT CLASSES *****************/
+
+    /**
+    * A request in flight, with the priority of the caller that sent it
+    **/
+    private static final class InFlightRequest extends CompletableFuture<ForecastWeek>
+    {
+        private final ForecastPriority priority;
+
+        private InFlightRequest(ForecastPriority priority)
+        {
+            this.priority = priority;
+        }
+    }
+}
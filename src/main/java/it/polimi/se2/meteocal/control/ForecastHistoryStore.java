@@ -0,0 +1,365 @@
+package it.polimi.se2.meteocal.control;
+
+import it.polimi.se2.meteocal.entity.WeatherCondition;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+import javax.annotation.PreDestroy;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+
+/**
+* Control class that keeps every forecast received from the provider in an append-only log, outside the database, to measure how accurate the provider is days in advance. The log is partitioned by month of the forecast day (one file per month, so all the forecasts of a day are in the same file), and each partition is a sequence of gzip members, one for each flush: records are only appended, never rewritten.
+* A record is the location key, the forecast day, the lead time (days between the request and the forecast day), the condition mask and the request time. The directory is chosen with the system property "meteocal.history.dir" (default: "meteocal-history" in the GlassFish domain directory, or in the user home outside of the server), never in the temporary directory since the log is the only copy of the history
+**/
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class ForecastHistoryStore
+{
+    /** Maximum lead time (in days) stored: the last day of the forecast window **/
+    public static final int MAX_LEAD = CalendarManager.FORECAST_DAYS-1;
+
+    /** Number of buffered records that triggers a flush **/
+    static final int MAX_BUFFERED_RECORDS = 10000;
+
+    /** Prefix of the partition files, followed by the month (e.g. "forecasts-2015-01.gz") **/
+    static final String PARTITION_PREFIX = "forecasts-";
+
+    /** Name of the default directory, in the domain directory or in the user home **/
+    static final String DEFAULT_DIRECTORY = "meteocal-history";
+
+    private static final Logger LOGGER = Logger.getLogger(ForecastHistoryStore.class.getName());
+
+    private final Path directory;
+    private final Map<YearMonth, List<Record>> buffer = new HashMap<>();
+    private int bufferedRecords;
+
+
+    /***************** CONSTRUCTORS *****************/
+
+    /** Constructor with the directory chosen by the system properties **/
+    public ForecastHistoryStore()
+    {
+        this(getDefaultDirectory());
+    }
+
+    /**
+    * Constructor with a custom directory
+    * @param directory: the directory of the partition files, created if missing
+    **/
+    public ForecastHistoryStore(Path directory)
+    {
+        this.directory = directory;
+    }
+
+
+    /***************** APPEND *****************/
+
+    /**
+    * Records all the forecasts returned by a single provider request. Records are buffered and written by flush()
+    * @param location: the canonical location key (see LocationIndex)
+    * @param requestDay: the day of the request, i.e. of the first forecast in the week
+    * @param week: the forecast conditions, one for each consecutive day (null elements are skipped)
+    **/
+    public synchronized void record(String location, LocalDate requestDay, List<String> week)
+    {
+        long fetchedAt = System.currentTimeMillis();
+        String key = ForecastKey.normalizeCity(location);
+        for(int lead=0; lead<week.size() && lead<=MAX_LEAD; lead++)
+        {
+            if(week.get(lead)==null) continue;
+            LocalDate day = requestDay.plusDays(lead);
+            List<Record> partition = buffer.get(YearMonth.from(day));
+            if(partition==null) buffer.put(YearMonth.from(day), partition = new ArrayList<>());
+            partition.add(new Record(key, day.toEpochDay(), lead, WeatherCondition.parse(week.get(lead)), fetchedAt));
+            bufferedRecords++;
+        }
+        if(bufferedRecords>=MAX_BUFFERED_RECORDS) this.flush();
+    }
+
+    /**
+    * Appends the buffered records to their partitions, as a new gzip member of each partition file. Records that cannot be written are dropped, since the history must never affect the forecasts
+    **/
+    @PreDestroy
+    public synchronized void flush()
+    {
+        if(bufferedRecords==0) return;
+        try
+        {
+            Files.createDirectories(directory);
+            for(Map.Entry<YearMonth, List<Record>> partition : buffer.entrySet())
+            {
+                try(DataOutputStream output = new DataOutputStream(new GZIPOutputStream(new BufferedOutputStream(Files.newOutputStream(this.getPartition(partition.getKey()), StandardOpenOption.CREATE, StandardOpenOption.APPEND)))))
+                {
+                    for(Record record : partition.getValue()) record.writeTo(output);
+                }
+            }
+        }
+        catch(IOException ex)
+        {
+            LOGGER.log(Level.WARNING, "Cannot write the forecast history, "+bufferedRecords+" records dropped", ex);
+        }
+        buffer.clear();
+        bufferedRecords = 0;
+    }
+
+
+    /***************** SCAN *****************/
+
+    /**
+    * Computes the accuracy of the provider for each lead time over a period: the forecast made N days in advance (the last one of that day) is compared with the one made on the day itself, which is the closest thing to the observed weather we have. Partitions are scanned one at a time, so the memory used depends on a single month
+    * @param from: the first month of the period
+    * @param to: the last month of the period
+    * @return the accuracy report
+    * @throws IOException if a partition cannot be read
+    **/
+    public AccuracyReport computeAccuracy(YearMonth from, YearMonth to) throws IOException
+    {
+        AccuracyReport report = new AccuracyReport();
+        for(YearMonth month = from; !month.isAfter(to); month = month.plusMonths(1))
+        {
+            Path partition = this.getPartition(month);
+            if(!Files.exists(partition)) continue;
+
+            // Keep, for each location and day, the latest forecast for each lead time (keyed by location number and day, to avoid an object per record)
+            Map<Long, DayHistory> days = new HashMap<>();
+            Map<String, Integer> locations = new HashMap<>();
+            int read = 0;
+            try(DataInputStream input = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new BufferedInputStream(Files.newInputStream(partition)), 1<<16), 1<<16)))
+            {
+                Record record;
+                while((record = this.readRecord(input))!=null)
+                {
+                    Integer location = locations.get(record.location);
+                    if(location==null) locations.put(record.location, location = locations.size());
+                    Long key = ((long) location<<32) | (record.day & 0xFFFFFFFFL);
+                    DayHistory history = days.get(key);
+                    if(history==null) days.put(key, history = new DayHistory());
+                    history.add(record);
+                    read++;
+                }
+            }
+            catch(ZipException ex)
+            {
+                // Corrupt data, not a flush in progress: the partition is not silently cut short
+                LOGGER.log(Level.SEVERE, "Corrupt forecast history partition "+partition+" after "+read+" records", ex);
+                throw ex;
+            }
+
+            // Compare the forecasts made in advance with the ones of the day itself
+            for(DayHistory history : days.values()) history.addTo(report);
+            report.months++;
+        }
+        return report;
+    }
+
+    /**
+    * Reads the next record, tolerating a truncated last member (e.g. a flush still in progress): the data ends before the member does, so the end of the file is reached. Corrupt data in any member throws a ZipException instead
+    * @return the record, or null at the end of the partition
+    **/
+    private Record readRecord(DataInputStream input) throws IOException
+    {
+        try
+        {
+            return new Record(input.readUTF(), input.readInt(), input.readByte(), input.readByte(), input.readLong());
+        }
+        catch(EOFException ex)
+        {
+            return null;
+        }
+    }
+
+    /**
+    * Gets the default directory of the partition files, which must survive restarts
+    * @return the directory from the system property "meteocal.history.dir" if set, otherwise in the GlassFish domain directory, or in the user home outside of the server
+    **/
+    static Path getDefaultDirectory()
+    {
+        String directory = System.getProperty("meteocal.history.dir");
+        if(directory!=null) return Paths.get(directory);
+        return getDataRoot().resolve(DEFAULT_DIRECTORY);
+    }
+
+    /**
+    * Gets the directory where the files that must survive restarts are kept by default, e.g. the history and the forecast snapshot
+    * @return the GlassFish domain directory, or the user home outside of the server
+    **/
+    static Path getDataRoot()
+    {
+        return Paths.get(System.getProperty("com.sun.aas.instanceRoot", System.getProperty("user.home")));
+    }
+
+    /**
+    * Gets the file of a partition
+    **/
+    private Path getPartition(YearMonth month)
+    {
+        return directory.resolve(PARTITION_PREFIX+month+".gz");
+    }
+
+    /** Getter
+    * @return the months with a partition file, oldest first
+    * @throws IOException if the directory cannot be read
+    */
+    public List<YearMonth> getPartitions() throws IOException
+    {
+        List<YearMonth> months = new ArrayList<>();
+        if(!Files.isDirectory(directory)) return months;
+        try(DirectoryStream<Path> files = Files.newDirectoryStream(directory, PARTITION_PREFIX+"*.gz"))
+        {
+            for(Path file : files)
+            {
+                String name = file.getFileName().toString();
+                months.add(YearMonth.parse(name.substring(PARTITION_PREFIX.length(), name.length()-3)));
+            }
+        }
+        Collections.sort(months);
+        return months;
+    }
+
+
+    /***************** SUPPORT CLASSES *****************/
+
+    /**
+    * Accuracy of the provider for each lead time
+    **/
+    public static class AccuracyReport
+    {
+        private final long[] samples = new long[MAX_LEAD+1];
+        private final long[] exactMatches = new long[MAX_LEAD+1];
+        private final long[] badWeatherMatches = new long[MAX_LEAD+1];
+        private int months;
+
+        /**
+        * Gets the number of (location, day) pairs with both a forecast made with the given lead time and one made on the day itself
+        * @param lead: the lead time in days, from 1 to MAX_LEAD
+        * @return the number of compared forecasts
+        **/
+        public long getSamples(int lead)
+        {
+            return samples[lead];
+        }
+
+        /**
+        * Gets the ratio of forecasts made with the given lead time that had exactly the same conditions as the forecast of the day itself
+        * @param lead: the lead time in days, from 1 to MAX_LEAD
+        * @return the accuracy between 0 and 1, 0 if there are no samples
+        **/
+        public double getAccuracy(int lead)
+        {
+            return (samples[lead]==0) ? 0 : (double) exactMatches[lead]/samples[lead];
+        }
+
+        /**
+        * Gets the ratio of forecasts made with the given lead time that agreed with the forecast of the day itself on each single condition (cloudy, rain, snow), i.e. on the bad weather alerts they would cause
+        * @param lead: the lead time in days, from 1 to MAX_LEAD
+        * @return the accuracy between 0 and 1, 0 if there are no samples
+        **/
+        public double getConditionAccuracy(int lead)
+        {
+            return (samples[lead]==0) ? 0 : (double) badWeatherMatches[lead]/(samples[lead]*WeatherCondition.values().length);
+        }
+
+        /** Getter
+        * @return the number of monthly partitions scanned
+        */
+        public int getMonths()
+        {
+            return months;
+        }
+
+        @Override
+        public String toString()
+        {
+            Map<Integer, String> leads = new TreeMap<>();
+            for(int lead=1; lead<=MAX_LEAD; lead++) leads.put(lead, String.format("%.1f%% (%d)", getAccuracy(lead)*100, samples[lead]));
+            return "Accuracy by lead time over "+months+" months: "+leads;
+        }
+    }
+
+    /**
+    * The forecasts of a location on a single day, the latest one for each lead time
+    **/
+    private static final class DayHistory
+    {
+        private final int[] masks = new int[MAX_LEAD+1];
+        private final long[] fetchedAt = new long[MAX_LEAD+1];
+
+        private DayHistory()
+        {
+            Arrays.fill(masks, -1);
+        }
+
+        private void add(Record record)
+        {
+            if(record.lead<0 || record.lead>MAX_LEAD || record.fetchedAt<fetchedAt[record.lead]) return;
+            masks[record.lead] = record.mask;
+            fetchedAt[record.lead] = record.fetchedAt;
+        }
+
+        private void addTo(AccuracyReport report)
+        {
+            if(masks[0]<0) return;
+            for(int lead=1; lead<=MAX_LEAD; lead++)
+            {
+                if(masks[lead]<0) continue;
+                report.samples[lead]++;
+                if(masks[lead]==masks[0]) report.exactMatches[lead]++;
+                report.badWeatherMatches[lead] += WeatherCondition.values().length-Integer.bitCount((masks[lead]^masks[0]) & WeatherCondition.ALL);
+            }
+        }
+    }
+
+    /**
+    * A single forecast in the log
+    **/
+    private static final class Record
+    {
+        private final String location;
+        private final long day;
+        private final int lead;
+        private final int mask;
+        private final long fetchedAt;
+
+        private Record(String location, long day, int lead, int mask, long fetchedAt)
+        {
+            this.location = location;
+            this.day = day;
+            this.lead = lead;
+            this.mask = mask;
+            this.fetchedAt = fetchedAt;
+        }
+
+        private void writeTo(DataOutputStream output) throws IOException
+        {
+            output.writeUTF(location);
+            output.writeInt((int) day);
+            output.writeByte(lead);
+            output.writeByte(mask);
+            output.writeLong(fetchedAt);
+        }
+    }
+}
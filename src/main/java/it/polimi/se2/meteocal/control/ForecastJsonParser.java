@@ -0,0 +1,374 @@
+package it.polimi.se2.meteocal.control;
+
+import it.polimi.se2.meteocal.entity.WeatherCondition;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+* Streaming parser of the provider response: it reads the JSON array of days straight into a ForecastWeek, without building a tree of JSON objects. Keys are compared in place and numbers are parsed from the characters, so the only objects created are the daily condition strings and the hourly forecasts. Unknown fields are skipped, whatever their type
+**/
+final class ForecastJsonParser
+{
+    /** Size of the read buffer, in characters **/
+    static final int BUFFER_SIZE = 1024;
+
+    /** Maximum value of the mantissa before the next digits are ignored (about the precision of a double) **/
+    private static final long MAX_MANTISSA = 100000000000000000L;
+
+    private final Reader reader;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private final StringBuilder text = new StringBuilder(32);
+    private int position;
+    private int limit;
+
+    /**
+    * Constructor with the source of the response
+    * @param reader: the response body, not necessarily buffered
+    **/
+    ForecastJsonParser(Reader reader)
+    {
+        this.reader = reader;
+    }
+
+    /**
+    * Parses a whole provider response
+    * @param reader: the response body
+    * @return the forecast week: today is the element 0, tomorrow 1, etc. (elements are null for days without a condition)
+    * @throws IOException if the response cannot be read or is not valid JSON
+    **/
+    static ForecastWeek parse(Reader reader) throws IOException
+    {
+        return new ForecastJsonParser(reader).parseWeek();
+    }
+
+
+    /***************** FORECAST STRUCTURE *****************/
+
+    /**
+    * Parses the array of days
+    * @return the forecast week
+    * @throws IOException if the response cannot be read or is not valid JSON
+    **/
+    ForecastWeek parseWeek() throws IOException
+    {
+        List<String> conditions = new ArrayList<>(8);
+        List<HourlyForecast> hours = new ArrayList<>(8);
+        this.expect('[');
+        if(!this.consume(']'))
+        {
+            do
+            {
+                // A day is an object, anything else is a day without forecast
+                if(this.peek()=='{') this.parseDay(conditions, hours);
+                else
+                {
+                    this.skipValue();
+                    conditions.add(null);
+                    hours.add(null);
+                }
+            }
+            while(this.consume(','));
+            this.expect(']');
+        }
+        return new ForecastWeek(conditions, hours.toArray(new HourlyForecast[hours.size()]));
+    }
+
+    /**
+    * Parses a day object, adding its condition and hours to the lists
+    **/
+    private void parseDay(List<String> conditions, List<HourlyForecast> hours) throws IOException
+    {
+        String condition = null;
+        HourlyForecast dayHours = null;
+        this.expect('{');
+        if(!this.consume('}'))
+        {
+            do
+            {
+                this.readString();
+                this.expect(':');
+                if("condition".contentEquals(text) && this.peek()=='"') condition = this.readString().toString();
+                else if("hourly".contentEquals(text) && this.peek()=='[') dayHours = this.parseHours();
+                else this.skipValue();
+            }
+            while(this.consume(','));
+            this.expect('}');
+        }
+        conditions.add(condition);
+        hours.add(dayHours);
+    }
+
+    /**
+    * Parses the "hourly" array of a day, skipping the malformed hours
+    * @return the hourly forecast, or null if no hour is available
+    **/
+    private HourlyForecast parseHours() throws IOException
+    {
+        HourlyForecast hours = null;
+        this.expect('[');
+        if(this.consume(']')) return null;
+        do
+        {
+            if(this.peek()!='{')
+            {
+                this.skipValue();
+                continue;
+            }
+
+            // Fields can come in any order, so the hour is set at the end of the object
+            int hour = -1;
+            int conditionMask = 0;
+            double precipitation = 0;
+            double temperature = 0;
+            this.expect('{');
+            if(!this.consume('}'))
+            {
+                do
+                {
+                    this.readString();
+                    this.expect(':');
+                    if("hour".contentEquals(text) && this.isNumberStart(this.peek())) hour = (int) this.readNumber();
+                    else if("condition".contentEquals(text) && this.peek()=='"') conditionMask = WeatherCondition.parse(this.readString());
+                    else if("precipitation".contentEquals(text) && this.isNumberStart(this.peek())) precipitation = this.readNumber();
+                    else if("temperature".contentEquals(text) && this.isNumberStart(this.peek())) temperature = this.readNumber();
+                    else this.skipValue();
+                }
+                while(this.consume(','));
+                this.expect('}');
+            }
+            if(hour<0 || hour>=HourlyForecast.HOURS) continue;
+            if(hours==null) hours = new HourlyForecast();
+            hours.setHour(hour, conditionMask, precipitation, temperature);
+        }
+        while(this.consume(','));
+        this.expect(']');
+        return hours;
+    }
+
+
+    /***************** JSON TOKENS *****************/
+
+    /**
+    * Reads a string into the shared text buffer
+    * @return the text buffer, valid until the next string is read
+    **/
+    private StringBuilder readString() throws IOException
+    {
+        this.expect('"');
+        text.setLength(0);
+        while(true)
+        {
+            int c = this.read();
+            if(c=='"') return text;
+            if(c<0) throw new IOException("Unterminated string");
+            if(c!='\\')
+            {
+                text.append((char) c);
+                continue;
+            }
+
+            // Escape sequence
+            c = this.read();
+            switch(c)
+            {
+                case 'b': text.append('\b'); break;
+                case 'f': text.append('\f'); break;
+                case 'n': text.append('\n'); break;
+                case 'r': text.append('\r'); break;
+                case 't': text.append('\t'); break;
+                case 'u':
+                    int code = 0;
+                    for(int i=0; i<4; i++)
+                    {
+                        int digit = Character.digit(this.read(), 16);
+                        if(digit<0) throw new IOException("Invalid unicode escape");
+                        code = code*16+digit;
+                    }
+                    text.append((char) code);
+                    break;
+                case '"':
+                case '\\':
+                case '/':
+                    text.append((char) c);
+                    break;
+                default:
+                    throw new IOException("Invalid escape sequence");
+            }
+        }
+    }
+
+    /**
+    * Reads a number without creating intermediate strings
+    * @return the number value
+    **/
+    private double readNumber() throws IOException
+    {
+        this.skipWhitespace();
+        boolean negative = this.consume('-');
+        long mantissa = 0;
+        int exponent = 0;
+        int digits = 0;
+
+        // Integer and fraction parts: the digits beyond the precision of a double only move the exponent
+        while(this.isDigit(this.peekChar()))
+        {
+            int digit = this.read()-'0';
+            if(mantissa<MAX_MANTISSA) mantissa = mantissa*10+digit;
+            else exponent++;
+            digits++;
+        }
+        if(this.peekChar()=='.')
+        {
+            this.read();
+            while(this.isDigit(this.peekChar()))
+            {
+                int digit = this.read()-'0';
+                if(mantissa<MAX_MANTISSA)
+                {
+                    mantissa = mantissa*10+digit;
+                    exponent--;
+                }
+                digits++;
+            }
+        }
+        if(digits==0) throw new IOException("Invalid number");
+
+        // Exponent part
+        if(this.peekChar()=='e' || this.peekChar()=='E')
+        {
+            this.read();
+            boolean negativeExponent = this.peekChar()=='-';
+            if(this.peekChar()=='-' || this.peekChar()=='+') this.read();
+            int value = 0;
+            if(!this.isDigit(this.peekChar())) throw new IOException("Invalid number");
+            while(this.isDigit(this.peekChar())) value = Math.min(value*10+this.read()-'0', 1000);
+            exponent += negativeExponent ? -value : value;
+        }
+
+        double value = (exponent>=0) ? mantissa*Math.pow(10, exponent) : mantissa/Math.pow(10, -exponent);
+        return negative ? -value : value;
+    }
+
+    /**
+    * Skips a whole value, whatever its type
+    **/
+    private void skipValue() throws IOException
+    {
+        int c = this.peek();
+        if(c=='"') this.readString();
+        else if(c=='{' || c=='[')
+        {
+            char close = (c=='{') ? '}' : ']';
+            this.read();
+            if(this.consume(close)) return;
+            do
+            {
+                if(close=='}')
+                {
+                    this.readString();
+                    this.expect(':');
+                }
+                this.skipValue();
+            }
+            while(this.consume(','));
+            this.expect(close);
+        }
+        else if(this.isNumberStart(c)) this.readNumber();
+        else
+        {
+            // Literal: true, false or null
+            text.setLength(0);
+            while(Character.isLetter(this.peekChar())) text.append((char) this.read());
+            if(!"true".contentEquals(text) && !"false".contentEquals(text) && !"null".contentEquals(text)) throw new IOException("Unexpected value: "+(c<0 ? "end of input" : text.length()==0 ? String.valueOf((char) c) : text.toString()));
+        }
+    }
+
+
+    /***************** CHARACTERS *****************/
+
+    /**
+    * Reads the next non-whitespace character, failing if it's not the expected one
+    **/
+    private void expect(char expected) throws IOException
+    {
+        if(!this.consume(expected)) throw new IOException("Expected '"+expected+"'");
+    }
+
+    /**
+    * Reads the next non-whitespace character only if it's the given one
+    * @return true if the character has been read
+    **/
+    private boolean consume(char expected) throws IOException
+    {
+        if(this.peek()!=expected) return false;
+        position++;
+        return true;
+    }
+
+    /**
+    * Gets the next non-whitespace character without reading it
+    * @return the character, or -1 at the end of the input
+    **/
+    private int peek() throws IOException
+    {
+        this.skipWhitespace();
+        return this.peekChar();
+    }
+
+    /**
+    * Skips the whitespace characters
+    **/
+    private void skipWhitespace() throws IOException
+    {
+        int c;
+        while((c = this.peekChar())==' ' || c=='\n' || c=='\r' || c=='\t') position++;
+    }
+
+    /**
+    * Gets the next character without reading it, filling the buffer if needed
+    * @return the character, or -1 at the end of the input
+    **/
+    private int peekChar() throws IOException
+    {
+        if(position==limit)
+        {
+            limit = reader.read(buffer, 0, buffer.length);
+            position = 0;
+            if(limit<=0)
+            {
+                limit = 0;
+                return -1;
+            }
+        }
+        return buffer[position];
+    }
+
+    /**
+    * Reads the next character
+    * @return the character, or -1 at the end of the input
+    **/
+    private int read() throws IOException
+    {
+        int c = this.peekChar();
+        if(c>=0) position++;
+        return c;
+    }
+
+    /**
+    * Checks if a character is a decimal digit
+    **/
+    private boolean isDigit(int c)
+    {
+        return c>='0' && c<='9';
+    }
+
+    /**
+    * Checks if a character can start a number
+    **/
+    private boolean isNumberStart(int c)
+    {
+        return c=='-' || this.isDigit(c);
+    }
+}
@@ -0,0 +1,117 @@
+package it.polimi.se2.meteocal.control;
+
+import java.time.LocalDate;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+* Immutable key that identifies a weather forecast: the normalized city name and the day the forecast refers to
+**/
+public final class ForecastKey
+{
+    private final String city;
+    private final LocalDate day;
+
+
+    /***************** CONSTRUCTORS *****************/
+
+    /**
+    * Constructor taking the raw city name, that gets normalized, and the forecast day
+    * @param city: the city name as written by the user (e.g. " Milano ")
+    * @param day: the day the forecast refers to
+    **/
+    public ForecastKey(String city, LocalDate day)
+    {
+        this.city = normalizeCity(city);
+        this.day = day;
+    }
+
+    /**
+    * Constructor taking the raw city name and the forecast day as a java.util.Date (like the ones stored in the Event entity)
+    * @param city: the city name as written by the user
+    * @param day: the day the forecast refers to
+    **/
+    public ForecastKey(String city, Date day)
+    {
+        this(city, toLocalDate(day));
+    }
+
+
+    /***************** GETTERS *****************/
+
+    /** Getter
+    * @return the normalized city name
+    */
+    public String getCity()
+    {
+        return city;
+    }
+
+    /** Getter
+    * @return the day the forecast refers to
+    */
+    public LocalDate getDay()
+    {
+        return day;
+    }
+
+
+    /***************** SUPPORT METHODS *****************/
+
+    /**
+    * Normalizes a city name so that trivial differences (case, surrounding or repeated spaces) do not generate different keys
+    * @param city: the city name as written by the user
+    * @return the normalized city name, or null if the given name is null
+    **/
+    public static String normalizeCity(String city)
+    {
+        if(city==null) return null;
+        return city.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+    * Converts a date to the corresponding local day. Works with java.sql.Date too, that does not support toInstant()
+    * @param date: the date to convert
+    * @return the local day of the given date, or null if the date is null
+    **/
+    public static LocalDate toLocalDate(Date date)
+    {
+        if(date==null) return null;
+        java.util.Calendar c = java.util.Calendar.getInstance();
+        c.setTime(date);
+        return LocalDate.of(c.get(java.util.Calendar.YEAR), c.get(java.util.Calendar.MONTH)+1, c.get(java.util.Calendar.DAY_OF_MONTH));
+    }
+
+    /**
+    * Converts a local day to a date that can be used as a query parameter
+    * @param day: the local day to convert
+    * @return the corresponding date, or null if the day is null
+    **/
+    public static Date toDate(LocalDate day)
+    {
+        if(day==null) return null;
+        return java.sql.Date.valueOf(day);
+    }
+
+    @Override
+    public boolean equals(Object other)
+    {
+        if(this==other) return true;
+        if(!(other instanceof ForecastKey)) return false;
+        ForecastKey key = (ForecastKey) other;
+        return Objects.equals(city, key.city) && Objects.equals(day, key.day);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Objects.hash(city, day);
+    }
+
+    @Override
+    public String toString()
+    {
+        return city+"@"+day;
+    }
+}
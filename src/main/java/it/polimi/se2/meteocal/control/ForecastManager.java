@@ -0,0 +1,221 @@
+package it.polimi.se2.meteocal.control;
+
+import it.polimi.se2.meteocal.entity.Event;
+import it.polimi.se2.meteocal.entity.Forecast;
+import java.time.LocalDate;
+import java.util.Date;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.Resource;
+import javax.ejb.EJB;
+import javax.ejb.EJBException;
+import javax.ejb.SessionContext;
+import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.persistence.EntityManager;
+import javax.persistence.NoResultException;
+import javax.persistence.PersistenceContext;
+import javax.persistence.TypedQuery;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+/**
+* Control class that takes care of the forecast management: create, update and search Forecast entities and link them to the events. Every update is compared with the previous forecast, so that the attendees are told when the weather of their events changes
+**/
+@Stateless
+public class ForecastManager
+{
+    private static final Logger LOGGER = Logger.getLogger(ForecastManager.class.getName());
+
+    @PersistenceContext(name = "meteocalPU")
+    EntityManager entityManager;
+
+    @EJB
+    ForecastChangeNotifier forecastChangeNotifier;
+
+    @Resource
+    SessionContext sessionContext;
+
+    @Resource
+    TransactionSynchronizationRegistry transactionRegistry;
+
+    /**
+    * Method to save the forecast of a location on a specific day: if the forecast already exists it gets updated, otherwise it's created. In both cases a single row is written, whatever the number of events that share it. A new forecast is inserted in its own transaction, so that a concurrent save of the same forecast (e.g. the refresh job and a background request) does not roll back the caller: the loser of the race updates the winner's row instead. If the update changes the weather conditions, the events already linked to the forecast are checked for attendees to notify once the save has committed, in a separate transaction whose failure does not affect the save
+    * @param city: the canonical location key (see LocationIndex)
+    * @param day: the day the forecast refers to
+    * @param condition: the weather condition description
+    * @return the persisted forecast
+    **/
+    public Forecast saveForecast(String city, Date day, String condition)
+    {
+        // Create the forecast if missing
+        Forecast forecast = this.getForecast(city, day);
+        if(forecast==null)
+        {
+            try
+            {
+                sessionContext.getBusinessObject(ForecastManager.class).insertForecast(city, day, condition);
+            }
+            catch(EJBException ex)
+            {
+                // Only a concurrent insert of the same forecast is expected: it's updated below
+                if(!UniqueConstraints.isViolation(ex)) throw ex;
+            }
+            forecast = this.getForecast(city, day);
+            if(forecast==null) throw new IllegalStateException("Forecast not saved for "+city);
+        }
+
+        // Update it if needed
+        if(!condition.equals(forecast.getCondition()))
+        {
+            String previousCondition = forecast.getCondition();
+            int previousMask = forecast.getConditionMask();
+            forecast.setCondition(condition);
+            forecast.setFetchedAt(new Date());
+
+            // Diff stage: only a change of the conditions can change someone's bad weather
+            if(previousMask!=forecast.getConditionMask()) this.notifyChange(forecast, previousCondition, previousMask);
+        }
+        else forecast.setFetchedAt(new Date());
+        return forecast;
+    }
+
+    /**
+    * Notifies a forecast change to the attendees after the commit of the save, so that a change rolled back (e.g. by a failed link of the events) is never notified. The notifier runs in its own transaction, so its errors are only logged and the forecast is saved anyway (the notifications of this change are lost, the next change is notified as usual)
+    **/
+    private void notifyChange(final Forecast forecast, final String previousCondition, final int previousMask)
+    {
+        AfterCommit.run(transactionRegistry, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    forecastChangeNotifier.notifyChange(forecast, previousCondition, previousMask);
+                }
+                catch(RuntimeException ex)
+                {
+                    LOGGER.log(Level.WARNING, "Forecast change not notified for "+forecast.getCity()+" on "+forecast.getDay(), ex);
+                }
+            }
+        });
+    }
+
+    /**
+    * Inserts a new forecast in a new transaction, so that a unique constraint violation does not affect the caller (use saveForecast instead)
+    * @param city: the canonical location key (see LocationIndex)
+    * @param day: the day the forecast refers to
+    * @param condition: the weather condition description
+    **/
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public void insertForecast(String city, Date day, String condition)
+    {
+        entityManager.persist(new Forecast(ForecastKey.normalizeCity(city), day, condition));
+
+        // Write now, so that a concurrent insert of the same forecast fails here and not at the commit
+        entityManager.flush();
+    }
+
+    /**
+    * Method to save all the forecasts returned by a single provider request for a location, then link to them the events in that location not linked yet. Events already linked see the new forecast without being written
+    * @param city: the canonical location key (see LocationIndex)
+    * @param firstDay: the day of the first forecast in the list
+    * @param conditions: the forecast conditions, one for each consecutive day (null elements are skipped)
+    * @return the number of events linked to a forecast for the first time
+    **/
+    public int saveWeek(String city, LocalDate firstDay, List<String> conditions)
+    {
+        int linkedEvents = 0;
+        for(int i=0; i<conditions.size(); i++)
+        {
+            if(conditions.get(i)==null) continue;
+            Date day = ForecastKey.toDate(firstDay.plusDays(i));
+            
+            // Save the forecast for this day
+            Forecast forecast = this.saveForecast(city, day, conditions.get(i));
+            entityManager.flush();
+            
+            // Link the events that have no forecast yet
+            linkedEvents += this.linkEvents(city, day, forecast);
+        }
+        return linkedEvents;
+    }
+    
+    /**
+    * Method to link the events in a location not linked yet to the forecasts already saved, for a week the provider reported as not modified: the forecast rows are only read, and saved just if missing (e.g. the last save failed)
+    * @param city: the canonical location key (see LocationIndex)
+    * @param firstDay: the day of the first forecast in the list
+    * @param conditions: the forecast conditions, one for each consecutive day (null elements are skipped)
+    * @return the number of events linked to a forecast for the first time
+    **/
+    public int linkWeek(String city, LocalDate firstDay, List<String> conditions)
+    {
+        int linkedEvents = 0;
+        for(int i=0; i<conditions.size(); i++)
+        {
+            if(conditions.get(i)==null) continue;
+            Date day = ForecastKey.toDate(firstDay.plusDays(i));
+            
+            // Get the forecast for this day, saving it only if missing
+            Forecast forecast = this.getForecast(city, day);
+            if(forecast==null)
+            {
+                forecast = this.saveForecast(city, day, conditions.get(i));
+                entityManager.flush();
+            }
+            
+            // Link the events that have no forecast yet (e.g. created since the last change)
+            linkedEvents += this.linkEvents(city, day, forecast);
+        }
+        return linkedEvents;
+    }
+    
+    /**
+    * Links the events in a location and day that have no forecast yet, with a single bulk update
+    * @return the number of events linked
+    **/
+    private int linkEvents(String city, Date day, Forecast forecast)
+    {
+        return entityManager.createNamedQuery(Event.linkForecastByLocationAndDay)
+            .setParameter("forecast", forecast)
+            .setParameter("location", ForecastKey.normalizeCity(city))
+            .setParameter("day", day)
+            .executeUpdate();
+    }
+    
+    /**
+    * Query to get the forecast of a location on a specific day
+    * @param city: the canonical location key (see LocationIndex)
+    * @param day: the day the forecast refers to
+    * @return the forecast if found, null otherwise
+    **/
+    public Forecast getForecast(String city, Date day)
+    {
+        TypedQuery<Forecast> query1 = entityManager.createNamedQuery(Forecast.findByCityAndDay, Forecast.class);
+        TypedQuery<Forecast> query2 = query1.setParameter("city", ForecastKey.normalizeCity(city)).setParameter("day", day);
+        try
+        {
+            return query2.getSingleResult();
+        }
+        catch(NoResultException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+    * Links an event to the given forecast, writing only the event foreign key instead of merging the whole entity
+    * @param event: the event to link
+    * @param forecast: the forecast, or null to remove the link
+    **/
+    public void linkEvent(Event event, Forecast forecast)
+    {
+        // Make sure that a new forecast is written before being referenced
+        if(forecast!=null) entityManager.flush();
+        
+        entityManager.createNamedQuery(Event.updateForecast).setParameter("forecast", forecast).setParameter("id", event.getId()).executeUpdate();
+        event.setForecast(forecast);
+    }
+}
@@ -0,0 +1,13 @@
+package it.polimi.se2.meteocal.control;
+
+/**
+* Priority of a forecast request, used to share the provider quota: interactive requests can use all the available requests, background ones leave a reserve for the interactive ones
+**/
+public enum ForecastPriority
+{
+    /** Request caused by a user action, like saving an event **/
+    INTERACTIVE,
+
+    /** Request made by a background job, like the scheduled refresh **/
+    BACKGROUND
+}
@@ -0,0 +1,352 @@
+package it.polimi.se2.meteocal.control;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJB;
+import javax.ejb.Schedule;
+import javax.ejb.Singleton;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+
+/**
+* Control class that periodically refreshes the weather forecasts of all the events in the provider's forecast window. Events are grouped by canonical location, so each location is requested once per run whatever the number of its events and of the ways its city is written. The locations come from the City Subscription Registry, without scanning the events, and the forecasts are saved with bulk updates instead of loading the events. Cities are refreshed in priority order (nearest, outdoor and most attended events first) and less often when their events are far away, so that the provider budget goes where it matters, with a part of it reserved to the most overdue cities so that none of them starves
+**/
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class ForecastRefreshJob
+{
+    /** Maximum number of cities requested to the provider in a single run **/
+    static final int MAX_REQUESTS_PER_RUN = 500;
+
+    /** Part of the budget of each run reserved to the most overdue cities, so that the distant ones are refreshed even when the imminent ones alone exceed the budget **/
+    static final int OVERDUE_REQUESTS_PER_RUN = MAX_REQUESTS_PER_RUN/5;
+
+    /** Margin subtracted from the refresh intervals, so that the small delays of the timer do not make a city skip a run **/
+    static final long REFRESH_TOLERANCE = TimeUnit.MINUTES.toMillis(5);
+
+    private static final Logger LOGGER = Logger.getLogger(ForecastRefreshJob.class.getName());
+
+    @EJB
+    ForecastFetcher forecastFetcher;
+
+    @EJB
+    ForecastCache forecastCache;
+
+    @EJB
+    HourlyForecastStore hourlyForecastStore;
+
+    @EJB
+    ForecastManager forecastManager;
+
+    @EJB
+    CalendarManager calendarManager;
+
+    @EJB
+    LocationIndex locationIndex;
+
+    @EJB
+    CitySubscriptionRegistry citySubscriptionRegistry;
+
+    @EJB
+    ForecastHistoryStore forecastHistoryStore;
+
+    @EJB
+    BadWeatherAlertJob badWeatherAlertJob;
+
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private final Map<String, Long> lastRefresh = new ConcurrentHashMap<>();
+    private volatile RunStatistics lastRun;
+
+    /**
+    * Scheduled method that refreshes the forecasts every hour. Each city is saved in its own transaction, so an error on a city does not affect the others. The bad weather alerts are sent at the end of each run, with the new forecasts
+    **/
+    @Schedule(hour = "*", minute = "0", persistent = false)
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void refresh()
+    {
+        // Skip if the previous run is still going
+        if(!running.compareAndSet(false, true)) return;
+        try
+        {
+            lastRun = this.refreshAll();
+            LOGGER.log(Level.INFO, "Forecast refresh completed: {0}", lastRun);
+            badWeatherAlertJob.sendAlerts();
+        }
+        finally
+        {
+            running.set(false);
+        }
+    }
+
+    /**
+    * Refreshes the forecasts for the cities with events in the forecast window, in priority order and within the provider budget
+    * @return the statistics of the run
+    **/
+    RunStatistics refreshAll()
+    {
+        long start = System.currentTimeMillis();
+        LocalDate today = LocalDate.now();
+        RunStatistics statistics = new RunStatistics();
+
+        // Rank the locations with events in the forecast window
+        ForecastRefreshQueue queue = this.buildQueue(today);
+        Set<String> activeCities = new HashSet<>();
+
+        // Collect the cities that are due, skipping the ones refreshed recently and the ones the provider does not know
+        List<ForecastRefreshQueue.RefreshTask> due = new ArrayList<>();
+        ForecastRefreshQueue.RefreshTask task;
+        while((task = queue.poll())!=null)
+        {
+            activeCities.add(task.getCity());
+            Long lastTime = lastRefresh.get(task.getCity());
+            if(lastTime!=null && start-lastTime<task.getRefreshInterval()-REFRESH_TOLERANCE)
+            {
+                statistics.skipped++;
+                continue;
+            }
+            if(forecastCache.getFailure(task.getCity(), today)==ForecastFailure.UNKNOWN_CITY)
+            {
+                statistics.skipped++;
+                continue;
+            }
+            due.add(task);
+        }
+
+        // Request the most urgent cities first and the most overdue ones with the reserved budget
+        List<ForecastRefreshQueue.RefreshTask> selected = selectTasks(due, lastRefresh, start);
+        statistics.deferred += due.size()-selected.size();
+        for(int i=0; i<selected.size(); i++)
+        {
+            task = selected.get(i);
+            try
+            {
+                ForecastWeek conditions = forecastFetcher.fetchWeek(task.getCityName(), ForecastPriority.BACKGROUND);
+                forecastCache.putAll(task.getCity(), today, conditions);
+                try
+                {
+                    // Unchanged since the last request: the cache expiration has been extended, the forecast rows are already up to date and only the new events need to be linked
+                    if(conditions.isNotModified())
+                    {
+                        statistics.linkedEvents += forecastManager.linkWeek(task.getCity(), today, conditions);
+                        statistics.notModified++;
+                    }
+                    else
+                    {
+                        hourlyForecastStore.putWeek(task.getCity(), today, conditions);
+                        forecastHistoryStore.record(task.getCity(), today, conditions);
+                        statistics.linkedEvents += forecastManager.saveWeek(task.getCity(), today, conditions);
+                        for(String condition : conditions) if(condition!=null) statistics.forecasts++;
+                    }
+                }
+                catch(RuntimeException ex)
+                {
+                    // Not saved: the next request must not be answered "not modified" with this forecast
+                    forecastFetcher.invalidate(task.getCityName());
+                    throw ex;
+                }
+                lastRefresh.put(task.getCity(), start);
+                statistics.cities++;
+            }
+            catch(ForecastDeferredException ex)
+            {
+                // The quota left is reserved to the interactive requests: stop here and continue in the next run
+                statistics.deferred += selected.size()-i;
+                break;
+            }
+            catch(UnknownCityException ex)
+            {
+                forecastCache.putFailure(task.getCity(), today, ForecastFailure.UNKNOWN_CITY);
+                statistics.failures++;
+            }
+            catch(Exception ex)
+            {
+                LOGGER.log(Level.FINE, "Forecast refresh failed for "+task.getCityName(), ex);
+                statistics.failures++;
+            }
+        }
+
+        // Forget the cities that have no upcoming events anymore, and the hours of the past days
+        lastRefresh.keySet().retainAll(activeCities);
+        hourlyForecastStore.removeBefore(today);
+        citySubscriptionRegistry.removeBefore(today);
+        forecastHistoryStore.flush();
+
+        statistics.duration = System.currentTimeMillis()-start;
+        return statistics;
+    }
+
+    /**
+    * Chooses the cities to request within the budget of a run: the most urgent ones take the budget except the reserved part, which goes to the cities left out that have been waiting the longest past their refresh interval (the ones never refreshed first). Without the reserve, the imminent events alone could take the whole budget at every run and the distant cities would never be refreshed
+    * @param due: the cities that need a refresh, in priority order
+    * @param lastRefresh: the time of the last refresh of each city
+    * @param now: the start time of the run
+    * @return the cities to request, in priority order followed by the overdue ones
+    **/
+    static List<ForecastRefreshQueue.RefreshTask> selectTasks(List<ForecastRefreshQueue.RefreshTask> due, final Map<String, Long> lastRefresh, final long now)
+    {
+        if(due.size()<=MAX_REQUESTS_PER_RUN) return due;
+
+        // Most urgent cities first
+        List<ForecastRefreshQueue.RefreshTask> selected = new ArrayList<>(due.subList(0, MAX_REQUESTS_PER_RUN-OVERDUE_REQUESTS_PER_RUN));
+
+        // Then the ones left out that are most overdue: a stable sort, so the ties keep the priority order
+        List<ForecastRefreshQueue.RefreshTask> others = new ArrayList<>(due.subList(MAX_REQUESTS_PER_RUN-OVERDUE_REQUESTS_PER_RUN, due.size()));
+        Collections.sort(others, new Comparator<ForecastRefreshQueue.RefreshTask>()
+        {
+            @Override
+            public int compare(ForecastRefreshQueue.RefreshTask first, ForecastRefreshQueue.RefreshTask second)
+            {
+                return Long.compare(getOverdueTime(second, lastRefresh, now), getOverdueTime(first, lastRefresh, now));
+            }
+        });
+        selected.addAll(others.subList(0, OVERDUE_REQUESTS_PER_RUN));
+        return selected;
+    }
+
+    /**
+    * Gets how long a city has been waiting past its refresh interval
+    * @param task: the city
+    * @param lastRefresh: the time of the last refresh of each city
+    * @param now: the start time of the run
+    * @return the time past the refresh interval in milliseconds, Long.MAX_VALUE if the city has never been refreshed
+    **/
+    private static long getOverdueTime(ForecastRefreshQueue.RefreshTask task, Map<String, Long> lastRefresh, long now)
+    {
+        Long lastTime = lastRefresh.get(task.getCity());
+        return (lastTime==null) ? Long.MAX_VALUE : now-lastTime-task.getRefreshInterval();
+    }
+
+    /**
+    * Builds the refresh queue with the locations that have events in the forecast window, as counted by the City Subscription Registry: the work is proportional to the active locations, with no database access
+    * @param today: the first day of the forecast window
+    * @return the queue of the cities to refresh
+    **/
+    ForecastRefreshQueue buildQueue(LocalDate today)
+    {
+        ForecastRefreshQueue queue = new ForecastRefreshQueue();
+        for(CitySubscriptionRegistry.Subscription subscription : citySubscriptionRegistry.getSubscriptions(today, today.plusDays(CalendarManager.FORECAST_DAYS-1)))
+        {
+            String city = subscription.getCity();
+            if(city==null || "".equals(city.trim())) continue;
+            queue.offer(locationIndex.resolve(city), (int) calendarManager.getDaysFromToday(subscription.getDay()), subscription.isOutdoor(), subscription.getAttendees());
+        }
+        return queue;
+    }
+
+    /** Getter
+    * @return the statistics of the last completed run, null if no run has completed yet
+    */
+    public RunStatistics getLastRun()
+    {
+        return lastRun;
+    }
+
+
+    /***************** SUPPORT CLASSES *****************/
+
+    /**
+    * Throughput statistics of a single refresh run
+    **/
+    public static class RunStatistics
+    {
+        int cities;
+        int failures;
+        int skipped;
+        int deferred;
+        int notModified;
+        int forecasts;
+        int linkedEvents;
+        long duration;
+
+        /** Getter
+        * @return the number of cities refreshed successfully, including the ones not modified
+        */
+        public int getCities()
+        {
+            return cities;
+        }
+
+        /** Getter
+        * @return the number of cities whose refresh failed
+        */
+        public int getFailures()
+        {
+            return failures;
+        }
+
+        /** Getter
+        * @return the number of cities not requested because they have been refreshed recently or are unknown to the provider
+        */
+        public int getSkipped()
+        {
+            return skipped;
+        }
+
+        /** Getter
+        * @return the number of cities left for the next run because the budget was over
+        */
+        public int getDeferred()
+        {
+            return deferred;
+        }
+
+        /** Getter
+        * @return the number of cities requested whose forecast did not change since the previous request
+        */
+        public int getNotModified()
+        {
+            return notModified;
+        }
+
+        /** Getter
+        * @return the number of (city, day) forecasts saved
+        */
+        public int getForecasts()
+        {
+            return forecasts;
+        }
+
+        /** Getter
+        * @return the number of events linked to a forecast for the first time
+        */
+        public int getLinkedEvents()
+        {
+            return linkedEvents;
+        }
+
+        /** Getter
+        * @return the duration of the run in milliseconds
+        */
+        public long getDuration()
+        {
+            return duration;
+        }
+
+        /** Getter
+        * @return the number of cities processed per second
+        */
+        public double getCitiesPerSecond()
+        {
+            return (duration==0) ? cities+failures : (cities+failures)*1000.0/duration;
+        }
+
+        @Override
+        public String toString()
+        {
+            return cities+" cities ("+failures+" failed, "+skipped+" skipped, "+deferred+" deferred, "+notModified+" not modified), "+forecasts+" forecasts, "+linkedEvents+" events linked in "+duration+" ms ("+String.format("%.1f", getCitiesPerSecond())+" cities/s)";
+        }
+    }
+}
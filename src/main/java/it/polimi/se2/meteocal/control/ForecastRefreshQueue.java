@@ -0,0 +1,170 @@
+package it.polimi.se2.meteocal.control;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+* Priority queue of the locations whose forecast needs to be refreshed. Each location is ranked by its most urgent events: the nearest day first, then outdoor events before indoor ones, then the events with more attendees
+**/
+public class ForecastRefreshQueue
+{
+    private final Map<String, RefreshTask> tasks = new HashMap<>();
+    private PriorityQueue<RefreshTask> queue;
+
+    /**
+    * Adds a group of events in the same city and day to the queue. If the city is already present, it keeps the most urgent group
+    * @param city: the city name, not necessarily normalized
+    * @param daysAhead: the number of days between today and the events day
+    * @param outdoor: true if the events take place outdoor
+    * @param attendees: the number of users that have the events in their calendars
+    **/
+    public void offer(String city, int daysAhead, boolean outdoor, long attendees)
+    {
+        this.offer(Location.unresolved(city), daysAhead, outdoor, attendees);
+    }
+
+    /**
+    * Adds a group of events in the same location and day to the queue. If the location is already present, it keeps the most urgent group
+    * @param location: the canonical location of the events
+    * @param daysAhead: the number of days between today and the events day
+    * @param outdoor: true if the events take place outdoor
+    * @param attendees: the number of users that have the events in their calendars
+    **/
+    public void offer(Location location, int daysAhead, boolean outdoor, long attendees)
+    {
+        String key = location.getKey();
+        RefreshTask task = new RefreshTask(key, location.getName(), daysAhead, outdoor, attendees);
+        RefreshTask existing = tasks.get(key);
+
+        // Same urgency: merge the attendees (e.g. same city written in different ways, or nearby towns)
+        if(existing!=null && existing.daysAhead==daysAhead && existing.outdoor==outdoor)
+        {
+            existing.attendees += attendees;
+        }
+
+        // More urgent or new: replace
+        else if(existing==null || task.compareTo(existing)<0)
+        {
+            tasks.put(key, task);
+        }
+        queue = null;
+    }
+
+    /**
+    * Removes and returns the most urgent city in the queue
+    * @return the most urgent refresh task, or null if the queue is empty
+    **/
+    public RefreshTask poll()
+    {
+        if(queue==null)
+        {
+            queue = new PriorityQueue<>(Math.max(1, tasks.size()));
+            queue.addAll(tasks.values());
+        }
+        RefreshTask task = queue.poll();
+        if(task!=null) tasks.remove(task.city);
+        return task;
+    }
+
+    /** Getter
+    * @return the number of cities in the queue
+    */
+    public int size()
+    {
+        return tasks.size();
+    }
+
+    /**
+    * Gets how often the forecast of a city should be refreshed: imminent events every hour, events in the next days every six hours, distant events once a day
+    * @param daysAhead: the number of days between today and the nearest event in the city
+    * @return the refresh interval in milliseconds
+    **/
+    public static long getRefreshInterval(int daysAhead)
+    {
+        if(daysAhead<=1) return TimeUnit.HOURS.toMillis(1);
+        if(daysAhead<=3) return TimeUnit.HOURS.toMillis(6);
+        return TimeUnit.DAYS.toMillis(1);
+    }
+
+
+    /***************** SUPPORT CLASSES *****************/
+
+    /**
+    * The refresh of a single city, with the data of its most urgent events
+    **/
+    public static class RefreshTask implements Comparable<RefreshTask>
+    {
+        private final String city;
+        private final String cityName;
+        private final int daysAhead;
+        private final boolean outdoor;
+        private long attendees;
+
+        RefreshTask(String city, String cityName, int daysAhead, boolean outdoor, long attendees)
+        {
+            this.city = city;
+            this.cityName = cityName;
+            this.daysAhead = daysAhead;
+            this.outdoor = outdoor;
+            this.attendees = attendees;
+        }
+
+        /** Getter
+        * @return the location key (the normalized city name for the cities not in the gazetteer)
+        */
+        public String getCity()
+        {
+            return city;
+        }
+
+        /** Getter
+        * @return the city name to be sent to the provider
+        */
+        public String getCityName()
+        {
+            return cityName;
+        }
+
+        /** Getter
+        * @return the number of days between today and the nearest event in the city
+        */
+        public int getDaysAhead()
+        {
+            return daysAhead;
+        }
+
+        /** Getter
+        * @return true if the most urgent events take place outdoor
+        */
+        public boolean isOutdoor()
+        {
+            return outdoor;
+        }
+
+        /** Getter
+        * @return the number of attendees of the most urgent events
+        */
+        public long getAttendees()
+        {
+            return attendees;
+        }
+
+        /** Getter
+        * @return the refresh interval for this city, based on its nearest event
+        */
+        public long getRefreshInterval()
+        {
+            return ForecastRefreshQueue.getRefreshInterval(daysAhead);
+        }
+
+        @Override
+        public int compareTo(RefreshTask other)
+        {
+            if(daysAhead!=other.daysAhead) return Integer.compare(daysAhead, other.daysAhead);
+            if(outdoor!=other.outdoor) return outdoor ? -1 : 1;
+            return Long.compare(other.attendees, attendees);
+        }
+    }
+}
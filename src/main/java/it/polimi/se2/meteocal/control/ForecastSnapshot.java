@@ -0,0 +1,197 @@
+package it.polimi.se2.meteocal.control;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+* Support class that saves the in-memory forecasts to a memory-mapped file with a fixed binary layout, and restores them at startup without any parsing. The file is written to a temporary file and then atomically renamed, so that other application server instances on the same host can map it read-only at any time.
+* Layout (big endian): a 32 bytes header (magic, version, creation time, number of daily records, number of hourly records, number of strings, offset of the string table), then the daily records (location, epoch day, condition, reserved, expiration time: 24 bytes each), then the hourly records (location, epoch day, HourlyForecast binary form), then the string table (length and UTF-8 bytes of each location and condition, each one written once)
+**/
+public final class ForecastSnapshot
+{
+    /** Magic number at the beginning of the file ("MCFS") **/
+    static final int MAGIC = 0x4D434653;
+
+    /** Version of the layout, to be increased at every change **/
+    static final int VERSION = 1;
+
+    /** Size (in bytes) of the header **/
+    static final int HEADER_SIZE = 32;
+
+    /** Size (in bytes) of a daily record **/
+    static final int DAILY_RECORD_SIZE = 24;
+
+    /** Size (in bytes) of an hourly record **/
+    static final int HOURLY_RECORD_SIZE = 8+HourlyForecast.BINARY_SIZE;
+
+    private ForecastSnapshot()
+    {
+    }
+
+    /**
+    * Saves the current forecasts to the given file, replacing it atomically
+    * @param file: the snapshot file
+    * @param cache: the daily forecasts
+    * @param hourlyStore: the hourly forecasts
+    * @return the number of records written
+    * @throws IOException if the file cannot be written
+    **/
+    public static int save(Path file, ForecastCache cache, HourlyForecastStore hourlyStore) throws IOException
+    {
+        List<ForecastCache.CachedForecast> daily = cache.getEntries();
+        Map<ForecastKey, HourlyForecast> hourly = hourlyStore.getEntries();
+
+        // Collect the strings, each one is written once
+        Map<String, Integer> strings = new LinkedHashMap<>();
+        int stringsSize = 0;
+        for(ForecastCache.CachedForecast entry : daily)
+        {
+            stringsSize += addString(strings, entry.getKey().getCity());
+            stringsSize += addString(strings, entry.getCondition());
+        }
+        for(ForecastKey key : hourly.keySet()) stringsSize += addString(strings, key.getCity());
+
+        // Write the temporary file through a memory mapping of its final size
+        int stringsOffset = HEADER_SIZE+daily.size()*DAILY_RECORD_SIZE+hourly.size()*HOURLY_RECORD_SIZE;
+        Path temporary = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        try
+        {
+            try(FileChannel channel = FileChannel.open(temporary, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+            {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, stringsOffset+stringsSize);
+
+                // Header
+                buffer.putInt(MAGIC).putInt(VERSION).putLong(System.currentTimeMillis());
+                buffer.putInt(daily.size()).putInt(hourly.size()).putInt(strings.size()).putInt(stringsOffset);
+
+                // Records
+                for(ForecastCache.CachedForecast entry : daily)
+                {
+                    buffer.putInt(strings.get(entry.getKey().getCity())).putInt((int) entry.getKey().getDay().toEpochDay());
+                    buffer.putInt(strings.get(entry.getCondition())).putInt(0).putLong(entry.getExpiresAt());
+                }
+                for(Map.Entry<ForecastKey, HourlyForecast> entry : hourly.entrySet())
+                {
+                    buffer.putInt(strings.get(entry.getKey().getCity())).putInt((int) entry.getKey().getDay().toEpochDay());
+                    entry.getValue().writeTo(buffer);
+                }
+
+                // String table
+                for(String string : strings.keySet())
+                {
+                    byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+                    buffer.putShort((short) bytes.length).put(bytes);
+                }
+                buffer.force();
+            }
+
+            // Replace the old snapshot, readers see either the old or the new file
+            Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        finally
+        {
+            Files.deleteIfExists(temporary);
+        }
+        return daily.size()+hourly.size();
+    }
+
+    /**
+    * Restores the forecasts saved in the given file, skipping the ones of the past days. The forecasts already in memory are kept, since they are newer
+    * @param file: the snapshot file, opened read-only
+    * @param cache: the cache that receives the daily forecasts
+    * @param hourlyStore: the store that receives the hourly forecasts
+    * @param today: the first day to restore
+    * @return the number of records restored
+    * @throws IOException if the file cannot be read or is not a valid snapshot
+    **/
+    public static int load(Path file, ForecastCache cache, HourlyForecastStore hourlyStore, LocalDate today) throws IOException
+    {
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+        {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            try
+            {
+                // Check the header
+                if(buffer.getInt()!=MAGIC) throw new IOException("Not a forecast snapshot: "+file);
+                if(buffer.getInt()!=VERSION) throw new IOException("Unsupported forecast snapshot version: "+file);
+                buffer.getLong();
+                int dailyCount = buffer.getInt();
+                int hourlyCount = buffer.getInt();
+                int stringCount = buffer.getInt();
+                int stringsOffset = buffer.getInt();
+                if(dailyCount<0 || hourlyCount<0 || stringCount<0 || stringsOffset!=HEADER_SIZE+dailyCount*DAILY_RECORD_SIZE+hourlyCount*HOURLY_RECORD_SIZE) throw new IOException("Corrupted forecast snapshot: "+file);
+
+                // Read the string table
+                List<String> strings = readStrings((ByteBuffer) buffer.duplicate().position(stringsOffset), stringCount);
+
+                // Restore the records
+                int restored = 0;
+                long firstDay = today.toEpochDay();
+                for(int i=0; i<dailyCount; i++)
+                {
+                    String location = strings.get(buffer.getInt());
+                    long day = buffer.getInt();
+                    String condition = strings.get(buffer.getInt());
+                    buffer.getInt();
+                    long expiresAt = buffer.getLong();
+                    if(day<firstDay) continue;
+                    cache.restore(new ForecastKey(location, LocalDate.ofEpochDay(day)), condition, expiresAt);
+                    restored++;
+                }
+                for(int i=0; i<hourlyCount; i++)
+                {
+                    String location = strings.get(buffer.getInt());
+                    long day = buffer.getInt();
+                    HourlyForecast hours = HourlyForecast.readFrom(buffer);
+                    if(day<firstDay) continue;
+                    hourlyStore.restore(new ForecastKey(location, LocalDate.ofEpochDay(day)), hours);
+                    restored++;
+                }
+                return restored;
+            }
+            catch(BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException ex)
+            {
+                throw new IOException("Corrupted forecast snapshot: "+file, ex);
+            }
+        }
+    }
+
+    /**
+    * Adds a string to the table, if not present
+    * @return the bytes needed to write it, 0 if already present
+    **/
+    private static int addString(Map<String, Integer> strings, String string)
+    {
+        if(strings.containsKey(string)) return 0;
+        strings.put(string, strings.size());
+        return 2+string.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    /**
+    * Reads the string table
+    **/
+    private static List<String> readStrings(ByteBuffer buffer, int count)
+    {
+        List<String> strings = new ArrayList<>(count);
+        for(int i=0; i<count; i++)
+        {
+            byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+            buffer.get(bytes);
+            strings.add(new String(bytes, StandardCharsets.UTF_8));
+        }
+        return strings;
+    }
+}
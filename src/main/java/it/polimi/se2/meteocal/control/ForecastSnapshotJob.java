@@ -0,0 +1,90 @@
+package it.polimi.se2.meteocal.control;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.DependsOn;
+import javax.ejb.EJB;
+import javax.ejb.Schedule;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+
+/**
+* Control class that keeps the in-memory forecasts across restarts: they are restored from the snapshot file at startup, so that the first logins after a redeploy do not all hit the weather provider, and saved periodically and at shutdown (the two stores are created before this job and destroyed after it, so the last save at shutdown still finds them).
+* The file is chosen with the system property "meteocal.snapshot.file" (default: "meteocal-forecasts.bin" in the GlassFish domain directory, or in the user home outside of the server, like the forecast history: a temporary directory may be cleaned before the restart). Setting "meteocal.snapshot.readOnly" to true makes an instance only read the snapshot written by another instance on the same host
+**/
+@Singleton
+@Startup
+@DependsOn({"ForecastCache", "HourlyForecastStore"})
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class ForecastSnapshotJob
+{
+    /** Name of the default snapshot file, in the domain directory or in the user home **/
+    static final String DEFAULT_FILE = "meteocal-forecasts.bin";
+
+    private static final Logger LOGGER = Logger.getLogger(ForecastSnapshotJob.class.getName());
+
+    @EJB
+    ForecastCache forecastCache;
+
+    @EJB
+    HourlyForecastStore hourlyForecastStore;
+
+    private final Path file = getDefaultFile();
+    private final boolean readOnly = Boolean.getBoolean("meteocal.snapshot.readOnly");
+
+    /**
+    * Restores the forecasts saved by the last run, if any
+    **/
+    @PostConstruct
+    void restore()
+    {
+        if(!Files.exists(file)) return;
+        long start = System.currentTimeMillis();
+        try
+        {
+            int restored = ForecastSnapshot.load(file, forecastCache, hourlyForecastStore, LocalDate.now());
+            LOGGER.log(Level.INFO, "Restored {0} forecasts from {1} in {2} ms", new Object[]{restored, file, System.currentTimeMillis()-start});
+        }
+        catch(IOException ex)
+        {
+            LOGGER.log(Level.WARNING, "Cannot restore the forecast snapshot, starting with an empty cache", ex);
+        }
+    }
+
+    /**
+    * Scheduled method that saves the forecasts every 15 minutes, so that a crash loses little
+    **/
+    @Schedule(hour = "*", minute = "*/15", persistent = false)
+    @PreDestroy
+    public void save()
+    {
+        if(readOnly) return;
+        try
+        {
+            ForecastSnapshot.save(file, forecastCache, hourlyForecastStore);
+        }
+        catch(IOException ex)
+        {
+            LOGGER.log(Level.WARNING, "Cannot save the forecast snapshot", ex);
+        }
+    }
+
+    /**
+    * Gets the snapshot file, which must survive restarts
+    * @return the file from the system property "meteocal.snapshot.file" if set, otherwise in the GlassFish domain directory, or in the user home outside of the server
+    **/
+    static Path getDefaultFile()
+    {
+        String file = System.getProperty("meteocal.snapshot.file");
+        return (file!=null) ? Paths.get(file) : ForecastHistoryStore.getDataRoot().resolve(DEFAULT_FILE);
+    }
+}
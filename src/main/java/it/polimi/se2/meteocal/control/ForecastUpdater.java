@@ -0,0 +1,120 @@
+package it.polimi.se2.meteocal.control;
+
+import it.polimi.se2.meteocal.entity.Event;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.ejb.Asynchronous;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJB;
+import javax.ejb.Singleton;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+
+/**
+* Control class that requests the weather forecasts for the saved events in background, so that saving an event does not wait for the weather provider. The number of concurrent requests is bounded, so that a slow provider cannot take all the container threads: when all the slots are busy a request is queued and taken by one of the running threads, so no thread ever waits for a slot. When the queue is full too the request is dropped, and the scheduled refresh will link the forecast later
+**/
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class ForecastUpdater
+{
+    /** Maximum number of forecast requests running at the same time **/
+    static final int MAX_CONCURRENT_REQUESTS = 4;
+
+    /** Maximum number of requests waiting for a free slot **/
+    static final int MAX_QUEUED_REQUESTS = 1000;
+
+    private static final Logger LOGGER = Logger.getLogger(ForecastUpdater.class.getName());
+
+    private final Semaphore slots = new Semaphore(MAX_CONCURRENT_REQUESTS);
+    private final BlockingQueue<Long> pending = new LinkedBlockingQueue<>(MAX_QUEUED_REQUESTS);
+
+    @EJB
+    EventManager eventManager;
+
+    @EJB
+    CalendarManager calendarManager;
+
+    /**
+    * Asynchronously requests the weather forecast for the given event and saves it through the Event Manager. The method returns immediately, the forecast is written when it arrives. The queued requests of all the users are taken by any running thread, so the caller must check that the current user can alter the event before calling this method
+    * @param eventId: the ID of the event, that must already be persisted
+    **/
+    @Asynchronous
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void updateEventForecast(Long eventId)
+    {
+        // Queue the request, giving up if the provider is too slow to keep up
+        if(!pending.offer(eventId))
+        {
+            LOGGER.log(Level.WARNING, "Too many pending weather forecast requests, skipping event {0}", eventId);
+            return;
+        }
+
+        // Take a free slot without waiting: if there is none, a running thread will take the request
+        while(slots.tryAcquire())
+        {
+            try
+            {
+                Long next;
+                while((next = pending.poll())!=null) this.requestForecast(next);
+            }
+            finally
+            {
+                slots.release();
+            }
+
+            // A request queued just before the release may have found no free slot
+            if(pending.isEmpty()) return;
+        }
+    }
+
+    /**
+    * Requests the weather forecast for the given event and saves it, logging the failures so that the next queued requests are not affected
+    * @param eventId: the ID of the event
+    **/
+    private void requestForecast(Long eventId)
+    {
+        try
+        {
+            // Get the saved event
+            Event event = eventManager.getEventById(eventId);
+            if(event==null) return;
+
+            // Get weather forecast from the Calendar Manager
+            String weatherForecast;
+            try
+            {
+                weatherForecast = calendarManager.requestWeatherForecast(event);
+            }
+            catch(ForecastDeferredException ex)
+            {
+                // Keep the current forecast, the scheduled refresh will link the new one
+                LOGGER.log(Level.FINE, "Weather forecast deferred for event {0}", eventId);
+                return;
+            }
+            catch(Exception ex)
+            {
+                LOGGER.log(Level.FINE, "No weather forecast for event "+eventId, ex);
+                weatherForecast = "";
+            }
+
+            // Save weather forecast: the request may belong to another user than the one running it, the owner was checked before queueing
+            eventManager.linkWeatherForecast(weatherForecast, event);
+        }
+        catch(RuntimeException ex)
+        {
+            LOGGER.log(Level.WARNING, "Weather forecast not saved for event "+eventId, ex);
+        }
+    }
+
+    /** Getter
+    * @return the number of requests waiting for a free slot
+    */
+    public int getPendingRequests()
+    {
+        return pending.size();
+    }
+}
@@ -0,0 +1,94 @@
+package it.polimi.se2.meteocal.control;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+* Weekly forecast returned by a weather provider: the list of the daily conditions (today is the element 0, tomorrow 1, etc.), plus the hourly forecasts of the days for which the provider has them. A week can be marked as not modified when the provider confirmed that the forecast received before is still valid, so that the callers only need to extend its expiration
+**/
+public class ForecastWeek extends AbstractList<String>
+{
+    private final List<String> conditions;
+    private final HourlyForecast[] hours;
+    private final boolean notModified;
+
+
+    /***************** CONSTRUCTORS *****************/
+
+    /**
+    * Constructor with the daily conditions only
+    * @param conditions: the daily conditions (elements may be null if the provider has no condition for that day)
+    **/
+    public ForecastWeek(List<String> conditions)
+    {
+        this(conditions, null);
+    }
+
+    /**
+    * Constructor with the daily conditions and the hourly forecasts
+    * @param conditions: the daily conditions (elements may be null if the provider has no condition for that day)
+    * @param hours: the hourly forecasts, one for each day (elements may be null), or null if the provider has no hourly forecasts
+    **/
+    public ForecastWeek(List<String> conditions, HourlyForecast[] hours)
+    {
+        this.conditions = Collections.unmodifiableList(new ArrayList<>(conditions));
+        this.hours = (hours==null) ? new HourlyForecast[0] : Arrays.copyOf(hours, hours.length);
+        this.notModified = false;
+    }
+
+    /**
+    * Constructor of a copy of the given week, marked as not modified
+    * @param week: the week received before
+    **/
+    private ForecastWeek(ForecastWeek week)
+    {
+        this.conditions = week.conditions;
+        this.hours = week.hours;
+        this.notModified = true;
+    }
+
+    /**
+    * Gets this week marked as not modified, to be returned when the provider confirms that it is still valid
+    * @return the same forecast, marked as not modified
+    **/
+    public ForecastWeek asNotModified()
+    {
+        return notModified ? this : new ForecastWeek(this);
+    }
+
+    /** Getter
+    * @return true if the provider confirmed that this forecast did not change since the previous request
+    */
+    public boolean isNotModified()
+    {
+        return notModified;
+    }
+
+
+    /***************** LIST METHODS *****************/
+
+    @Override
+    public String get(int day)
+    {
+        return conditions.get(day);
+    }
+
+    @Override
+    public int size()
+    {
+        return conditions.size();
+    }
+
+    /**
+    * Gets the hourly forecast of a day
+    * @param day: 0 for today, 1 for tomorrow, etc.
+    * @return the hourly forecast, or null if the provider has none for that day
+    **/
+    public HourlyForecast getHours(int day)
+    {
+        return (day>=0 && day<hours.length) ? hours[day] : null;
+    }
+}
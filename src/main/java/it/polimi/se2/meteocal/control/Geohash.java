@@ -0,0 +1,73 @@
+package it.polimi.se2.meteocal.control;
+
+/**
+* Support class that encodes coordinates as geohashes: strings in which every character narrows the area, so that places close to each other share the same prefix. A geohash of 4 characters is a cell of about 39 x 20 km, small enough to share a weather forecast
+**/
+public final class Geohash
+{
+    private static final char[] BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz".toCharArray();
+
+    private Geohash()
+    {
+    }
+
+    /**
+    * Encodes the given coordinates
+    * @param latitude: the latitude, between -90 and 90
+    * @param longitude: the longitude, between -180 and 180
+    * @param precision: the number of characters of the geohash
+    * @return the geohash of the cell containing the coordinates
+    **/
+    public static String encode(double latitude, double longitude, int precision)
+    {
+        double minLatitude = -90, maxLatitude = 90;
+        double minLongitude = -180, maxLongitude = 180;
+        StringBuilder geohash = new StringBuilder(precision);
+        boolean evenBit = true;
+        int bit = 0;
+        int character = 0;
+
+        while(geohash.length()<precision)
+        {
+            // Bits alternate between longitude and latitude, each one halves the interval
+            if(evenBit)
+            {
+                double middle = (minLongitude+maxLongitude)/2;
+                if(longitude>=middle)
+                {
+                    character = (character<<1)|1;
+                    minLongitude = middle;
+                }
+                else
+                {
+                    character = character<<1;
+                    maxLongitude = middle;
+                }
+            }
+            else
+            {
+                double middle = (minLatitude+maxLatitude)/2;
+                if(latitude>=middle)
+                {
+                    character = (character<<1)|1;
+                    minLatitude = middle;
+                }
+                else
+                {
+                    character = character<<1;
+                    maxLatitude = middle;
+                }
+            }
+            evenBit = !evenBit;
+
+            // Every 5 bits make a character
+            if(++bit==5)
+            {
+                geohash.append(BASE32[character]);
+                bit = 0;
+                character = 0;
+            }
+        }
+        return geohash.toString();
+    }
+}
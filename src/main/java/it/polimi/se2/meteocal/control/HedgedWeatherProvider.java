@@ -0,0 +1,265 @@
+package it.polimi.se2.meteocal.control;
+
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+* Weather provider that sends hedged requests to two providers: the request goes to the primary provider and, if it has not answered within a delay based on its recent latencies (e.g. the 95th percentile), the same request is sent to the secondary provider too. The first successful answer wins and the other request is cancelled. A primary that loses is recorded with the time it had taken when cancelled, a lower bound of its latency, so that the slow requests are not left out of the percentile
+**/
+public class HedgedWeatherProvider implements WeatherProvider
+{
+    /** Default percentile of the primary latencies used as hedging delay **/
+    public static final double DEFAULT_PERCENTILE = 95;
+
+    /** Delay (in milliseconds) used until enough latencies have been collected **/
+    public static final long DEFAULT_DELAY = 500;
+
+    /** Minimum delay (in milliseconds), so that a very fast primary does not cause a hedge at every small hiccup **/
+    public static final long MIN_DELAY = 50;
+
+    /** Number of recent primary latencies kept to compute the percentile **/
+    static final int SAMPLES = 128;
+
+    /** Minimum number of latencies needed to compute the percentile **/
+    static final int MIN_SAMPLES = 20;
+
+    private final WeatherProvider primary;
+    private final WeatherProvider secondary;
+    private final ExecutorService executor;
+    private final double percentile;
+
+    private final long[] latencies = new long[SAMPLES];
+    private int latencyCount;
+    private int latencyIndex;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong hedgedRequests = new AtomicLong();
+    private final AtomicLong secondaryWins = new AtomicLong();
+
+
+    /***************** CONSTRUCTORS *****************/
+
+    /**
+    * Constructor with the two providers and the executor that runs their requests
+    * @param primary: the provider that receives every request
+    * @param secondary: the provider that receives the hedged requests
+    * @param executor: the executor that runs the provider requests, it must allow at least two concurrent tasks per request
+    * @param percentile: the percentile (0-100) of the primary latencies used as hedging delay
+    **/
+    public HedgedWeatherProvider(WeatherProvider primary, WeatherProvider secondary, ExecutorService executor, double percentile)
+    {
+        this.primary = primary;
+        this.secondary = secondary;
+        this.executor = executor;
+        this.percentile = percentile;
+    }
+
+
+    /***************** PROVIDER METHODS *****************/
+
+    @Override
+    public ForecastWeek requestWeek(String city) throws WeatherProviderException
+    {
+        requests.incrementAndGet();
+        CompletionService<Result> completion = new ExecutorCompletionService<>(executor);
+        AtomicBoolean primaryTimed = new AtomicBoolean(false);
+        long primaryStart = System.nanoTime();
+        Future<Result> primaryRequest = completion.submit(this.request(primary, city, primaryTimed));
+        Future<Result> secondaryRequest = null;
+        WeatherProviderException lastError = null;
+        int pending = 1;
+
+        try
+        {
+            // Wait for the primary within the hedging delay
+            Future<Result> done = completion.poll(this.getHedgingDelay(), TimeUnit.MILLISECONDS);
+
+            // If the primary is late (or already failed), send the request to the secondary too
+            if(done==null || this.failed(done))
+            {
+                if(done!=null)
+                {
+                    lastError = this.getError(done);
+                    pending--;
+                }
+                hedgedRequests.incrementAndGet();
+                secondaryRequest = completion.submit(this.request(secondary, city, null));
+                pending++;
+                done = null;
+            }
+
+            // Take the first successful answer
+            while(done==null && pending>0)
+            {
+                Future<Result> next = completion.take();
+                pending--;
+                if(this.failed(next)) lastError = this.getError(next);
+                else done = next;
+            }
+            if(done==null) throw lastError;
+
+            Result result = done.get();
+            if(!result.fromPrimary) secondaryWins.incrementAndGet();
+            return result.conditions;
+        }
+        catch(InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new WeatherProviderException("Request interrupted", ex);
+        }
+        catch(ExecutionException ex)
+        {
+            throw new WeatherProviderException("Weather provider not available", ex.getCause());
+        }
+        finally
+        {
+            // Cancel the loser, if still running, recording the time taken so far by the primary
+            if(!primaryRequest.isDone() && primaryTimed.compareAndSet(false, true)) this.recordLatency(TimeUnit.NANOSECONDS.toMillis(System.nanoTime()-primaryStart));
+            primaryRequest.cancel(true);
+            if(secondaryRequest!=null) secondaryRequest.cancel(true);
+        }
+    }
+
+    @Override
+    public void invalidate(String city)
+    {
+        primary.invalidate(city);
+        secondary.invalidate(city);
+    }
+
+    /**
+    * Gets the current hedging delay: the chosen percentile of the recent primary latencies
+    * @return the delay in milliseconds
+    **/
+    public synchronized long getHedgingDelay()
+    {
+        if(latencyCount<MIN_SAMPLES) return DEFAULT_DELAY;
+        long[] sorted = Arrays.copyOf(latencies, latencyCount);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile/100*latencyCount)-1;
+        return Math.max(MIN_DELAY, sorted[Math.max(0, Math.min(index, latencyCount-1))]);
+    }
+
+
+    /***************** STATISTICS *****************/
+
+    /** Getter
+    * @return the number of requests received
+    */
+    public long getRequests()
+    {
+        return requests.get();
+    }
+
+    /** Getter
+    * @return the number of requests also sent to the secondary provider
+    */
+    public long getHedgedRequests()
+    {
+        return hedgedRequests.get();
+    }
+
+    /** Getter
+    * @return the number of requests answered by the secondary provider
+    */
+    public long getSecondaryWins()
+    {
+        return secondaryWins.get();
+    }
+
+
+    /***************** SUPPORT METHODS *****************/
+
+    /** Getter
+    * @return the number of primary latencies currently used to compute the percentile
+    */
+    synchronized int getLatencySamples()
+    {
+        return latencyCount;
+    }
+
+    /**
+    * Creates the task that sends the request to a provider, recording the latency of the successful primary requests
+    * @param timed: for the primary, the flag set by whoever records its latency first (the request when it succeeds, or the caller when it cancels it), null for the secondary
+    **/
+    private Callable<Result> request(final WeatherProvider provider, final String city, final AtomicBoolean timed)
+    {
+        return new Callable<Result>()
+        {
+            @Override
+            public Result call() throws WeatherProviderException
+            {
+                long start = System.nanoTime();
+                ForecastWeek conditions = provider.requestWeek(city);
+                if(timed!=null && timed.compareAndSet(false, true)) recordLatency(TimeUnit.NANOSECONDS.toMillis(System.nanoTime()-start));
+                return new Result(conditions, timed!=null);
+            }
+        };
+    }
+
+    /**
+    * Saves a primary latency in the ring buffer
+    **/
+    private synchronized void recordLatency(long latency)
+    {
+        latencies[latencyIndex] = latency;
+        latencyIndex = (latencyIndex+1)%SAMPLES;
+        if(latencyCount<SAMPLES) latencyCount++;
+    }
+
+    /**
+    * Checks if a completed request failed
+    **/
+    private boolean failed(Future<Result> request) throws InterruptedException
+    {
+        try
+        {
+            request.get();
+            return false;
+        }
+        catch(ExecutionException ex)
+        {
+            return true;
+        }
+    }
+
+    /**
+    * Gets the error of a failed request as a provider exception
+    **/
+    private WeatherProviderException getError(Future<Result> request) throws InterruptedException
+    {
+        try
+        {
+            request.get();
+            return null;
+        }
+        catch(ExecutionException ex)
+        {
+            if(ex.getCause() instanceof WeatherProviderException) return (WeatherProviderException) ex.getCause();
+            return new WeatherProviderException("Weather provider not available", ex.getCause());
+        }
+    }
+
+    /**
+    * The answer of one of the providers
+    **/
+    private static final class Result
+    {
+        private final ForecastWeek conditions;
+        private final boolean fromPrimary;
+
+        private Result(ForecastWeek conditions, boolean fromPrimary)
+        {
+            this.conditions = conditions;
+            this.fromPrimary = fromPrimary;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package it.polimi.se2.meteocal.control;
+
+import it.polimi.se2.meteocal.entity.WeatherCondition;
+import java.nio.ByteBuffer;
+
+/**
+* Hourly forecast of a location on a single day, stored as primitive arrays instead of objects so that a whole day takes about 200 bytes: for each hour the condition mask (see WeatherCondition), the precipitation in tenths of millimeter and the temperature in tenths of degree Celsius
+**/
+public final class HourlyForecast
+{
+    /** Number of hours in a day **/
+    public static final int HOURS = 24;
+
+    /** Approximate memory (in bytes) used by a single instance: the object and its three arrays, with their headers **/
+    public static final int MEMORY_SIZE = 24+(16+HOURS)+2*(16+2*HOURS);
+
+    /** Size (in bytes) of the binary form: the available hours, then the three arrays **/
+    public static final int BINARY_SIZE = 4+HOURS+2*(2*HOURS);
+
+    private final byte[] conditions = new byte[HOURS];
+    private final short[] precipitation = new short[HOURS];
+    private final short[] temperature = new short[HOURS];
+    private int availableHours;
+
+
+    /***************** SETTERS *****************/
+
+    /**
+    * Sets the forecast of a single hour
+    * @param hour: the hour of the day, from 0 to 23
+    * @param condition: the weather condition description of that hour
+    * @param precipitation: the precipitation in millimeters
+    * @param temperature: the temperature in degrees Celsius
+    **/
+    public void setHour(int hour, String condition, double precipitation, double temperature)
+    {
+        this.setHour(hour, WeatherCondition.parse(condition), precipitation, temperature);
+    }
+
+    /**
+    * Sets the forecast of a single hour
+    * @param hour: the hour of the day, from 0 to 23
+    * @param conditionMask: the mask of the weather conditions of that hour
+    * @param precipitation: the precipitation in millimeters
+    * @param temperature: the temperature in degrees Celsius
+    **/
+    public void setHour(int hour, int conditionMask, double precipitation, double temperature)
+    {
+        if(hour<0 || hour>=HOURS) throw new IllegalArgumentException("Invalid hour: "+hour);
+        this.conditions[hour] = (byte) conditionMask;
+        this.precipitation[hour] = toTenths(precipitation);
+        this.temperature[hour] = toTenths(temperature);
+        this.availableHours |= 1<<hour;
+    }
+
+
+    /***************** GETTERS *****************/
+
+    /**
+    * Checks if the forecast of an hour is available
+    * @param hour: the hour of the day, from 0 to 23
+    * @return true if the hour has been set
+    **/
+    public boolean hasHour(int hour)
+    {
+        return hour>=0 && hour<HOURS && (availableHours & (1<<hour))!=0;
+    }
+
+    /**
+    * Checks if the forecast of every hour in the given range is available: a missing hour is not known to be clear, so the conditions of a partial range must not be trusted
+    * @param fromHour: the first hour, included
+    * @param toHour: the last hour, excluded
+    * @return true if the range is not empty and all its hours have been set
+    **/
+    public boolean hasHours(int fromHour, int toHour)
+    {
+        int range = rangeMask(fromHour, toHour);
+        return range!=0 && (availableHours & range)==range;
+    }
+
+    /**
+    * Gets the condition mask of a single hour
+    * @param hour: the hour of the day, from 0 to 23
+    * @return the mask of the weather conditions, 0 if the hour is not available
+    **/
+    public int getConditionMask(int hour)
+    {
+        return conditions[hour];
+    }
+
+    /**
+    * Gets the conditions of all the hours in the given range, e.g. the hours covered by an event
+    * @param fromHour: the first hour, included
+    * @param toHour: the last hour, excluded
+    * @return the union of the condition masks of the hours in the range
+    **/
+    public int getConditionMask(int fromHour, int toHour)
+    {
+        int mask = 0;
+        for(int hour=Math.max(0, fromHour); hour<Math.min(HOURS, toHour); hour++) mask |= conditions[hour];
+        return mask;
+    }
+
+    /**
+    * Gets the precipitation of a single hour
+    * @param hour: the hour of the day, from 0 to 23
+    * @return the precipitation in millimeters
+    **/
+    public double getPrecipitation(int hour)
+    {
+        return precipitation[hour]/10.0;
+    }
+
+    /**
+    * Gets the maximum precipitation of the hours in the given range
+    * @param fromHour: the first hour, included
+    * @param toHour: the last hour, excluded
+    * @return the maximum precipitation in millimeters, 0 if no hour is available
+    **/
+    public double getMaxPrecipitation(int fromHour, int toHour)
+    {
+        int max = 0;
+        for(int hour=Math.max(0, fromHour); hour<Math.min(HOURS, toHour); hour++) max = Math.max(max, precipitation[hour]);
+        return max/10.0;
+    }
+
+    /**
+    * Gets the temperature of a single hour
+    * @param hour: the hour of the day, from 0 to 23
+    * @return the temperature in degrees Celsius
+    **/
+    public double getTemperature(int hour)
+    {
+        return temperature[hour]/10.0;
+    }
+
+
+    /***************** BINARY FORM *****************/
+
+    /**
+    * Writes the forecast in its fixed binary form, BINARY_SIZE bytes
+    * @param buffer: the buffer to write to, at its current position
+    **/
+    void writeTo(ByteBuffer buffer)
+    {
+        buffer.putInt(availableHours);
+        buffer.put(conditions);
+        for(short value : precipitation) buffer.putShort(value);
+        for(short value : temperature) buffer.putShort(value);
+    }
+
+    /**
+    * Reads a forecast from its fixed binary form
+    * @param buffer: the buffer to read from, at its current position
+    * @return the forecast
+    **/
+    static HourlyForecast readFrom(ByteBuffer buffer)
+    {
+        HourlyForecast hours = new HourlyForecast();
+        hours.availableHours = buffer.getInt();
+        buffer.get(hours.conditions);
+        for(int hour=0; hour<HOURS; hour++) hours.precipitation[hour] = buffer.getShort();
+        for(int hour=0; hour<HOURS; hour++) hours.temperature[hour] = buffer.getShort();
+        return hours;
+    }
+
+
+    /***************** SUPPORT METHODS *****************/
+
+    /**
+    * Converts a value to tenths, saturating to the range of a short
+    **/
+    private static short toTenths(double value)
+    {
+        return (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(value*10)));
+    }
+
+    /**
+    * Gets the bits of the hours in the given range
+    **/
+    private static int rangeMask(int fromHour, int toHour)
+    {
+        int from = Math.max(0, fromHour);
+        int to = Math.min(HOURS, toHour);
+        if(from>=to) return 0;
+        return (int) (((1L<<to)-1) & ~((1L<<from)-1));
+    }
+}
@@ -0,0 +1,118 @@
+package it.polimi.se2.meteocal.control;
+
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+
+/**
+* Control class that keeps in memory the hourly forecasts of every active location, keyed by location and day. Each day is a compact HourlyForecast, so that the bad weather checks can look only at the hours covered by an event (an evening rain does not affect a morning event)
+**/
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class HourlyForecastStore
+{
+    private final Map<ForecastKey, HourlyForecast> forecasts = new ConcurrentHashMap<>();
+
+    /**
+    * Saves the hourly forecasts of a week, replacing the previous ones. The days of the week without hours lose their previous hourly forecast too, so that it cannot override the newer daily forecast
+    * @param location: the location key
+    * @param firstDay: the day of the first forecast in the week
+    * @param week: the weekly forecast returned by the provider
+    **/
+    public void putWeek(String location, LocalDate firstDay, ForecastWeek week)
+    {
+        for(int i=0; i<week.size(); i++)
+        {
+            HourlyForecast hours = week.getHours(i);
+            ForecastKey key = new ForecastKey(location, firstDay.plusDays(i));
+            if(hours!=null) forecasts.put(key, hours);
+            else forecasts.remove(key);
+        }
+    }
+
+    /**
+    * Gets the hourly forecast of a location on a day
+    * @param location: the location key
+    * @param day: the forecast day
+    * @return the hourly forecast, or null if not available
+    **/
+    public HourlyForecast get(String location, LocalDate day)
+    {
+        return forecasts.get(new ForecastKey(location, day));
+    }
+
+    /**
+    * Gets the conditions of the hours between the given times: the hour of the start time is included, the hour of the end time only if the event ends after its beginning (e.g. 10:00-11:00 covers only the hour 10)
+    * @param location: the location key
+    * @param day: the forecast day
+    * @param startTime: the start time
+    * @param endTime: the end time
+    * @return the union of the condition masks of the covered hours, or -1 if any of those hours is not available (the daily forecast should be used instead)
+    **/
+    public int getConditionMask(String location, LocalDate day, Date startTime, Date endTime)
+    {
+        HourlyForecast hours = this.get(location, day);
+        if(hours==null || startTime==null || endTime==null) return -1;
+
+        // Get the covered hours
+        java.util.Calendar c = java.util.Calendar.getInstance();
+        c.setTime(startTime);
+        int fromHour = c.get(java.util.Calendar.HOUR_OF_DAY);
+        c.setTime(endTime);
+        int toHour = c.get(java.util.Calendar.HOUR_OF_DAY)+((c.get(java.util.Calendar.MINUTE)>0) ? 1 : 0);
+        if(toHour<=fromHour) toHour = fromHour+1;
+
+        if(!hours.hasHours(fromHour, toHour)) return -1;
+        return hours.getConditionMask(fromHour, toHour);
+    }
+
+    /**
+    * Gets a copy of all the hourly forecasts, e.g. to save them in a snapshot
+    * @return the hourly forecasts by key
+    **/
+    public Map<ForecastKey, HourlyForecast> getEntries()
+    {
+        return Collections.unmodifiableMap(new HashMap<>(forecasts));
+    }
+
+    /**
+    * Restores an hourly forecast, e.g. from a snapshot. A forecast already in the store is not replaced, since it's newer
+    * @param key: the forecast key
+    * @param hours: the hourly forecast
+    **/
+    public void restore(ForecastKey key, HourlyForecast hours)
+    {
+        forecasts.putIfAbsent(key, hours);
+    }
+
+    /**
+    * Removes the forecasts of the past days
+    * @param today: the first day to keep
+    **/
+    public void removeBefore(LocalDate today)
+    {
+        forecasts.keySet().removeIf(key -> key.getDay().isBefore(today));
+    }
+
+    /** Getter
+    * @return the number of (location, day) hourly forecasts in memory
+    */
+    public int size()
+    {
+        return forecasts.size();
+    }
+
+    /** Getter
+    * @return the approximate memory (in bytes) used by the hourly arrays
+    */
+    public long getMemoryEstimate()
+    {
+        return (long) forecasts.size()*HourlyForecast.MEMORY_SIZE;
+    }
+}
@@ -0,0 +1,214 @@
+package it.polimi.se2.meteocal.control;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+* Weather provider that requests the forecasts via HTTP to a service returning a JSON array of days, each one with a "condition" field and optionally an "hourly" array of {"hour", "condition", "precipitation", "temperature"} objects (an empty array or HTTP 404 if the city is unknown). The response is read with a streaming parser, without building a JSON tree, and every request has its own connect and read timeouts.
+* The request is blocking on purpose: the previous asynchronous Unirest request was awaited right away by the caller anyway, so it only added a thread hand-off, and Unirest only supports process-wide timeouts. The callers that must not wait run the request on their own threads (see ForecastUpdater and HedgedWeatherProvider), and the timeouts bound the time a thread is held.
+* The ETag and Last-Modified validators of the last response for each city are kept with its forecast, and sent back in the next request of the same day: if the provider answers 304 Not Modified, the forecast kept is returned marked as not modified, without downloading and parsing the JSON again
+**/
+public class HttpWeatherProvider implements WeatherProvider
+{
+    /** Default URL of the provider, the city name is appended to it **/
+    public static final String DEFAULT_URL = "https://george-vustrey-weather.p.mashape.com/api.php?location=";
+
+    /** Default API key of the provider **/
+    public static final String DEFAULT_KEY = "2U4bcVKdsmmshcolTeVciXb7PQimp1iSBGQjsnO4OBLADJoSpU";
+
+    /** Default maximum time (in milliseconds) to establish the connection **/
+    public static final int DEFAULT_CONNECT_TIMEOUT = 3000;
+
+    /** Default maximum time (in milliseconds) to wait for the response data **/
+    public static final int DEFAULT_READ_TIMEOUT = 7000;
+
+    /** Maximum number of cities whose validators are kept **/
+    public static final int MAX_VALIDATORS = 10000;
+
+    private final String url;
+    private final String key;
+    private final int connectTimeout;
+    private final int readTimeout;
+    private final Map<String, Validators> validators;
+
+    private final AtomicLong notModifiedResponses = new AtomicLong();
+
+
+    /***************** CONSTRUCTORS *****************/
+
+    /**
+    * Constructor with all the provider parameters
+    * @param url: the URL of the provider, the city name is appended to it
+    * @param key: the API key sent in the "X-Mashape-Key" header, null if not needed
+    * @param connectTimeout: the maximum time (in milliseconds) to establish the connection
+    * @param readTimeout: the maximum time (in milliseconds) to wait for the response data
+    **/
+    public HttpWeatherProvider(String url, String key, int connectTimeout, int readTimeout)
+    {
+        this.url = url;
+        this.key = key;
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+
+        // Access-ordered map, so that the validators of the cities not requested anymore are evicted first
+        this.validators = new LinkedHashMap<String, Validators>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Validators> eldest)
+            {
+                return size()>MAX_VALIDATORS;
+            }
+        };
+    }
+
+    /**
+    * Creates a provider reading its parameters from the system properties PREFIX.url, PREFIX.key, PREFIX.connectTimeout and PREFIX.readTimeout, using the defaults for the missing ones
+    * @param prefix: the prefix of the system properties (e.g. "meteocal.weather")
+    * @return the configured provider
+    **/
+    public static HttpWeatherProvider fromSystemProperties(String prefix)
+    {
+        return new HttpWeatherProvider
+        (
+            System.getProperty(prefix+".url", DEFAULT_URL),
+            System.getProperty(prefix+".key", DEFAULT_KEY),
+            Integer.getInteger(prefix+".connectTimeout", DEFAULT_CONNECT_TIMEOUT),
+            Integer.getInteger(prefix+".readTimeout", DEFAULT_READ_TIMEOUT)
+        );
+    }
+
+
+    /***************** PROVIDER METHODS *****************/
+
+    @Override
+    public ForecastWeek requestWeek(String city) throws WeatherProviderException
+    {
+        HttpURLConnection connection = null;
+        boolean reusable = false;
+        try
+        {
+            // Open the connection with this request's timeouts
+            connection = (HttpURLConnection) new URL(url+URLEncoder.encode(city, "UTF-8")).openConnection();
+            connection.setConnectTimeout(connectTimeout);
+            connection.setReadTimeout(readTimeout);
+            connection.setRequestProperty("Accept", "application/json");
+            if(key!=null) connection.setRequestProperty("X-Mashape-Key", key);
+
+            // Make the request conditional if the forecast received today is known
+            String cityKey = ForecastKey.normalizeCity(city);
+            LocalDate today = LocalDate.now();
+            Validators previous = this.getValidators(cityKey);
+            if(previous!=null && today.equals(previous.day))
+            {
+                if(previous.etag!=null) connection.setRequestProperty("If-None-Match", previous.etag);
+                if(previous.lastModified!=null) connection.setRequestProperty("If-Modified-Since", previous.lastModified);
+            }
+
+            // Return the known forecast if it did not change, without reading any body
+            int status = connection.getResponseCode();
+            if(status==HttpURLConnection.HTTP_NOT_MODIFIED)
+            {
+                if(previous==null || !today.equals(previous.day)) throw new WeatherProviderException("Unexpected HTTP 304 for "+city);
+                notModifiedResponses.incrementAndGet();
+                reusable = true;
+                return previous.week.asNotModified();
+            }
+
+            // Stop if the provider returns an error
+            if(status==HttpURLConnection.HTTP_NOT_FOUND) throw new UnknownCityException("Unknown city: "+city);
+            if(status!=HttpURLConnection.HTTP_OK) throw new WeatherProviderException("Weather provider error: HTTP "+status);
+
+            // Read the array of days: today is the element 0, tomorrow 1, etc.
+            try(Reader reader = new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))
+            {
+                ForecastWeek week = ForecastJsonParser.parse(reader);
+                if(week.isEmpty()) throw new UnknownCityException("Unknown city: "+city);
+
+                // Keep the validators, if the provider sent any, for the next request
+                String etag = connection.getHeaderField("ETag");
+                String lastModified = connection.getHeaderField("Last-Modified");
+                if(etag!=null || lastModified!=null) this.putValidators(cityKey, new Validators(etag, lastModified, today, week));
+                else this.putValidators(cityKey, null);
+                reusable = true;
+                return week;
+            }
+        }
+        catch(IOException ex)
+        {
+            throw new WeatherProviderException("Weather provider not available", ex);
+        }
+        finally
+        {
+            // A connection whose response has been read completely goes back to the keep-alive pool, any other one is closed
+            if(connection!=null && !reusable) connection.disconnect();
+        }
+    }
+
+    @Override
+    public void invalidate(String city)
+    {
+        this.putValidators(ForecastKey.normalizeCity(city), null);
+    }
+
+    /** Getter
+    * @return the number of requests answered with 304 Not Modified
+    */
+    public long getNotModifiedResponses()
+    {
+        return notModifiedResponses.get();
+    }
+
+
+    /***************** SUPPORT METHODS *****************/
+
+    /**
+    * Gets the validators of the last response for a city
+    **/
+    private Validators getValidators(String cityKey)
+    {
+        synchronized(validators)
+        {
+            return validators.get(cityKey);
+        }
+    }
+
+    /**
+    * Saves the validators of the last response for a city, or removes them if null
+    **/
+    private void putValidators(String cityKey, Validators cityValidators)
+    {
+        synchronized(validators)
+        {
+            if(cityValidators==null) validators.remove(cityKey);
+            else validators.put(cityKey, cityValidators);
+        }
+    }
+
+    /**
+    * The validators of the last response for a city, with the forecast they refer to
+    **/
+    private static final class Validators
+    {
+        private final String etag;
+        private final String lastModified;
+        private final LocalDate day;
+        private final ForecastWeek week;
+
+        private Validators(String etag, String lastModified, LocalDate day, ForecastWeek week)
+        {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.day = day;
+            this.week = week;
+        }
+    }
+}
@@ -1,69 +1,67 @@
 package it.polimi.se2.meteocal.control;
 
-import it.polimi.se2.meteocal.entity.Calendar;
-import it.polimi.se2.meteocal.entity.Event;
 import it.polimi.se2.meteocal.entity.User;
-import java.util.List;
-import java.util.Set;
+import java.time.LocalDate;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.ejb.Asynchronous;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
 import javax.ejb.EJB;
-import javax.ejb.Stateless;
+import javax.ejb.Singleton;
 
 /**
-* Control class that takes care of preliminary actions to be performed after log-in
+* Control class that takes care of preliminary actions to be performed after log-in. The actions run in background, so that the log-in response does not wait for them, and at most once a day for each user, whatever the number of log-ins (e.g. from many tabs)
 **/
-@Stateless
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
 public class Initializer
 {
-    @EJB
-    NotificationManager notificationManager;
+    private static final Logger LOGGER = Logger.getLogger(Initializer.class.getName());
 
     @EJB
     UserManager userManager;
-    
-    @EJB
-    EventManager eventManager;
-    
-    @EJB
-    CalendarManager calendarManager;
-     
+
+    private final ConcurrentMap<String, LocalDate> initialized = new ConcurrentHashMap<>();
+    private volatile LocalDate initializedDay;
+
     /**
-    * Main method of the initializer, performs all required actions: in the current implementation just checks if there are bad weather alerts to send
+    * Asynchronously performs the preliminary actions for a user who just logged in. The method returns immediately, and does nothing if the user has already been initialized today
+    * @param username: the log-in user-name (= e-mail address), given explicitly since there is no logged user in the background thread
     **/
-    public void initialize()
+    @Asynchronous
+    public void initialize(String username)
     {
-       // Get current user
-       User currentUser = userManager.getLoggedUser();
-       if(currentUser==null) return;
-       
-       // Get all events that need a weather alert (tomorrow and outside)
-       List<Event> events = eventManager.getEventsForBadWeatherAlerts();
-       
-       // If no events, return
-       if(events==null || events.isEmpty()) return;
-       
-       // Loop all events
-       Set<Calendar> calendars;
-       boolean isBadWeather;
-       for(Event event : events)
-       {
-           // Get all calendars that contain this event
-           calendars = event.getCalendars();
+        // Forget the users initialized in the previous days
+        LocalDate today = LocalDate.now();
+        if(!today.equals(initializedDay))
+        {
+            initialized.clear();
+            initializedDay = today;
+        }
 
-           // Loop all calendars
-           for(Calendar calendar : calendars)
-           {
-               // Check if the weather condition is considered bad for this user
-               isBadWeather = calendarManager.isBadWeather(calendar, event.getWeatherForecast());
-               
-               // If it's bad, send notification to the calendar owner
-               if(isBadWeather)
-               {
-                    notificationManager.sendNotification("Bad weather tomorrow!", "Tomorrow is going to be a bad weather day and the outdoor event \""+event.getName()+"\" may be at risk!", false, calendar.getOwner(), event);
-               }
-           }
-           
-           // Update the event to say that the alerts have been sent
-           eventManager.saveBadWeatherAlertSent(event);
-       }
+        // Only the first log-in of the day does the work
+        if(username==null || today.equals(initialized.put(username, today))) return;
+        try
+        {
+            User user = userManager.findUserByEmail(username);
+            if(user!=null) this.initialize(user);
+        }
+        catch(RuntimeException ex)
+        {
+            // Let the next log-in try again
+            initialized.remove(username);
+            LOGGER.log(Level.WARNING, "Initialization failed for "+username, ex);
+        }
+    }
+
+    /**
+    * Main method of the initializer, performs all required actions. In the current implementation there are none left: the bad weather alerts of all the users are sent by the Bad Weather Alert Job, after each forecast refresh and after the start, so the log-in does no alert work at all
+    * @param currentUser: the user who just logged in
+    **/
+    void initialize(User currentUser)
+    {
     }
 }
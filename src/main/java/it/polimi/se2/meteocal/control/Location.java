@@ -0,0 +1,90 @@
+package it.polimi.se2.meteocal.control;
+
+/**
+* Immutable canonical location of a city written by a user. Known cities are keyed by their geohash bucket, so that aliases (e.g. "Milan" and "Milano") and nearby towns share the same forecast; unknown cities fall back to their normalized name
+**/
+public final class Location
+{
+    private final String key;
+    private final String canonicalId;
+    private final String name;
+    private final String geohash;
+
+
+    /***************** CONSTRUCTORS *****************/
+
+    /**
+    * Constructor with all the location data
+    * @param key: the key used for the forecasts of this location
+    * @param canonicalId: the normalized canonical name of the city
+    * @param name: the name sent to the weather provider
+    * @param geohash: the geohash bucket, null if the city is not in the gazetteer
+    **/
+    Location(String key, String canonicalId, String name, String geohash)
+    {
+        this.key = key;
+        this.canonicalId = canonicalId;
+        this.name = name;
+        this.geohash = geohash;
+    }
+
+    /**
+    * Creates the location of a city not found in the gazetteer, keyed by its normalized name
+    * @param city: the city name as written by the user
+    * @return the location of the city
+    **/
+    public static Location unresolved(String city)
+    {
+        String normalized = ForecastKey.normalizeCity(city);
+        return new Location(normalized, normalized, (city==null) ? null : city.trim(), null);
+    }
+
+
+    /***************** GETTERS *****************/
+
+    /** Getter
+    * @return the key shared by all the cities that use the same forecast
+    */
+    public String getKey()
+    {
+        return key;
+    }
+
+    /** Getter
+    * @return the normalized canonical name of the city (e.g. "milano" for "Milan")
+    */
+    public String getCanonicalId()
+    {
+        return canonicalId;
+    }
+
+    /** Getter
+    * @return the name sent to the weather provider: the main city of the bucket for known cities, the name written by the user otherwise
+    */
+    public String getName()
+    {
+        return name;
+    }
+
+    /** Getter
+    * @return the geohash bucket, null if the city is not in the gazetteer
+    */
+    public String getGeohash()
+    {
+        return geohash;
+    }
+
+    /** Getter
+    * @return true if the city has been found in the gazetteer
+    */
+    public boolean isResolved()
+    {
+        return geohash!=null;
+    }
+
+    @Override
+    public String toString()
+    {
+        return key+" ("+name+")";
+    }
+}
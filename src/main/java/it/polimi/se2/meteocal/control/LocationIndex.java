@@ -0,0 +1,163 @@
+package it.polimi.se2.meteocal.control;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.text.Normalizer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.PostConstruct;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+
+/**
+* Control class that canonicalizes the cities written by the users. A local gazetteer maps each known city and its aliases to a canonical id and to a geohash bucket: the forecast cache, the refresh grouping and the provider requests are keyed on the bucket, so that "milano", "Milano " and "Milan", as well as the towns near each other, share the same forecast
+**/
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class LocationIndex
+{
+    /** Number of geohash characters of a bucket (about 39 x 20 km) **/
+    public static final int BUCKET_PRECISION = 4;
+
+    /** Classpath resource with the gazetteer **/
+    static final String GAZETTEER = "/gazetteer.txt";
+
+    /** Prefix of the keys of the known cities, so that they cannot clash with the name of an unknown city **/
+    static final String BUCKET_PREFIX = "gh:";
+
+    private static final Logger LOGGER = Logger.getLogger(LocationIndex.class.getName());
+
+    private volatile Map<String, Location> locations = Collections.emptyMap();
+
+    private final AtomicLong resolved = new AtomicLong();
+    private final AtomicLong unresolved = new AtomicLong();
+
+    /**
+    * Loads the gazetteer from the classpath
+    **/
+    @PostConstruct
+    public void initialize()
+    {
+        try(InputStream input = LocationIndex.class.getResourceAsStream(GAZETTEER))
+        {
+            if(input==null)
+            {
+                LOGGER.log(Level.WARNING, "Gazetteer {0} not found, cities will be keyed by name", GAZETTEER);
+                return;
+            }
+            this.load(new InputStreamReader(input, StandardCharsets.UTF_8));
+        }
+        catch(IOException ex)
+        {
+            LOGGER.log(Level.WARNING, "Cannot read the gazetteer, cities will be keyed by name", ex);
+        }
+    }
+
+    /**
+    * Loads a gazetteer, replacing the current one. Each line is "name;latitude;longitude;aliases" (aliases comma separated), empty lines and lines starting with # are skipped. The first city of each bucket is the one sent to the provider for the whole bucket
+    * @param reader: the gazetteer content
+    * @throws IOException if the gazetteer cannot be read
+    **/
+    public void load(Reader reader) throws IOException
+    {
+        Map<String, Location> loaded = new HashMap<>();
+        Map<String, String> bucketNames = new HashMap<>();
+        BufferedReader lines = new BufferedReader(reader);
+        String line;
+        while((line = lines.readLine())!=null)
+        {
+            // Skip comments and malformed lines
+            line = line.trim();
+            if(line.isEmpty() || line.startsWith("#")) continue;
+            String[] fields = line.split(";", -1);
+            if(fields.length<3) continue;
+
+            // Compute the bucket, its main city is the first one found
+            String name = fields[0].trim();
+            String geohash;
+            try
+            {
+                geohash = Geohash.encode(Double.parseDouble(fields[1].trim()), Double.parseDouble(fields[2].trim()), BUCKET_PRECISION);
+            }
+            catch(NumberFormatException ex)
+            {
+                continue;
+            }
+            bucketNames.putIfAbsent(geohash, name);
+            Location location = new Location(BUCKET_PREFIX+geohash, normalize(name), bucketNames.get(geohash), geohash);
+
+            // Register the name and its aliases, without overwriting a city already registered
+            loaded.putIfAbsent(normalize(name), location);
+            if(fields.length>3)
+            {
+                for(String alias : fields[3].split(","))
+                {
+                    if(!alias.trim().isEmpty()) loaded.putIfAbsent(normalize(alias), location);
+                }
+            }
+        }
+        locations = Collections.unmodifiableMap(loaded);
+    }
+
+    /**
+    * Gets the canonical location of a city written by a user. If the city is not in the gazetteer, the part before the first comma is tried too (e.g. "Milano, Italy"), then the city is keyed by its normalized name
+    * @param city: the city name as written by the user
+    * @return the location of the city, never null
+    **/
+    public Location resolve(String city)
+    {
+        if(city==null) return Location.unresolved(null);
+        Map<String, Location> current = locations;
+        Location location = current.get(normalize(city));
+        if(location==null && city.indexOf(',')>0) location = current.get(normalize(city.substring(0, city.indexOf(','))));
+        if(location!=null)
+        {
+            resolved.incrementAndGet();
+            return location;
+        }
+        unresolved.incrementAndGet();
+        return Location.unresolved(city);
+    }
+
+    /** Getter
+    * @return the number of names (cities and aliases) in the gazetteer
+    */
+    public int size()
+    {
+        return locations.size();
+    }
+
+    /** Getter
+    * @return the number of cities found in the gazetteer
+    */
+    public long getResolved()
+    {
+        return resolved.get();
+    }
+
+    /** Getter
+    * @return the number of cities not found in the gazetteer, keyed by name
+    */
+    public long getUnresolved()
+    {
+        return unresolved.get();
+    }
+
+    /**
+    * Normalizes a name for the gazetteer lookup: like the forecast keys, plus the removal of the accents (e.g. "Zürich" and "Zurich" are the same)
+    **/
+    private static String normalize(String name)
+    {
+        String normalized = ForecastKey.normalizeCity(name);
+        return Normalizer.normalize(normalized, Normalizer.Form.NFD).replaceAll("\\p{M}", "");
+    }
+}
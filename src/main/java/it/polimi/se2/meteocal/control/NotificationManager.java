@@ -5,15 +5,26 @@ import it.polimi.se2.meteocal.entity.Event;
 import it.polimi.se2.meteocal.entity.Notification;
 import it.polimi.se2.meteocal.entity.User;
 import java.security.Principal;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.Resource;
 import javax.ejb.EJB;
+import javax.ejb.EJBException;
+import javax.ejb.SessionContext;
 import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
 import javax.inject.Inject;
 import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
 import javax.persistence.PersistenceContext;
 import javax.persistence.TypedQuery;
+import javax.transaction.TransactionSynchronizationRegistry;
 
 /**
 * Control class that takes care of the notification management: create, delete, update and search Notification entities; management of invitation choice (accept/decline)
@@ -21,6 +32,8 @@ import javax.persistence.TypedQuery;
 @Stateless
 public class NotificationManager
 {
+    private static final Logger LOGGER = Logger.getLogger(NotificationManager.class.getName());
+
     @PersistenceContext(name = "meteocalPU")
     EntityManager entityManager;
     
@@ -32,6 +45,15 @@ public class NotificationManager
     
     @EJB
     CalendarManager calendarManager;
+    
+    @EJB
+    CitySubscriptionRegistry citySubscriptionRegistry;
+    
+    @Resource
+    SessionContext sessionContext;
+    
+    @Resource
+    TransactionSynchronizationRegistry transactionRegistry;
 
     /**
     * Method to save the notification in the database
@@ -126,6 +148,17 @@ public class NotificationManager
             Calendar calendar = currentUser.getCalendar();
             calendar.addEvent(event);
             event.addCalendar(calendar);
+            
+            // Count the new attendee in the forecast refresh, once saved
+            final Long eventId = event.getId();
+            AfterCommit.run(transactionRegistry, new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    citySubscriptionRegistry.addAttendee(eventId);
+                }
+            });
         }
         
         // Set invitation as read
@@ -164,6 +197,112 @@ public class NotificationManager
         return notification;
     }
     
+    /**
+    * Creates an automatic alert, not saved yet: unlike the other notifications, an alert has a key, unique in the database, so that the same alert cannot be sent twice (see sendAlerts)
+    * @param alertType: the type of alert (e.g. Notification.BAD_WEATHER_ALERT)
+    * @param title: the title of the alert
+    * @param content: the content of the alert
+    * @param receiver: the user that will receive the alert
+    * @param linkedEvent: the event linked with the alert, whose day is part of the key
+    * @return the alert
+    **/
+    public Notification createAlert(String alertType, String title, String content, User receiver, Event linkedEvent)
+    {
+        Notification alert = new Notification(title, content, false);
+        alert.setReceiver(receiver);
+        alert.setEvent(linkedEvent);
+        alert.setAlertKey(Notification.createAlertKey(alertType, linkedEvent, receiver, linkedEvent.getDay()));
+        return alert;
+    }
+    
+    /**
+    * Creates the bad weather alert of an outdoor event for one of its attendees, not saved yet (see sendAlerts)
+    * @param receiver: the user that will receive the alert
+    * @param linkedEvent: the event at risk
+    * @return the alert
+    **/
+    public Notification createBadWeatherAlert(User receiver, Event linkedEvent)
+    {
+        return this.createAlert(Notification.BAD_WEATHER_ALERT, "Bad weather tomorrow!", "Tomorrow is going to be a bad weather day and the outdoor event \""+linkedEvent.getName()+"\" may be at risk!", receiver, linkedEvent);
+    }
+    
+    /**
+    * Sends automatic alerts with insert-if-absent semantics: the alerts whose key is already in the database are skipped, so concurrent senders (e.g. the job and a preference change, or two nodes) cannot send the same alert twice, without locking. The alerts are written together in their own transaction; if a concurrent sender wins the race on some of them, the others are written one by one. Any other failure is not hidden
+    * @param alerts: the alerts created by createAlert
+    * @return the number of alerts actually sent
+    * @throws EJBException if the alerts cannot be written for any reason other than a duplicate key
+    **/
+    public int sendAlerts(List<Notification> alerts)
+    {
+        if(alerts.isEmpty()) return 0;
+        NotificationManager self = sessionContext.getBusinessObject(NotificationManager.class);
+        try
+        {
+            return self.insertAlerts(alerts);
+        }
+        catch(EJBException ex)
+        {
+            if(!UniqueConstraints.isViolation(ex))
+            {
+                LOGGER.log(Level.WARNING, "Cannot send "+alerts.size()+" alerts", ex);
+                throw ex;
+            }
+            
+            // A unique key violation rolled back the whole batch: retry each alert, the duplicates fail alone
+            int sent = 0;
+            for(Notification alert : alerts)
+            {
+                try
+                {
+                    sent += self.insertAlerts(Collections.singletonList(alert));
+                }
+                catch(EJBException failure)
+                {
+                    if(!UniqueConstraints.isViolation(failure))
+                    {
+                        LOGGER.log(Level.WARNING, "Cannot send the alert "+alert.getAlertKey()+", "+sent+" alerts sent", failure);
+                        throw failure;
+                    }
+                    
+                    // Already sent by someone else
+                }
+            }
+            return sent;
+        }
+    }
+    
+    /**
+    * Saves the alerts whose key is not in the database yet, in a new transaction so that a unique key violation does not affect the caller (use sendAlerts instead)
+    * @param alerts: the alerts to save
+    * @return the number of alerts saved
+    **/
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public int insertAlerts(List<Notification> alerts)
+    {
+        // Skip the alerts already in the database, and the duplicates in the list
+        Set<String> keys = new HashSet<>();
+        for(Notification alert : alerts) keys.add(alert.getAlertKey());
+        keys.removeAll(entityManager.createNamedQuery(Notification.findExistingAlertKeys, String.class).setParameter("alertKeys", keys).getResultList());
+        
+        // Save the others
+        int inserted = 0;
+        for(Notification alert : alerts)
+        {
+            if(!keys.remove(alert.getAlertKey())) continue;
+            
+            // The event and the receiver come from the caller's transaction, and a rolled back attempt may have already assigned an ID
+            alert.setEvent(entityManager.getReference(Event.class, alert.getEvent().getId()));
+            alert.setReceiver(entityManager.getReference(User.class, alert.getReceiver().getId()));
+            alert.setId(null);
+            entityManager.persist(alert);
+            inserted++;
+        }
+        
+        // Write now, so that a concurrent insert of the same key fails here and not at the commit
+        entityManager.flush();
+        return inserted;
+    }
+    
     /**
     * Method to delete a notification from the database
     * @param notification: the notification that needs to be deleted
@@ -0,0 +1,93 @@
+package it.polimi.se2.meteocal.control;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+* In-memory weather provider that does not use the network, for tests, benchmarks and local development. It returns the forecasts set for each city or, if none, a fixed week generated from the city name; a latency and a failure can be simulated
+**/
+public class StubWeatherProvider implements WeatherProvider
+{
+    private static final List<String> CONDITIONS = Arrays.asList("Sunny", "Partly cloudy", "Cloudy", "Light rain", "Heavy rain", "Snow");
+
+    private final Map<String, ForecastWeek> forecasts = new ConcurrentHashMap<>();
+    private final AtomicLong requests = new AtomicLong();
+    private volatile long latency;
+    private volatile boolean failing;
+
+
+    /***************** CONFIGURATION *****************/
+
+    /**
+    * Sets the week returned for a city
+    * @param city: the city name, not necessarily normalized
+    * @param conditions: the forecast conditions, starting from today (an empty list simulates a city unknown to the provider), possibly a ForecastWeek with hourly forecasts
+    **/
+    public void setForecast(String city, List<String> conditions)
+    {
+        forecasts.put(ForecastKey.normalizeCity(city), (conditions instanceof ForecastWeek) ? (ForecastWeek) conditions : new ForecastWeek(conditions));
+    }
+
+    /**
+    * Sets the time each request takes before returning
+    * @param latency: the simulated latency in milliseconds
+    **/
+    public void setLatency(long latency)
+    {
+        this.latency = latency;
+    }
+
+    /**
+    * Simulates a provider that is down
+    * @param failing: true if all the requests must fail
+    **/
+    public void setFailing(boolean failing)
+    {
+        this.failing = failing;
+    }
+
+    /** Getter
+    * @return the number of requests received
+    */
+    public long getRequests()
+    {
+        return requests.get();
+    }
+
+
+    /***************** PROVIDER METHODS *****************/
+
+    @Override
+    public ForecastWeek requestWeek(String city) throws WeatherProviderException
+    {
+        requests.incrementAndGet();
+
+        // Simulate the latency
+        if(latency>0)
+        {
+            try
+            {
+                Thread.sleep(latency);
+            }
+            catch(InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+                throw new WeatherProviderException("Request interrupted", ex);
+            }
+        }
+        if(failing) throw new WeatherProviderException("Stub weather provider is down");
+
+        // Return the configured week or generate one
+        ForecastWeek conditions = forecasts.get(ForecastKey.normalizeCity(city));
+        if(conditions!=null && conditions.isEmpty()) throw new UnknownCityException("Unknown city: "+city);
+        if(conditions!=null) return conditions;
+        List<String> generated = new ArrayList<>(CalendarManager.FORECAST_DAYS);
+        int seed = Math.abs(ForecastKey.normalizeCity(city).hashCode());
+        for(int i=0; i<CalendarManager.FORECAST_DAYS; i++) generated.add(CONDITIONS.get((seed+i)%CONDITIONS.size()));
+        return new ForecastWeek(generated);
+    }
+}
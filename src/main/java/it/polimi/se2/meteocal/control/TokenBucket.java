@@ -0,0 +1,81 @@
+package it.polimi.se2.meteocal.control;
+
+/**
+* Token bucket that limits the number of operations in a period of time: the bucket holds at most "capacity" tokens, each operation takes one and the tokens are refilled continuously, "capacity" tokens per period
+**/
+public class TokenBucket
+{
+    private final long capacity;
+    private final long period;
+    private double tokens;
+    private long lastRefill;
+
+
+    /***************** CONSTRUCTORS *****************/
+
+    /**
+    * Constructor with the bucket parameters, the bucket starts full
+    * @param capacity: the maximum number of operations in the period
+    * @param period: the period in milliseconds
+    **/
+    public TokenBucket(long capacity, long period)
+    {
+        this.capacity = capacity;
+        this.period = period;
+        this.tokens = capacity;
+        this.lastRefill = System.currentTimeMillis();
+    }
+
+
+    /***************** BUCKET METHODS *****************/
+
+    /**
+    * Checks if a token can be taken leaving at least the given reserve in the bucket
+    * @param reserve: the number of tokens that must remain available after taking one
+    * @return true if a token is available
+    **/
+    public synchronized boolean canAcquire(long reserve)
+    {
+        this.refill();
+        return tokens>=1+reserve;
+    }
+
+    /**
+    * Takes a token, if available, leaving at least the given reserve in the bucket
+    * @param reserve: the number of tokens that must remain available after taking one
+    * @return true if the token has been taken
+    **/
+    public synchronized boolean tryAcquire(long reserve)
+    {
+        if(!this.canAcquire(reserve)) return false;
+        tokens--;
+        return true;
+    }
+
+    /** Getter
+    * @return the number of whole tokens currently available
+    */
+    public synchronized long getAvailableTokens()
+    {
+        this.refill();
+        return (long) tokens;
+    }
+
+    /** Getter
+    * @return the maximum number of tokens
+    */
+    public long getCapacity()
+    {
+        return capacity;
+    }
+
+    /**
+    * Adds the tokens accumulated since the last refill
+    **/
+    private void refill()
+    {
+        long now = System.currentTimeMillis();
+        tokens = Math.min(capacity, tokens+(double) (now-lastRefill)*capacity/period);
+        lastRefill = now;
+    }
+}
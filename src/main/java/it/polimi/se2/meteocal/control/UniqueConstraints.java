@@ -0,0 +1,32 @@
+package it.polimi.se2.meteocal.control;
+
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+
+/**
+* Support methods to recognize the violation of a unique constraint, used by the insert-if-absent writes that run in their own transaction (e.g. the forecasts and the alerts): whatever the wrapping of the container and of the persistence provider, the cause chain ends with the JDBC exception
+**/
+final class UniqueConstraints
+{
+    /** SQL state class of the integrity constraint violations **/
+    private static final String INTEGRITY_VIOLATION_CLASS = "23";
+
+    private UniqueConstraints()
+    {
+    }
+
+    /**
+    * Checks if an exception has been caused by an integrity constraint violation, walking its cause chain
+    * @param ex: the exception thrown by the write (e.g. an EJBException)
+    * @return true if one of the causes is an integrity constraint violation
+    **/
+    static boolean isViolation(Throwable ex)
+    {
+        for(Throwable cause = ex; cause!=null; cause = (cause.getCause()==cause) ? null : cause.getCause())
+        {
+            if(cause instanceof SQLIntegrityConstraintViolationException) return true;
+            if(cause instanceof SQLException && ((SQLException) cause).getSQLState()!=null && ((SQLException) cause).getSQLState().startsWith(INTEGRITY_VIOLATION_CLASS)) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,18 @@
+package it.polimi.se2.meteocal.control;
+
+/**
+* Exception thrown when the weather provider does not know the requested city, so there is no point in asking again soon
+**/
+public class UnknownCityException extends WeatherProviderException
+{
+    private static final long serialVersionUID = 1L;
+
+    /**
+    * Constructor with the error description
+    * @param message: the error description
+    **/
+    public UnknownCityException(String message)
+    {
+        super(message);
+    }
+}
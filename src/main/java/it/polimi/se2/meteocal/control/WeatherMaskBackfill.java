@@ -0,0 +1,38 @@
+package it.polimi.se2.meteocal.control;
+
+import it.polimi.se2.meteocal.entity.Calendar;
+import it.polimi.se2.meteocal.entity.Forecast;
+import java.time.LocalDate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.PostConstruct;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+/**
+* Control class that fills in, at startup, the weather masks of the rows saved before the masks were stored: the bad weather mask of the calendars, computed from their three preferences, and the condition mask of the upcoming forecasts, parsed from their description. The queries and the alerts compare the masks in the database, so a missing mask would silently hide the bad weather. Both updates only touch the rows whose mask is still 0, so after the first run they find nothing to do
+**/
+@Singleton
+@Startup
+public class WeatherMaskBackfill
+{
+    private static final Logger LOGGER = Logger.getLogger(WeatherMaskBackfill.class.getName());
+
+    @PersistenceContext(name = "meteocalPU")
+    EntityManager entityManager;
+
+    /**
+    * Computes the missing masks with two bulk updates
+    **/
+    @PostConstruct
+    void backfill()
+    {
+        int calendars = entityManager.createNamedQuery(Calendar.updateMissingBadWeatherMasks).executeUpdate();
+        int forecasts = entityManager.createNamedQuery(Forecast.updateMissingConditionMasks)
+            .setParameter("today", ForecastKey.toDate(LocalDate.now()))
+            .executeUpdate();
+        if(calendars>0 || forecasts>0) LOGGER.log(Level.INFO, "Weather masks filled in: {0} calendars, {1} forecasts", new Object[]{calendars, forecasts});
+    }
+}
@@ -0,0 +1,23 @@
+package it.polimi.se2.meteocal.control;
+
+/**
+* Interface for the services that provide weather forecasts. Implementations must return within their own timeouts, so that a slow provider cannot block the callers indefinitely
+**/
+public interface WeatherProvider
+{
+    /**
+    * Requests the weekly forecast for the given city
+    * @param city: the city name
+    * @return the list of forecast conditions: today is the element 0, tomorrow 1, etc. (elements may be null if the provider has no condition for that day), with the hourly forecasts if the provider has them
+    * @throws WeatherProviderException if the provider cannot be reached, does not answer in time or returns an invalid response
+    **/
+    ForecastWeek requestWeek(String city) throws WeatherProviderException;
+
+    /**
+    * Forgets what the provider keeps about the last response for a city (e.g. the validators of a conditional request), so that the next request gets the full forecast again. Called when the last forecast could not be saved
+    * @param city: the city name
+    **/
+    default void invalidate(String city)
+    {
+    }
+}
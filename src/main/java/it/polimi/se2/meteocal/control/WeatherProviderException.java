@@ -0,0 +1,28 @@
+package it.polimi.se2.meteocal.control;
+
+/**
+* Exception thrown when a weather provider cannot return a forecast
+**/
+public class WeatherProviderException extends Exception
+{
+    private static final long serialVersionUID = 1L;
+
+    /**
+    * Constructor with the error description
+    * @param message: the error description
+    **/
+    public WeatherProviderException(String message)
+    {
+        super(message);
+    }
+
+    /**
+    * Constructor with the error description and its cause
+    * @param message: the error description
+    * @param cause: the exception that caused the error
+    **/
+    public WeatherProviderException(String message, Throwable cause)
+    {
+        super(message, cause);
+    }
+}
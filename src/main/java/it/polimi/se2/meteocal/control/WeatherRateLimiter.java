@@ -0,0 +1,106 @@
+package it.polimi.se2.meteocal.control;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+* Rate limiter that keeps the weather provider requests within the API quota, with a per-minute and a per-day budget. Background requests cannot use the last part of each budget, which is reserved to the interactive ones
+**/
+public class WeatherRateLimiter
+{
+    /** Default number of requests allowed per minute **/
+    public static final long DEFAULT_PER_MINUTE = 60;
+
+    /** Default number of requests allowed per day **/
+    public static final long DEFAULT_PER_DAY = 5000;
+
+    /** Fraction of each budget reserved to the interactive requests **/
+    public static final double INTERACTIVE_RESERVE = 0.2;
+
+    private final TokenBucket minuteBucket;
+    private final TokenBucket dayBucket;
+
+    private final AtomicLong deniedInteractive = new AtomicLong();
+    private final AtomicLong deniedBackground = new AtomicLong();
+
+
+    /***************** CONSTRUCTORS *****************/
+
+    /**
+    * Constructor with the two budgets
+    * @param perMinute: the number of requests allowed per minute
+    * @param perDay: the number of requests allowed per day
+    **/
+    public WeatherRateLimiter(long perMinute, long perDay)
+    {
+        this.minuteBucket = new TokenBucket(perMinute, TimeUnit.MINUTES.toMillis(1));
+        this.dayBucket = new TokenBucket(perDay, TimeUnit.DAYS.toMillis(1));
+    }
+
+    /**
+    * Creates a limiter reading the budgets from the system properties "meteocal.weather.quota.minute" and "meteocal.weather.quota.day", using the defaults for the missing ones
+    * @return the configured limiter
+    **/
+    public static WeatherRateLimiter fromSystemProperties()
+    {
+        return new WeatherRateLimiter(Long.getLong("meteocal.weather.quota.minute", DEFAULT_PER_MINUTE), Long.getLong("meteocal.weather.quota.day", DEFAULT_PER_DAY));
+    }
+
+
+    /***************** LIMITER METHODS *****************/
+
+    /**
+    * Takes a request from both budgets, if available for the given priority
+    * @param priority: the priority of the request
+    * @return true if the request can be sent, false if it must be served from the cache or deferred
+    **/
+    public synchronized boolean tryAcquire(ForecastPriority priority)
+    {
+        long minuteReserve = this.getReserve(minuteBucket, priority);
+        long dayReserve = this.getReserve(dayBucket, priority);
+
+        // Take the token only if both budgets allow it
+        if(minuteBucket.canAcquire(minuteReserve) && dayBucket.canAcquire(dayReserve))
+        {
+            minuteBucket.tryAcquire(minuteReserve);
+            dayBucket.tryAcquire(dayReserve);
+            return true;
+        }
+        if(priority==ForecastPriority.INTERACTIVE) deniedInteractive.incrementAndGet();
+        else deniedBackground.incrementAndGet();
+        return false;
+    }
+
+    /** Getter
+    * @return the number of requests still available today
+    */
+    public long getAvailableToday()
+    {
+        return dayBucket.getAvailableTokens();
+    }
+
+    /** Getter
+    * @return the number of interactive requests denied
+    */
+    public long getDeniedInteractive()
+    {
+        return deniedInteractive.get();
+    }
+
+    /** Getter
+    * @return the number of background requests denied
+    */
+    public long getDeniedBackground()
+    {
+        return deniedBackground.get();
+    }
+
+    /**
+    * Gets the number of tokens that a request with the given priority must leave in the bucket
+    **/
+    private long getReserve(TokenBucket bucket, ForecastPriority priority)
+    {
+        if(priority==ForecastPriority.INTERACTIVE) return 0;
+        return (long) Math.ceil(bucket.getCapacity()*INTERACTIVE_RESERVE);
+    }
+}
@@ -7,9 +7,12 @@ import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import static javax.persistence.GenerationType.AUTO;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.JoinColumn;
 import javax.persistence.JoinTable;
 import javax.persistence.ManyToMany;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
 import javax.persistence.OneToOne;
 import javax.persistence.SequenceGenerator;
 import javax.validation.constraints.NotNull;
@@ -18,10 +21,25 @@ import javax.validation.constraints.NotNull;
 * Entity class for a generic calendar
 **/
 @Entity
+@NamedQueries
+({
+    @NamedQuery(name = Calendar.findBadWeatherMaskCounts, query = "SELECT c.badWeatherMask, COUNT(c) FROM Calendar c WHERE c.owner.id IN :users GROUP BY c.badWeatherMask"),
+    @NamedQuery(name = Calendar.findOutdoorEventsByDay, query = "SELECT e, f FROM Calendar c JOIN c.events e LEFT JOIN e.forecast f WHERE c.id = :calendarId AND e.outdoor = true AND e.eventDay = :date"),
+    @NamedQuery(name = Calendar.updateMissingBadWeatherMasks, query = "UPDATE Calendar c SET c.badWeatherMask = (CASE WHEN c.cloudyIsBad = TRUE THEN 1 ELSE 0 END) + (CASE WHEN c.rainIsBad = TRUE THEN 2 ELSE 0 END) + (CASE WHEN c.snowIsBad = TRUE THEN 4 ELSE 0 END) WHERE c.badWeatherMask = 0 AND (c.cloudyIsBad = TRUE OR c.rainIsBad = TRUE OR c.snowIsBad = TRUE)")
+})
 public class Calendar implements Serializable
 {
     private static final long serialVersionUID = 1L;
     
+    /** Identifier of the named query that counts the calendars of the given users for each bad weather mask **/
+    public static final String findBadWeatherMaskCounts = "Calendar.findBadWeatherMaskCounts";
+    
+    /** Identifier of the named query that gets the outdoor events of a calendar on a day, with their forecasts **/
+    public static final String findOutdoorEventsByDay = "Calendar.findOutdoorEventsByDay";
+    
+    /** Identifier of the named query that computes the bad weather mask of the calendars saved before it existed, with the bits of WeatherCondition **/
+    public static final String updateMissingBadWeatherMasks = "Calendar.updateMissingBadWeatherMasks";
+    
     @Id
     @SequenceGenerator(name="CAL_SEQ", initialValue=1, allocationSize=100)
     @GeneratedValue(strategy=GenerationType.SEQUENCE, generator="CAL_SEQ")
@@ -40,13 +58,17 @@ public class Calendar implements Serializable
         
     @NotNull
     private boolean snowIsBad;
+    
+    @NotNull
+    private int badWeatherMask;
 
     @ManyToMany
     @JoinTable
     (
         name = "Calendar_has_Events",
         joinColumns = {@JoinColumn(name = "calendarId", nullable = false, updatable = false)}, 
-        inverseJoinColumns = {@JoinColumn(name = "eventId", nullable = false, updatable = false)}
+        inverseJoinColumns = {@JoinColumn(name = "eventId", nullable = false, updatable = false)},
+        indexes = {@Index(name = "Calendar_has_Events_calendar", columnList = "calendarId, eventId"), @Index(name = "Calendar_has_Events_event", columnList = "eventId, calendarId")}
     )
     private Set<Event> events;
     
@@ -107,6 +129,7 @@ public class Calendar implements Serializable
     public void setRainIsBad(boolean rainIsBad)
     {
         this.rainIsBad = rainIsBad;
+        this.updateBadWeatherMask();
     }
     
     /** Getter
@@ -123,6 +146,7 @@ public class Calendar implements Serializable
     public void setCloudyIsBad(boolean cloudyIsBad)
     {
         this.cloudyIsBad = cloudyIsBad;
+        this.updateBadWeatherMask();
     }
     
     /** Getter
@@ -139,6 +163,23 @@ public class Calendar implements Serializable
     public void setSnowIsBad(boolean snowIsBad)
     {
         this.snowIsBad = snowIsBad;
+        this.updateBadWeatherMask();
+    }
+    
+    /** Getter
+    * @return the mask of the weather conditions (see WeatherCondition) that the user considers bad weather
+    */    
+    public int getBadWeatherMask()
+    {
+        return badWeatherMask;
+    }
+    
+    /**
+    * Updates the bad weather mask with the current preferences
+    **/
+    private void updateBadWeatherMask()
+    {
+        this.badWeatherMask = WeatherCondition.mask(cloudyIsBad, rainIsBad, snowIsBad);
     }
     
     /** Getter for the many-to-many relationship calendar-event
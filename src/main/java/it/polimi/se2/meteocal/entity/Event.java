@@ -33,8 +33,18 @@ import org.hibernate.validator.constraints.NotEmpty;
 @NamedQueries
 ({
     @NamedQuery(name = Event.findById, query = "SELECT e FROM Event e WHERE e.id = :id"),
-    @NamedQuery(name = Event.findByDate, query = "SELECT DISTINCT e FROM Event e, Calendar c, User u WHERE e.eventDay = :date AND c.owner = :user AND c MEMBER OF e.calendars ORDER BY e.startTime ASC"),
-    @NamedQuery(name = Event.findEventsForBadWeatherAlert, query = "SELECT DISTINCT e FROM Event e, Calendar c, User u WHERE e.eventDay = :date AND c.owner = :user AND c MEMBER OF e.calendars AND e.outdoor = true AND e.badWeatherAlertSent = false")
+    @NamedQuery(name = Event.findByDate, query = "SELECT DISTINCT e FROM Event e LEFT JOIN FETCH e.forecast, Calendar c, User u WHERE e.eventDay = :date AND c.owner = :user AND c MEMBER OF e.calendars ORDER BY e.startTime ASC"),
+    @NamedQuery(name = Event.findEventsForBadWeatherAlert, query = "SELECT DISTINCT e FROM Event e LEFT JOIN FETCH e.forecast, Calendar c, User u WHERE e.eventDay = :date AND c.owner = :user AND c MEMBER OF e.calendars AND e.outdoor = true AND e.badWeatherAlertSent = false"),
+    @NamedQuery(name = Event.updateForecast, query = "UPDATE Event e SET e.forecast = :forecast WHERE e.id = :id"),
+    @NamedQuery(name = Event.findUpcomingSubscriptions, query = "SELECT e.id, e.locationKey, e.city, e.eventDay, e.outdoor, COUNT(c) FROM Event e LEFT JOIN e.calendars c WHERE e.eventDay >= :today AND e.eventDay <= :lastDay GROUP BY e.id, e.locationKey, e.city, e.eventDay, e.outdoor"),
+    @NamedQuery(name = Event.linkForecastByLocationAndDay, query = "UPDATE Event e SET e.forecast = :forecast WHERE e.locationKey = :location AND e.eventDay = :day AND e.forecast IS NULL"),
+    @NamedQuery(name = Event.findForecastChangeRecipients, query = "SELECT e, c FROM Event e JOIN e.calendars c WHERE e.forecast = :forecast AND e.outdoor = true AND c.badWeatherMask IN :calendarMasks ORDER BY e.id"),
+    @NamedQuery(name = Event.findCitiesWithoutLocation, query = "SELECT DISTINCT e.city FROM Event e WHERE e.locationKey IS NULL"),
+    @NamedQuery(name = Event.updateLocationByCity, query = "UPDATE Event e SET e.locationKey = :location WHERE e.city = :city AND e.locationKey IS NULL"),
+    @NamedQuery(name = Event.findPendingBadWeatherAlertLocations, query = "SELECT DISTINCT e.locationKey FROM Event e WHERE e.eventDay = :date AND e.outdoor = true AND e.badWeatherAlertSent = false AND e.forecast IS NOT NULL AND e.locationKey IS NOT NULL"),
+    @NamedQuery(name = Event.findPendingBadWeatherAlertIds, query = "SELECT e.id FROM Event e WHERE e.locationKey = :location AND e.eventDay = :date AND e.outdoor = true AND e.badWeatherAlertSent = false AND e.forecast IS NOT NULL AND e.id > :lastId ORDER BY e.id"),
+    @NamedQuery(name = Event.findPendingBadWeatherAlerts, query = "SELECT e, c.badWeatherMask, c.owner FROM Event e JOIN e.calendars c WHERE e.id IN :events ORDER BY e.id"),
+    @NamedQuery(name = Event.updateBadWeatherAlertSent, query = "UPDATE Event e SET e.badWeatherAlertSent = true WHERE e.id IN :events")
 })
 public class Event implements Serializable
 {
@@ -48,6 +58,36 @@ public class Event implements Serializable
     
     /** Identifier of the named query that gets the events for the bad weather alerts **/
     public static final String findEventsForBadWeatherAlert = "Event.findEventsForBadWeatherAlert";
+    
+    /** Identifier of the named query that links an event to its weather forecast **/
+    public static final String updateForecast = "Event.updateForecast";
+    
+    /** Identifier of the named query that gets, for each event in the given period, its location, day, outdoor flag and number of attendees **/
+    public static final String findUpcomingSubscriptions = "Event.findUpcomingSubscriptions";
+    
+    /** Identifier of the named query that links all the events in a location and day, not linked yet, to their weather forecast **/
+    public static final String linkForecastByLocationAndDay = "Event.linkForecastByLocationAndDay";
+    
+    /** Identifier of the named query that gets the (outdoor event, calendar) pairs linked to a forecast, for the given calendar masks **/
+    public static final String findForecastChangeRecipients = "Event.findForecastChangeRecipients";
+    
+    /** Identifier of the named query that gets the cities of the events without a location key (e.g. saved before the keys were introduced) **/
+    public static final String findCitiesWithoutLocation = "Event.findCitiesWithoutLocation";
+    
+    /** Identifier of the named query that sets the location key of all the events in a city without one **/
+    public static final String updateLocationByCity = "Event.updateLocationByCity";
+    
+    /** Identifier of the named query that gets the locations of the outdoor events on a day with a forecast and no bad weather alert sent yet **/
+    public static final String findPendingBadWeatherAlertLocations = "Event.findPendingBadWeatherAlertLocations";
+    
+    /** Identifier of the named query that gets, in order, the IDs of the outdoor events in a location on a day with a forecast and no bad weather alert sent yet, after a given ID **/
+    public static final String findPendingBadWeatherAlertIds = "Event.findPendingBadWeatherAlertIds";
+    
+    /** Identifier of the named query that gets the given events with the preferences and owner of each of their calendars (events in no calendar are not returned) **/
+    public static final String findPendingBadWeatherAlerts = "Event.findPendingBadWeatherAlerts";
+    
+    /** Identifier of the named query that marks the bad weather alerts of the given events as sent **/
+    public static final String updateBadWeatherAlertSent = "Event.updateBadWeatherAlertSent";
 
     @Id
     @SequenceGenerator(name="EVENT_SEQ", initialValue=1, allocationSize=100)
@@ -62,6 +102,8 @@ public class Event implements Serializable
     @Size(min=3, message="The city must be at least 3 characters long")
     private String city;
     
+    private String locationKey;
+    
     private String locationDetails;
 
     @NotNull
@@ -79,7 +121,9 @@ public class Event implements Serializable
     @Temporal(TemporalType.TIME)
     private Date endTime;
     
-    private String weatherForecast;
+    @ManyToOne
+    @JoinColumn(name="forecastId")
+    private Forecast forecast;
     
     @NotNull
     private boolean badWeatherAlertSent = false;
@@ -155,6 +199,22 @@ public class Event implements Serializable
         this.city = city;
     }
     
+    /** Getter
+    * @return the canonical location key of the city, shared by the events that use the same forecast
+    */   
+    public String getLocationKey()
+    {
+        return locationKey;
+    }
+
+    /** Setter
+    * @param locationKey: the new canonical location key of the city
+    */  
+    public void setLocationKey(String locationKey)
+    {
+        this.locationKey = locationKey;
+    }
+    
     /** Getter
     * @return the details of the location of this event (e.g. street name, building, etc.)
     */   
@@ -275,20 +335,36 @@ public class Event implements Serializable
         this.endTime = end;
     }
     
-    /** Getter
-    * @return the weather forecast for this event
+    /** Getter for the many-to-one relationship event-forecast
+    * @return the weather forecast shared by all events in the same city and day, possibly null
     */    
-    public String getWeatherForecast()
+    public Forecast getForecast()
     {
-        return this.weatherForecast;
+        return this.forecast;
     }
     
-    /** Setter
-    * @param weatherForecast: the new event weather forecast
+    /** Setter for the many-to-one relationship event-forecast
+    * @param forecast: the new weather forecast for this event
     */      
-    public void setWeatherForecast(String weatherForecast)
+    public void setForecast(Forecast forecast)
+    {
+        this.forecast = forecast;
+    }
+    
+    /** Getter for the weather forecast description
+    * @return the weather forecast condition for this event, null if there is no forecast
+    */    
+    public String getWeatherForecast()
+    {
+        return (forecast==null) ? null : forecast.getCondition();
+    }
+    
+    /** Getter for the weather forecast conditions
+    * @return the mask of the weather conditions (see WeatherCondition) for this event, 0 if there is no forecast
+    */    
+    public int getWeatherConditionMask()
     {
-        this.weatherForecast = weatherForecast;
+        return (forecast==null) ? 0 : forecast.getConditionMask();
     }
     
     /** Getter
@@ -0,0 +1,174 @@
+package it.polimi.se2.meteocal.entity;
+
+import java.io.Serializable;
+import java.util.Date;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.persistence.SequenceGenerator;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+import javax.persistence.UniqueConstraint;
+import javax.validation.constraints.NotNull;
+import org.hibernate.validator.constraints.NotEmpty;
+
+/**
+* Entity class for the weather forecast of a location on a specific day, shared by all the events that take place there. The "city" is the canonical location key, so the same forecast is shared by the aliases of a city and by the nearby towns
+**/
+@Entity
+@NamedQueries
+({
+    @NamedQuery(name = Forecast.findByCityAndDay, query = "SELECT f FROM Forecast f WHERE f.city = :city AND f.forecastDay = :day"),
+    @NamedQuery(name = Forecast.updateMissingConditionMasks, query = "UPDATE Forecast f SET f.conditionMask = (CASE WHEN LOWER(f.weatherCondition) LIKE '%cloud%' THEN 1 ELSE 0 END) + (CASE WHEN LOWER(f.weatherCondition) LIKE '%rain%' THEN 2 ELSE 0 END) + (CASE WHEN LOWER(f.weatherCondition) LIKE '%snow%' THEN 4 ELSE 0 END) WHERE f.conditionMask = 0 AND f.forecastDay >= :today")
+})
+@Table(uniqueConstraints = @UniqueConstraint(columnNames = {"city", "forecastDay"}))
+public class Forecast implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    /** Identifier of the named query that gets the forecast of a city on a specific day **/
+    public static final String findByCityAndDay = "Forecast.findByCityAndDay";
+
+    /** Identifier of the named query that computes the condition mask of the upcoming forecasts saved before it existed, with the keywords and bits of WeatherCondition **/
+    public static final String updateMissingConditionMasks = "Forecast.updateMissingConditionMasks";
+
+    @Id
+    @SequenceGenerator(name="FORECAST_SEQ", initialValue=1, allocationSize=100)
+    @GeneratedValue(strategy=GenerationType.SEQUENCE, generator="FORECAST_SEQ")
+    private Long id;
+
+    @NotEmpty
+    private String city;
+
+    @NotNull
+    @Temporal(TemporalType.DATE)
+    private Date forecastDay;
+
+    @NotEmpty
+    private String weatherCondition;
+
+    @NotNull
+    private int conditionMask;
+
+    @NotNull
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date fetchedAt;
+
+
+    /***************** CONSTRUCTORS *****************/
+
+    /** Empty constructor **/
+    public Forecast()
+    {
+    }
+
+    /** Constructor taking as parameters the basic data about the forecast. The fetch date is initialized as the current one.
+    * @param city: the canonical location key
+    * @param day: the day the forecast refers to
+    * @param condition: the weather condition description
+    **/
+    public Forecast(String city, Date day, String condition)
+    {
+        this.city = city;
+        this.forecastDay = day;
+        this.weatherCondition = condition;
+        this.conditionMask = WeatherCondition.parse(condition);
+        this.fetchedAt = new Date();
+    }
+
+
+    /***************** GETTERS AND SETTERS *****************/
+
+    /** Getter
+    * @return forecast id
+    */
+    public Long getId()
+    {
+        return id;
+    }
+
+    /** Setter
+    * @param id: the new forecast id
+    */
+    public void setId(Long id)
+    {
+        this.id = id;
+    }
+
+    /** Getter
+    * @return the canonical location key the forecast refers to
+    */
+    public String getCity()
+    {
+        return city;
+    }
+
+    /** Setter
+    * @param city: the new canonical location key the forecast refers to
+    */
+    public void setCity(String city)
+    {
+        this.city = city;
+    }
+
+    /** Getter
+    * @return the day the forecast refers to
+    */
+    public Date getDay()
+    {
+        return forecastDay;
+    }
+
+    /** Setter
+    * @param day: the new day the forecast refers to
+    */
+    public void setDay(Date day)
+    {
+        this.forecastDay = day;
+    }
+
+    /** Getter
+    * @return the weather condition description (e.g. "Sunny")
+    */
+    public String getCondition()
+    {
+        return weatherCondition;
+    }
+
+    /** Setter, that also updates the condition mask
+    * @param condition: the new weather condition description
+    */
+    public void setCondition(String condition)
+    {
+        this.weatherCondition = condition;
+        this.conditionMask = WeatherCondition.parse(condition);
+    }
+
+    /** Getter
+    * @return the mask of the weather conditions (see WeatherCondition) parsed from the description
+    */
+    public int getConditionMask()
+    {
+        return conditionMask;
+    }
+
+    /** Getter
+    * @return the moment in which the forecast has been received from the provider
+    */
+    public Date getFetchedAt()
+    {
+        return fetchedAt;
+    }
+
+    /** Setter
+    * @param fetchedAt: the new moment in which the forecast has been received from the provider
+    */
+    public void setFetchedAt(Date fetchedAt)
+    {
+        this.fetchedAt = fetchedAt;
+    }
+}
@@ -13,8 +13,10 @@ import javax.persistence.ManyToOne;
 import javax.persistence.NamedQueries;
 import javax.persistence.NamedQuery;
 import javax.persistence.SequenceGenerator;
+import javax.persistence.Table;
 import javax.persistence.Temporal;
 import javax.persistence.TemporalType;
+import javax.persistence.UniqueConstraint;
 import javax.validation.constraints.NotNull;
 import org.hibernate.validator.constraints.NotEmpty;
 
@@ -25,8 +27,10 @@ import org.hibernate.validator.constraints.NotEmpty;
 @NamedQueries
 ({
     @NamedQuery(name = Notification.findUnreadNotifications, query = "SELECT n FROM Notification n WHERE n.isRead = false AND n.receiver.id = :receiverId ORDER BY n.sendDate DESC"),
-    @NamedQuery(name = Notification.findById, query = "SELECT n FROM Notification n WHERE n.id = :notificationId")
+    @NamedQuery(name = Notification.findById, query = "SELECT n FROM Notification n WHERE n.id = :notificationId"),
+    @NamedQuery(name = Notification.findExistingAlertKeys, query = "SELECT n.alertKey FROM Notification n WHERE n.alertKey IN :alertKeys")
 })
+@Table(uniqueConstraints = @UniqueConstraint(columnNames = {"alertKey"}))
 public class Notification implements Serializable
 {
     private static final long serialVersionUID = 1L;
@@ -37,6 +41,12 @@ public class Notification implements Serializable
     /** Identifier of the named query **/
     public static final String findById = "Notification.findById";
     
+    /** Identifier of the named query that gets which of the given alert keys have already been used **/
+    public static final String findExistingAlertKeys = "Notification.findExistingAlertKeys";
+    
+    /** Alert type of the bad weather alerts sent the day before an outdoor event **/
+    public static final String BAD_WEATHER_ALERT = "BAD_WEATHER";
+    
     @Id
     @SequenceGenerator(name="NOT_SEQ", initialValue=1, allocationSize=100)
     @GeneratedValue(strategy=GenerationType.SEQUENCE, generator="NOT_SEQ")
@@ -58,6 +68,8 @@ public class Notification implements Serializable
     @NotNull
     private boolean isRead;
     
+    private String alertKey;
+    
     @NotNull
     @ManyToOne
     @JoinColumn(name="eventId", nullable=false, updatable=false)
@@ -91,6 +103,20 @@ public class Notification implements Serializable
         this.invitation = invitation;
     }
     
+    /**
+    * Creates the key that identifies an automatic alert, so that the same alert cannot be sent twice
+    * @param alertType: the type of alert (e.g. BAD_WEATHER_ALERT)
+    * @param event: the event of the alert
+    * @param receiver: the user that receives the alert
+    * @param day: the day the alert refers to
+    * @return the alert key
+    **/
+    public static String createAlertKey(String alertType, Event event, User receiver, Date day)
+    {
+        return alertType+":"+event.getId()+":"+receiver.getId()+":"+new SimpleDateFormat("yyyy-MM-dd").format(day);
+    }
+    
+    
     /***************** GETTERS AND SETTERS *****************/
     
     /** Getter
@@ -229,4 +255,20 @@ public class Notification implements Serializable
     {
         this.receiver = receiver;
     }
+    
+    /** Getter
+    * @return the key of the automatic alert, null if the notification is not an alert
+    */
+    public String getAlertKey()
+    {
+        return alertKey;
+    }
+    
+    /** Setter
+    * @param alertKey: the new key of the automatic alert (see createAlertKey)
+    */
+    public void setAlertKey(String alertKey)
+    {
+        this.alertKey = alertKey;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,143 @@
+package it.polimi.se2.meteocal.entity;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+* Weather conditions that a user can consider bad, each one with its own bit: a forecast description is parsed once into a mask of its conditions, a calendar exposes the conditions its owner does not like as a mask of the same kind, and the bad weather check is a single AND between the two
+**/
+public enum WeatherCondition
+{
+    /** Cloudy sky **/
+    CLOUDY(1, "cloud"),
+
+    /** Rain **/
+    RAIN(2, "rain"),
+
+    /** Snow **/
+    SNOW(4, "snow");
+
+    /** Mask with all the conditions **/
+    public static final int ALL = CLOUDY.bit | RAIN.bit | SNOW.bit;
+
+    private static final WeatherCondition[] VALUES = values();
+
+    private final int bit;
+    private final String keyword;
+
+    private WeatherCondition(int bit, String keyword)
+    {
+        this.bit = bit;
+        this.keyword = keyword;
+    }
+
+    /** Getter
+    * @return the bit of this condition in the masks
+    */
+    public int getBit()
+    {
+        return bit;
+    }
+
+    /**
+    * Parses a forecast description into the mask of its conditions (e.g. "Light rain and clouds" is CLOUDY|RAIN)
+    * @param description: the forecast description, possibly null
+    * @return the mask of the conditions found in the description, 0 if none
+    **/
+    public static int parse(CharSequence description)
+    {
+        if(description==null) return 0;
+        int mask = 0;
+        for(WeatherCondition condition : VALUES)
+        {
+            if(containsIgnoreCase(description, condition.keyword)) mask |= condition.bit;
+        }
+        return mask;
+    }
+
+    /**
+    * Describes a mask of conditions, for the forecasts known only by their conditions (e.g. the hours of an event)
+    * @param mask: the mask of the conditions
+    * @return the conditions in the mask (e.g. "Cloudy, rain"), or "Clear" if none
+    **/
+    public static String describe(int mask)
+    {
+        StringBuilder description = new StringBuilder();
+        for(WeatherCondition condition : VALUES)
+        {
+            if(!isBad(mask, condition.bit)) continue;
+            description.append((description.length()==0) ? condition.name().charAt(0)+condition.name().substring(1).toLowerCase() : ", "+condition.name().toLowerCase());
+        }
+        return (description.length()==0) ? "Clear" : description.toString();
+    }
+
+    /**
+    * Lists all the calendar masks for which a forecast change crosses the bad weather preferences, i.e. the forecast was bad weather and now is not, or vice versa
+    * @param previousMask: the mask of the previous forecast conditions
+    * @param newMask: the mask of the new forecast conditions
+    * @return the calendar masks affected by the change, empty if the change is not relevant for anyone
+    **/
+    public static List<Integer> getCrossingMasks(int previousMask, int newMask)
+    {
+        List<Integer> masks = new ArrayList<>();
+        if(previousMask==newMask) return Collections.unmodifiableList(masks);
+        for(int mask=1; mask<=ALL; mask++)
+        {
+            if(isBad(previousMask, mask)!=isBad(newMask, mask)) masks.add(mask);
+        }
+        return Collections.unmodifiableList(masks);
+    }
+
+    /**
+    * Checks if a text contains a lower case keyword, ignoring the case of the text, without copying it (the descriptions are parsed while reading the provider responses)
+    **/
+    private static boolean containsIgnoreCase(CharSequence text, String keyword)
+    {
+        for(int start=0; start<=text.length()-keyword.length(); start++)
+        {
+            int i = 0;
+            while(i<keyword.length() && Character.toLowerCase(text.charAt(start+i))==keyword.charAt(i)) i++;
+            if(i==keyword.length()) return true;
+        }
+        return false;
+    }
+
+    /**
+    * Builds the mask of the conditions a user does not like
+    * @param cloudyIsBad: true if cloudy is bad weather
+    * @param rainIsBad: true if rain is bad weather
+    * @param snowIsBad: true if snow is bad weather
+    * @return the mask of the bad conditions
+    **/
+    public static int mask(boolean cloudyIsBad, boolean rainIsBad, boolean snowIsBad)
+    {
+        return (cloudyIsBad ? CLOUDY.bit : 0) | (rainIsBad ? RAIN.bit : 0) | (snowIsBad ? SNOW.bit : 0);
+    }
+
+    /**
+    * Checks if a forecast is bad weather for a user
+    * @param conditionMask: the mask of the forecast conditions
+    * @param badWeatherMask: the mask of the conditions the user does not like
+    * @return true if the forecast has at least one of the bad conditions
+    **/
+    public static boolean isBad(int conditionMask, int badWeatherMask)
+    {
+        return (conditionMask & badWeatherMask)!=0;
+    }
+
+    /**
+    * Lists all the condition masks that are bad weather for the given calendar mask, so that the check can be written in a query as "conditionMask IN :masks" (JPQL has no bitwise operators)
+    * @param badWeatherMask: the mask of the conditions the user does not like
+    * @return the condition masks that intersect the given one, empty if the mask is 0
+    **/
+    public static List<Integer> getIntersectingMasks(int badWeatherMask)
+    {
+        List<Integer> masks = new ArrayList<>();
+        for(int mask=1; mask<=ALL; mask++)
+        {
+            if(isBad(mask, badWeatherMask)) masks.add(mask);
+        }
+        return Collections.unmodifiableList(masks);
+    }
+}
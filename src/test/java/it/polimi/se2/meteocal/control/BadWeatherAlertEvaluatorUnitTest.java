@@ -0,0 +1,108 @@
+package it.polimi.se2.meteocal.control;
+
+import it.polimi.se2.meteocal.entity.Calendar;
+import it.polimi.se2.meteocal.entity.Event;
+import it.polimi.se2.meteocal.entity.Forecast;
+import it.polimi.se2.meteocal.entity.Notification;
+import it.polimi.se2.meteocal.entity.User;
+import it.polimi.se2.meteocal.entity.WeatherCondition;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import javax.persistence.TypedQuery;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class BadWeatherAlertEvaluatorUnitTest
+{
+    private BadWeatherAlertEvaluator evaluator;
+    private TypedQuery<Long> idQuery;
+    private TypedQuery<Object[]> rowQuery;
+    private Query updateQuery;
+    private final Date day = new Date();
+
+    @Before
+    public void setUp()
+    {
+        evaluator = new BadWeatherAlertEvaluator();
+        evaluator.entityManager = mock(EntityManager.class);
+        evaluator.calendarManager = mock(CalendarManager.class);
+        evaluator.notificationManager = mock(NotificationManager.class);
+        idQuery = mock(TypedQuery.class);
+        rowQuery = mock(TypedQuery.class);
+        updateQuery = mock(Query.class);
+        when(idQuery.setParameter(anyString(), anyObject())).thenReturn(idQuery);
+        when(idQuery.setMaxResults(anyInt())).thenReturn(idQuery);
+        when(rowQuery.setParameter(anyString(), anyObject())).thenReturn(rowQuery);
+        when(updateQuery.setParameter(anyString(), anyObject())).thenReturn(updateQuery);
+        when(evaluator.entityManager.createNamedQuery(Event.findPendingBadWeatherAlertIds, Long.class)).thenReturn(idQuery);
+        when(evaluator.entityManager.createNamedQuery(Event.findPendingBadWeatherAlerts, Object[].class)).thenReturn(rowQuery);
+        when(evaluator.entityManager.createNamedQuery(Event.updateBadWeatherAlertSent)).thenReturn(updateQuery);
+        when(evaluator.calendarManager.getEventConditionMask(any(Event.class))).thenReturn(WeatherCondition.RAIN.getBit());
+    }
+
+    @After
+    public void tearDown()
+    {
+    }
+
+    @Test
+    public void testEventsWithoutCalendars()
+    {
+        // The second event is in no calendar: nobody is alerted, but it's marked anyway
+        User owner = new User("CorrectFirstName", "CorrectLastName", "correct@email.com", "correctpassword");
+        owner.setId((long) 1);
+        Event event = this.createEvent(1);
+        when(idQuery.getResultList()).thenReturn(Arrays.asList(1L, 2L));
+        List<Object[]> rows = new ArrayList<>();
+        rows.add(new Object[]{event, WeatherCondition.RAIN.getBit(), owner});
+        when(rowQuery.getResultList()).thenReturn(rows);
+        Notification alert = new Notification("Bad weather tomorrow!", "", false);
+        when(evaluator.notificationManager.createBadWeatherAlert(owner, event)).thenReturn(alert);
+        when(evaluator.notificationManager.sendAlerts(Arrays.asList(alert))).thenReturn(1);
+        assertEquals(1, evaluator.evaluatePartition("milano", day));
+        verify(updateQuery, times(1)).setParameter("events", Arrays.asList(1L, 2L));
+        verify(updateQuery, times(1)).executeUpdate();
+    }
+
+    @Test
+    public void testPages()
+    {
+        // A full page, then a partial one: each page is read after the last ID of the previous one
+        List<Long> firstPage = new ArrayList<>();
+        for(long id=1; id<=BadWeatherAlertEvaluator.PAGE_SIZE; id++) firstPage.add(id);
+        List<Long> secondPage = Arrays.asList((long) BadWeatherAlertEvaluator.PAGE_SIZE+1);
+        when(idQuery.getResultList()).thenReturn(firstPage, secondPage);
+        when(rowQuery.getResultList()).thenReturn(Collections.<Object[]>emptyList());
+        evaluator.evaluatePartition("milano", day);
+        verify(idQuery, times(2)).setMaxResults(BadWeatherAlertEvaluator.PAGE_SIZE);
+        verify(idQuery, times(1)).setParameter("lastId", 0L);
+        verify(idQuery, times(1)).setParameter("lastId", (long) BadWeatherAlertEvaluator.PAGE_SIZE);
+        verify(rowQuery, times(1)).setParameter("events", firstPage);
+        verify(rowQuery, times(1)).setParameter("events", secondPage);
+        verify(updateQuery, times(2)).executeUpdate();
+
+        // The evaluated events are released after each page
+        verify(evaluator.entityManager, times(2)).clear();
+    }
+
+    private Event createEvent(long id)
+    {
+        Event event = new Event();
+        event.setId(id);
+        event.setCity("Milano");
+        event.setLocationKey("milano");
+        event.setDay(day);
+        event.setOutdoor(true);
+        event.setCalendars(Collections.singleton(new Calendar()));
+        event.setForecast(new Forecast("milano", day, "Rain"));
+        return event;
+    }
+}
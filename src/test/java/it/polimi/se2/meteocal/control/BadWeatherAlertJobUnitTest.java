@@ -0,0 +1,53 @@
+package it.polimi.se2.meteocal.control;
+
+import it.polimi.se2.meteocal.entity.Event;
+import java.util.Arrays;
+import java.util.Date;
+import javax.ejb.AsyncResult;
+import javax.ejb.TimerConfig;
+import javax.ejb.TimerService;
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class BadWeatherAlertJobUnitTest
+{
+    private BadWeatherAlertJob job;
+
+    @Before
+    public void setUp()
+    {
+        job = new BadWeatherAlertJob();
+        job.entityManager = mock(EntityManager.class);
+        job.badWeatherAlertEvaluator = mock(BadWeatherAlertEvaluator.class);
+        job.timerService = mock(TimerService.class);
+        TypedQuery<String> query = mock(TypedQuery.class);
+        when(query.setParameter(anyString(), anyObject())).thenReturn(query);
+        when(query.getResultList()).thenReturn(Arrays.asList("milano", "roma"));
+        when(job.entityManager.createNamedQuery(Event.findPendingBadWeatherAlertLocations, String.class)).thenReturn(query);
+        when(job.badWeatherAlertEvaluator.evaluate(anyString(), any(Date.class))).thenReturn(new AsyncResult<>(2));
+    }
+
+    @After
+    public void tearDown()
+    {
+    }
+
+    @Test
+    public void testStartupRun()
+    {
+        // A single run is scheduled at the start, without waiting for the first refresh
+        job.scheduleStartupRun();
+        verify(job.timerService, times(1)).createSingleActionTimer(eq(BadWeatherAlertJob.STARTUP_DELAY), any(TimerConfig.class));
+
+        // It evaluates every pending location
+        job.startupRun();
+        verify(job.badWeatherAlertEvaluator, times(1)).evaluate(eq("milano"), any(Date.class));
+        verify(job.badWeatherAlertEvaluator, times(1)).evaluate(eq("roma"), any(Date.class));
+        assertEquals(4, job.sendAlerts());
+    }
+}
@@ -0,0 +1,100 @@
+package it.polimi.se2.meteocal.control;
+
+import it.polimi.se2.meteocal.entity.WeatherCondition;
+import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class BestDayFinderUnitTest
+{
+    private BestDayFinder bestDayFinder;
+    private LocalDate today;
+    private Map<Integer, Long> preferences;
+
+    @Before
+    public void setUp()
+    {
+        bestDayFinder = new BestDayFinder();
+        bestDayFinder.forecastCache = new ForecastCache();
+        bestDayFinder.hourlyForecastStore = new HourlyForecastStore();
+        bestDayFinder.locationIndex = new LocationIndex();
+        bestDayFinder.locationIndex.initialize();
+        today = LocalDate.now();
+
+        // Rain today, clouds tomorrow, then sunny for 3 days, the last 2 days unknown
+        String location = bestDayFinder.locationIndex.resolve("Milano").getKey();
+        bestDayFinder.forecastCache.putAll(location, today, Arrays.asList("Rain", "Cloudy", "Sunny", "Sunny", "Sunny"));
+
+        // Two participants mind the rain, one minds the clouds
+        preferences = new HashMap<>();
+        preferences.put(WeatherCondition.RAIN.getBit(), 2L);
+        preferences.put(WeatherCondition.CLOUDY.getBit(), 1L);
+    }
+
+    @After
+    public void tearDown()
+    {
+    }
+
+    @Test
+    public void testRanking()
+    {
+        // The sunny days first, in order, then the clouds, then the rain, then the unknown days
+        List<BestDayFinder.DaySuggestion> days = bestDayFinder.rankDays("Milan", today, null, null, preferences, 7);
+        assertEquals(7, days.size());
+        assertEquals(ForecastKey.toDate(today.plusDays(2)), days.get(0).getDay());
+        assertEquals(0, days.get(0).getUnhappyParticipants());
+        assertEquals(ForecastKey.toDate(today.plusDays(4)), days.get(2).getDay());
+        assertEquals("Cloudy", days.get(3).getCondition());
+        assertEquals(1, days.get(3).getUnhappyParticipants());
+        assertEquals(2, days.get(4).getUnhappyParticipants());
+        assertFalse(days.get(5).hasForecast());
+        
+        // Only the best ones are returned
+        assertEquals(3, bestDayFinder.rankDays("Milano", today, null, null, preferences, 3).size());
+    }
+
+    @Test
+    public void testEventHours() throws Exception
+    {
+        // Rain only in the evening of today: a morning event is fine
+        HourlyForecast hours = new HourlyForecast();
+        for(int hour=8; hour<18; hour++) hours.setHour(hour, "Sunny", 0, 20);
+        for(int hour=18; hour<24; hour++) hours.setHour(hour, "Rain", 2, 15);
+        String location = bestDayFinder.locationIndex.resolve("Milano").getKey();
+        bestDayFinder.hourlyForecastStore.putWeek(location, today, new ForecastWeek(Arrays.asList("Rain"), new HourlyForecast[]{hours}));
+        
+        SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm");
+        List<BestDayFinder.DaySuggestion> days = bestDayFinder.rankDays("Milano", today, timeFormat.parse("09:00"), timeFormat.parse("12:00"), preferences, 1);
+        assertEquals(ForecastKey.toDate(today), days.get(0).getDay());
+        assertEquals(0, days.get(0).getUnhappyParticipants());
+        assertEquals("Clear", days.get(0).getCondition());
+    }
+
+    @Test
+    public void testOnlyHourlyForecast() throws Exception
+    {
+        // A day with the hours but without the daily forecast
+        HourlyForecast hours = new HourlyForecast();
+        for(int hour=0; hour<24; hour++) hours.setHour(hour, "Light rain and clouds", 2, 15);
+        String location = bestDayFinder.locationIndex.resolve("Milano").getKey();
+        bestDayFinder.hourlyForecastStore.putWeek(location, today.plusDays(6), new ForecastWeek(Arrays.asList((String) null), new HourlyForecast[]{hours}));
+
+        // The suggestion describes the conditions of the event hours
+        SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm");
+        List<BestDayFinder.DaySuggestion> days = bestDayFinder.rankDays("Milano", today, timeFormat.parse("09:00"), timeFormat.parse("12:00"), preferences, BestDayFinder.DEFAULT_SUGGESTIONS+10);
+        BestDayFinder.DaySuggestion last = null;
+        for(BestDayFinder.DaySuggestion suggestion : days) if(suggestion.getDay().equals(ForecastKey.toDate(today.plusDays(6)))) last = suggestion;
+        assertNotNull(last);
+        assertTrue(last.hasForecast());
+        assertEquals(3, last.getUnhappyParticipants());
+        assertEquals("Cloudy, rain", last.getCondition());
+    }
+}
@@ -1,15 +1,23 @@
 package it.polimi.se2.meteocal.control;
 
 import it.polimi.se2.meteocal.entity.Calendar;
+import it.polimi.se2.meteocal.entity.Event;
+import it.polimi.se2.meteocal.entity.Forecast;
+import it.polimi.se2.meteocal.entity.Notification;
 import it.polimi.se2.meteocal.entity.User;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
 import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.*;
-import org.junit.Ignore;
 import static org.mockito.Mockito.*;
-@Ignore
+
 public class CalendarManagerUnitTest
 {
     private CalendarManager calendarManager;
@@ -20,6 +28,9 @@ public class CalendarManagerUnitTest
         calendarManager = new CalendarManager();
         calendarManager.entityManager = mock(EntityManager.class);
         calendarManager.userManager = mock(UserManager.class);
+        calendarManager.notificationManager = mock(NotificationManager.class);
+        calendarManager.hourlyForecastStore = new HourlyForecastStore();
+        calendarManager.locationIndex = new LocationIndex();
     }
     
     @After
@@ -67,4 +78,80 @@ public class CalendarManagerUnitTest
         assertFalse(calendarManager.isBadWeather(calendar, "Rain until midnight"));
         assertFalse(calendarManager.isBadWeather(calendar, "It will snow"));
     }
+    
+    @Test
+    public void testUpdateBadWeatherPreferences() throws Exception
+    {
+        Calendar saved = new Calendar();
+        saved.setId((long) 1);
+        saved.setRainIsBad(true);
+        saved.setSnowIsBad(true);
+        when(calendarManager.entityManager.find(Calendar.class, (long) 1)).thenReturn(saved);
+        
+        // Fewer conditions: the preferences are saved but no event is checked again
+        Calendar changed = new Calendar();
+        changed.setId((long) 1);
+        changed.setRainIsBad(true);
+        assertEquals(0, calendarManager.updateBadWeatherPreferences(changed));
+        assertFalse(saved.getSnowIsBad());
+        verify(calendarManager.entityManager,times(0)).createNamedQuery(anyString(), eq(Object[].class));
+        
+        // Unknown calendar
+        changed.setId((long) 2);
+        changed.setSnowIsBad(true);
+        assertEquals(0, calendarManager.updateBadWeatherPreferences(changed));
+        assertFalse(saved.getSnowIsBad());
+    }
+    
+    @Test
+    public void testAddedConditionsSendAlerts() throws Exception
+    {
+        User owner = new User("CorrectFirstName", "CorrectLastName", "correct@email.com", "correctpassword");
+        owner.setId((long) 1);
+        Calendar saved = new Calendar();
+        saved.setId((long) 1);
+        saved.setOwner(owner);
+        saved.setRainIsBad(true);
+        when(calendarManager.entityManager.find(Calendar.class, (long) 1)).thenReturn(saved);
+        
+        // Tomorrow's outdoor events of the calendar, with their forecasts
+        Date tomorrow = ForecastKey.toDate(LocalDate.now().plusDays(1));
+        Event snowy = this.createEvent(1, tomorrow, "Snow");
+        Event sunny = this.createEvent(2, tomorrow, "Sunny");
+        List<Object[]> rows = new ArrayList<>();
+        rows.add(new Object[]{snowy, snowy.getForecast()});
+        rows.add(new Object[]{sunny, sunny.getForecast()});
+        TypedQuery<Object[]> query = mock(TypedQuery.class);
+        when(query.setParameter(anyString(), anyObject())).thenReturn(query);
+        when(query.getResultList()).thenReturn(rows);
+        when(calendarManager.entityManager.createNamedQuery(Calendar.findOutdoorEventsByDay, Object[].class)).thenReturn(query);
+        Notification alert = new Notification("Bad weather tomorrow!", "", false);
+        when(calendarManager.notificationManager.createBadWeatherAlert(owner, snowy)).thenReturn(alert);
+        when(calendarManager.notificationManager.sendAlerts(Arrays.asList(alert))).thenReturn(1);
+        
+        // Snow is now bad weather: only the snowy event is alerted, right away
+        Calendar changed = new Calendar();
+        changed.setId((long) 1);
+        changed.setRainIsBad(true);
+        changed.setSnowIsBad(true);
+        assertEquals(1, calendarManager.updateBadWeatherPreferences(changed));
+        assertTrue(saved.getSnowIsBad());
+        verify(query, times(1)).setParameter("calendarId", (long) 1);
+        verify(query, times(1)).setParameter("date", tomorrow);
+        verify(calendarManager.notificationManager, times(1)).createBadWeatherAlert(owner, snowy);
+        verify(calendarManager.notificationManager, never()).createBadWeatherAlert(owner, sunny);
+        verify(calendarManager.notificationManager, times(1)).sendAlerts(Arrays.asList(alert));
+    }
+    
+    private Event createEvent(long id, Date day, String forecast)
+    {
+        Event event = new Event();
+        event.setId(id);
+        event.setCity("Milano");
+        event.setLocationKey("milano");
+        event.setDay(day);
+        event.setOutdoor(true);
+        event.setForecast(new Forecast("milano", day, forecast));
+        return event;
+    }
 }
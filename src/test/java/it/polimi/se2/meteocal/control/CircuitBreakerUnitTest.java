@@ -0,0 +1,65 @@
+package it.polimi.se2.meteocal.control;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class CircuitBreakerUnitTest
+{
+    private CircuitBreaker circuitBreaker;
+
+    @Before
+    public void setUp()
+    {
+        circuitBreaker = new CircuitBreaker(3, 50);
+    }
+    
+    @After
+    public void tearDown()
+    {
+    }
+
+    @Test
+    public void testOpensAfterConsecutiveFailures()
+    {
+        // Failures interrupted by a success do not open the circuit
+        circuitBreaker.recordFailure();
+        circuitBreaker.recordFailure();
+        circuitBreaker.recordSuccess();
+        circuitBreaker.recordFailure();
+        assertTrue(circuitBreaker.allowRequest());
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        
+        // Consecutive failures do
+        circuitBreaker.recordFailure();
+        circuitBreaker.recordFailure();
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        assertFalse(circuitBreaker.allowRequest());
+        assertEquals(1, circuitBreaker.getRejectedCalls());
+    }
+    
+    @Test
+    public void testTrialCall() throws Exception
+    {
+        // Open the circuit and wait
+        for(int i=0; i<3; i++) circuitBreaker.recordFailure();
+        Thread.sleep(60);
+        
+        // Only one trial call is allowed
+        assertTrue(circuitBreaker.allowRequest());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+        assertFalse(circuitBreaker.allowRequest());
+        
+        // Failed trial: open again
+        circuitBreaker.recordFailure();
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        Thread.sleep(60);
+        
+        // Successful trial: closed
+        assertTrue(circuitBreaker.allowRequest());
+        circuitBreaker.recordSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        assertTrue(circuitBreaker.allowRequest());
+    }
+}
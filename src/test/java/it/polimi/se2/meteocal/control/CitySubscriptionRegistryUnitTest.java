@@ -0,0 +1,140 @@
+package it.polimi.se2.meteocal.control;
+
+import it.polimi.se2.meteocal.entity.Event;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class CitySubscriptionRegistryUnitTest
+{
+    private CitySubscriptionRegistry registry;
+    private LocalDate today;
+
+    @Before
+    public void setUp()
+    {
+        registry = new CitySubscriptionRegistry();
+        today = LocalDate.now();
+
+        // Two events in Milano tomorrow (one outdoor), one in Roma in three days
+        registry.subscribe(1L, "gh:u0nd", "Milano", today.plusDays(1), false, 4);
+        registry.subscribe(2L, "gh:u0nd", "San Donato Milanese", today.plusDays(1), true, 2);
+        registry.subscribe(3L, "gh:sr2y", "Roma", today.plusDays(3), false, 1);
+    }
+
+    @After
+    public void tearDown()
+    {
+    }
+
+    @Test
+    public void testSubscriptions()
+    {
+        // Events in the same location and day share a subscription, the outdoor ones set the urgency
+        assertEquals(2, registry.size());
+        List<CitySubscriptionRegistry.Subscription> subscriptions = registry.getSubscriptions(today, today.plusDays(1));
+        assertEquals(1, subscriptions.size());
+        CitySubscriptionRegistry.Subscription milano = subscriptions.get(0);
+        assertEquals("gh:u0nd", milano.getLocation());
+        assertEquals("Milano", milano.getCity());
+        assertEquals(2, milano.getEvents());
+        assertTrue(milano.isOutdoor());
+        assertEquals(2, milano.getAttendees());
+
+        // A new attendee is counted without reloading the event
+        registry.addAttendee(2L);
+        assertEquals(3, registry.getSubscriptions(today, today.plusDays(1)).get(0).getAttendees());
+    }
+
+    @Test
+    public void testUpdateAndDelete()
+    {
+        // Moving an event to another day moves its subscription
+        registry.subscribe(3L, "gh:sr2y", "Roma", today.plusDays(5), false, 1);
+        assertTrue(registry.getSubscriptions(today.plusDays(3), today.plusDays(3)).isEmpty());
+        assertEquals(1, registry.getSubscriptions(today.plusDays(5), today.plusDays(5)).size());
+
+        // Saving an event again without moving it changes nothing
+        registry.subscribe(3L, "gh:sr2y", "Roma", today.plusDays(5), false, 1);
+        assertEquals(3, registry.getEventCount());
+
+        // A location drops out when its last event is deleted
+        registry.unsubscribe(2L);
+        assertFalse(registry.getSubscriptions(today, today.plusDays(1)).get(0).isOutdoor());
+        registry.unsubscribe(1L);
+        registry.unsubscribe(1L);
+        assertTrue(registry.getSubscriptions(today, today.plusDays(1)).isEmpty());
+        assertEquals(1, registry.size());
+    }
+
+    @Test
+    public void testRemovePastDays()
+    {
+        registry.removeBefore(today.plusDays(2));
+        assertEquals(1, registry.size());
+        assertEquals(1, registry.getEventCount());
+    }
+
+    @Test
+    public void testEventsBeyondHorizon()
+    {
+        // Too far for a forecast: loaded by a later rebuild
+        registry.subscribe(4L, "gh:sr2y", "Roma", today.plusDays(CitySubscriptionRegistry.HORIZON_DAYS+1), false, 1);
+        assertEquals(3, registry.getEventCount());
+
+        // An event moved far away leaves the registry
+        registry.subscribe(3L, "gh:sr2y", "Roma", today.plusDays(30), false, 1);
+        assertEquals(2, registry.getEventCount());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testUpdatesDuringRebuild()
+    {
+        registry.entityManager = mock(EntityManager.class);
+        registry.eventManager = mock(EventManager.class);
+        registry.locationIndex = new LocationIndex();
+        TypedQuery<Object[]> query = mock(TypedQuery.class);
+        when(registry.entityManager.createNamedQuery(Event.findUpcomingSubscriptions, Object[].class)).thenReturn(query);
+        when(query.setParameter(anyString(), anyObject())).thenReturn(query);
+
+        // The rows are read while other threads delete event 1, add an attendee to event 2 and create event 5
+        when(query.getResultList()).thenAnswer(new Answer<List<Object[]>>()
+        {
+            @Override
+            public List<Object[]> answer(InvocationOnMock invocation)
+            {
+                registry.unsubscribe(1L);
+                registry.addAttendee(2L);
+                registry.subscribe(5L, "gh:sr2y", "Roma", today.plusDays(2), true, 1);
+                List<Object[]> rows = new ArrayList<>();
+                rows.add(new Object[]{1L, "gh:u0nd", "Milano", ForecastKey.toDate(today.plusDays(1)), false, 4L});
+                rows.add(new Object[]{2L, "gh:u0nd", "San Donato Milanese", ForecastKey.toDate(today.plusDays(1)), true, 2L});
+                rows.add(new Object[]{3L, "gh:sr2y", "Roma", ForecastKey.toDate(today.plusDays(3)), false, 1L});
+                return rows;
+            }
+        });
+        registry.rebuild();
+
+        // The updates are not lost, the query is bounded to the horizon
+        assertEquals(3, registry.getEventCount());
+        CitySubscriptionRegistry.Subscription milano = registry.getSubscriptions(today.plusDays(1), today.plusDays(1)).get(0);
+        assertEquals(1, milano.getEvents());
+        assertEquals(3, milano.getAttendees());
+        assertEquals(1, registry.getSubscriptions(today.plusDays(2), today.plusDays(2)).size());
+        verify(query).setParameter("lastDay", ForecastKey.toDate(today.plusDays(CitySubscriptionRegistry.HORIZON_DAYS)));
+
+        // The next updates are applied to the new maps
+        registry.unsubscribe(5L);
+        assertEquals(2, registry.getEventCount());
+    }
+}
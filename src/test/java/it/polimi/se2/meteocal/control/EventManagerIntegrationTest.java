@@ -47,8 +47,39 @@ public class EventManagerIntegrationTest
                 .addClass(EventManager.class)
                 .addClass(PasswordEncrypter.class)
                 .addClass(CalendarManager.class)
+                .addClass(ForecastCache.class)
+                .addClass(ForecastKey.class)
+                .addClass(ForecastFetcher.class)
+                .addClass(WeatherProvider.class)
+                .addClass(WeatherProviderException.class)
+                .addClass(HttpWeatherProvider.class)
+                .addClass(StubWeatherProvider.class)
+                .addClass(HedgedWeatherProvider.class)
+                .addClass(CircuitBreaker.class)
+                .addClass(TokenBucket.class)
+                .addClass(WeatherRateLimiter.class)
+                .addClass(ForecastPriority.class)
+                .addClass(ForecastDeferredException.class)
+                .addClass(ForecastFailure.class)
+                .addClass(UnknownCityException.class)
+                .addClass(Location.class)
+                .addClass(LocationIndex.class)
+                .addClass(Geohash.class)
+                .addClass(ForecastWeek.class)
+                .addClass(HourlyForecast.class)
+                .addClass(HourlyForecastStore.class)
+                .addClass(ForecastSnapshot.class)
+                .addClass(ForecastSnapshotJob.class)
+                .addClass(ForecastChangeNotifier.class)
+                .addClass(BestDayFinder.class)
+                .addClass(CitySubscriptionRegistry.class)
+                .addClass(ForecastHistoryStore.class)
+                .addClass(BadWeatherAlertJob.class)
+                .addClass(BadWeatherAlertEvaluator.class)
                 .addClass(NotificationManager.class)
+                .addClass(ForecastManager.class)
                 
+                .addAsResource("gazetteer.txt")
                 .addAsResource("test-persistence.xml", "META-INF/persistence.xml")
                 .addAsWebInfResource(EmptyAsset.INSTANCE, "beans.xml");
     }
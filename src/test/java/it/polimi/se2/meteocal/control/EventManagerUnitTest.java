@@ -9,6 +9,9 @@ import java.util.Date;
 import java.util.HashSet;
 import java.util.Set;
 import javax.persistence.EntityManager;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
 import javax.validation.ConstraintViolation;
 import javax.validation.Validation;
 import javax.validation.Validator;
@@ -17,9 +20,9 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.*;
-import org.junit.Ignore;
 import static org.mockito.Mockito.*;
-@Ignore
+import org.mockito.ArgumentCaptor;
+
 public class EventManagerUnitTest
 {
     private EventManager eventManager;
@@ -40,6 +43,9 @@ public class EventManagerUnitTest
         eventManager.userManager = mock(UserManager.class);
         eventManager.calendarManager = mock(CalendarManager.class);
         eventManager.notificationManager = mock(NotificationManager.class);
+        eventManager.locationIndex = new LocationIndex();
+        eventManager.citySubscriptionRegistry = mock(CitySubscriptionRegistry.class);
+        eventManager.transactionRegistry = mock(TransactionSynchronizationRegistry.class);
         
         // Mock the current user
         calendar = new Calendar();
@@ -94,6 +100,38 @@ public class EventManagerUnitTest
         assertTrue(event.getCalendars().contains(calendar));
     }
     
+    @Test
+    public void testSubscriptionAfterCommit() throws Exception
+    {
+        when(eventManager.transactionRegistry.getTransactionKey()).thenReturn("transaction");
+        ArgumentCaptor<Synchronization> synchronization = ArgumentCaptor.forClass(Synchronization.class);
+        
+        // The save is rolled back: the refresh worklist does not change
+        Event event = getCorrectEvent();
+        eventManager.save(event);
+        verify(eventManager.transactionRegistry, times(1)).registerInterposedSynchronization(synchronization.capture());
+        synchronization.getValue().afterCompletion(Status.STATUS_ROLLEDBACK);
+        verify(eventManager.citySubscriptionRegistry, never()).subscribe(any(Event.class));
+        
+        // The save is committed: the event is subscribed
+        event = getCorrectEvent();
+        eventManager.save(event);
+        verify(eventManager.transactionRegistry, times(2)).registerInterposedSynchronization(synchronization.capture());
+        verify(eventManager.citySubscriptionRegistry, never()).subscribe(any(Event.class));
+        synchronization.getValue().afterCompletion(Status.STATUS_COMMITTED);
+        verify(eventManager.citySubscriptionRegistry, times(1)).subscribe(event);
+        
+        // Same for the delete
+        event.setId((long) 1);
+        when(eventManager.entityManager.getReference(Event.class, (long) 1)).thenReturn(event);
+        eventManager.delete(event);
+        verify(eventManager.transactionRegistry, times(3)).registerInterposedSynchronization(synchronization.capture());
+        synchronization.getValue().afterCompletion(Status.STATUS_ROLLEDBACK);
+        verify(eventManager.citySubscriptionRegistry, never()).unsubscribe(any(Long.class));
+        synchronization.getValue().afterCompletion(Status.STATUS_COMMITTED);
+        verify(eventManager.citySubscriptionRegistry, times(1)).unsubscribe(1L);
+    }
+    
     @Test
     public void testWrongEventBeanValidation() throws Exception
     {
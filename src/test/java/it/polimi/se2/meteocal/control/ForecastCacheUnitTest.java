@@ -0,0 +1,113 @@
+package it.polimi.se2.meteocal.control;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ForecastCacheUnitTest
+{
+    private ForecastCache forecastCache;
+    private LocalDate today;
+
+    @Before
+    public void setUp()
+    {
+        forecastCache = new ForecastCache(60000, 10);
+        today = LocalDate.now();
+    }
+    
+    @After
+    public void tearDown()
+    {
+    }
+
+    @Test
+    public void testHitsAndMisses()
+    {
+        // Empty cache
+        assertNull(forecastCache.get("Milano", today));
+        assertEquals(1, forecastCache.getMisses());
+        
+        // Same city written differently
+        forecastCache.put("Milano", today, "Sunny");
+        assertEquals("Sunny", forecastCache.get("  milano ", today));
+        assertEquals("Sunny", forecastCache.get("MILANO", today));
+        assertEquals(2, forecastCache.getHits());
+        
+        // Different day
+        assertNull(forecastCache.get("Milano", today.plusDays(1)));
+        assertEquals(2, forecastCache.getMisses());
+        assertEquals(0.5, forecastCache.getHitRatio(), 0.001);
+    }
+    
+    @Test
+    public void testWholeWeek()
+    {
+        // One provider response fills all days
+        forecastCache.putAll("Milano", today, Arrays.asList("Sunny", "Rain", null, "Snow"));
+        assertEquals("Sunny", forecastCache.get("Milano", today));
+        assertEquals("Rain", forecastCache.get("Milano", today.plusDays(1)));
+        assertNull(forecastCache.get("Milano", today.plusDays(2)));
+        assertEquals("Snow", forecastCache.get("Milano", today.plusDays(3)));
+        assertEquals(3, forecastCache.size());
+    }
+    
+    @Test
+    public void testExpiration()
+    {
+        // Zero time to live, everything is already expired
+        forecastCache = new ForecastCache(0, 10);
+        forecastCache.put("Milano", today, "Sunny");
+        assertNull(forecastCache.get("Milano", today));
+        
+        // The expired forecast is still available as a stale one
+        assertEquals("Sunny", forecastCache.getStale("Milano", today));
+        assertNull(forecastCache.getStale("Roma", today));
+        assertEquals(1, forecastCache.size());
+    }
+    
+    @Test
+    public void testFailures()
+    {
+        // Day failures affect only their day
+        forecastCache.putFailure("Milano", today.plusDays(6), ForecastFailure.OUT_OF_RANGE);
+        assertEquals(ForecastFailure.OUT_OF_RANGE, forecastCache.getFailure(" milano", today.plusDays(6)));
+        assertNull(forecastCache.getFailure("Milano", today));
+        
+        // City-wide failures affect all days, until the provider answers for that city
+        forecastCache.putFailure("Nowhere", today, ForecastFailure.UNKNOWN_CITY);
+        assertEquals(ForecastFailure.UNKNOWN_CITY, forecastCache.getFailure("Nowhere", today.plusDays(3)));
+        assertEquals(2, forecastCache.getFailureHits());
+        forecastCache.putAll("Nowhere", today, Arrays.asList("Sunny"));
+        assertNull(forecastCache.getFailure("Nowhere", today.plusDays(3)));
+        
+        // Each type has its own expiration time
+        forecastCache.setFailureTimeToLive(ForecastFailure.PROVIDER_ERROR, 0);
+        forecastCache.putFailure("Roma", today, ForecastFailure.PROVIDER_ERROR);
+        assertNull(forecastCache.getFailure("Roma", today));
+        
+        // A saved forecast replaces the failure of its day
+        forecastCache.put("Milano", today.plusDays(6), "Rain");
+        assertNull(forecastCache.getFailure("Milano", today.plusDays(6)));
+    }
+    
+    @Test
+    public void testEviction()
+    {
+        // Fill the cache
+        for(int i=0; i<10; i++) forecastCache.put("City"+i, today, "Sunny");
+        
+        // Use the first one, so that the second one becomes the least recently used
+        assertEquals("Sunny", forecastCache.get("City0", today));
+        
+        // Add one more
+        forecastCache.put("City10", today, "Rain");
+        assertEquals(10, forecastCache.size());
+        assertEquals(1, forecastCache.getEvictions());
+        assertNotNull(forecastCache.get("City0", today));
+        assertNull(forecastCache.get("City1", today));
+    }
+}
@@ -0,0 +1,114 @@
+package it.polimi.se2.meteocal.control;
+
+import it.polimi.se2.meteocal.entity.Calendar;
+import it.polimi.se2.meteocal.entity.Event;
+import it.polimi.se2.meteocal.entity.Forecast;
+import it.polimi.se2.meteocal.entity.User;
+import it.polimi.se2.meteocal.entity.WeatherCondition;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class ForecastChangeNotifierUnitTest
+{
+    private ForecastChangeNotifier forecastChangeNotifier;
+    private TypedQuery<Object[]> query;
+    private List<Object[]> rows;
+    private Forecast forecast;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp()
+    {
+        forecastChangeNotifier = new ForecastChangeNotifier();
+        forecastChangeNotifier.entityManager = mock(EntityManager.class);
+        forecastChangeNotifier.notificationManager = mock(NotificationManager.class);
+        rows = new ArrayList<>();
+        forecast = new Forecast("milano", new Date(), "Rain");
+
+        // The recipients query returns the rows set by each test
+        query = mock(TypedQuery.class);
+        when(forecastChangeNotifier.entityManager.createNamedQuery(Event.findForecastChangeRecipients, Object[].class)).thenReturn(query);
+        when(query.setParameter(anyString(), anyObject())).thenReturn(query);
+        when(query.getResultList()).thenReturn(rows);
+    }
+
+    @After
+    public void tearDown()
+    {
+    }
+
+    @Test
+    public void testIrrelevantChange()
+    {
+        // Same conditions in other words: nobody to notify, no query
+        assertEquals(0, forecastChangeNotifier.notifyChange(forecast, "Light rain", WeatherCondition.RAIN.getBit()));
+        verify(forecastChangeNotifier.entityManager, never()).createNamedQuery(anyString(), eq(Object[].class));
+    }
+
+    @Test
+    public void testNotificationsPerEvent()
+    {
+        // Two events: the first one in three calendars, two of them owned by the same user
+        User first = this.createUser(1);
+        User second = this.createUser(2);
+        Event picnic = this.createEvent(10, "Picnic");
+        Event match = this.createEvent(11, "Match");
+        rows.add(new Object[]{picnic, this.createCalendar(first)});
+        rows.add(new Object[]{picnic, this.createCalendar(second)});
+        rows.add(new Object[]{picnic, this.createCalendar(first)});
+        rows.add(new Object[]{match, this.createCalendar(second)});
+
+        // From sunny to rain: the query asks for the calendars that mind the rain
+        assertEquals(3, forecastChangeNotifier.notifyChange(forecast, "Sunny", 0));
+        verify(query).setParameter("forecast", forecast);
+        verify(query).setParameter("calendarMasks", WeatherCondition.getCrossingMasks(0, WeatherCondition.RAIN.getBit()));
+
+        // Each owner is notified once per event
+        verify(forecastChangeNotifier.notificationManager, times(1)).sendNotification(eq("Weather is getting worse!"), anyString(), eq(false), eq(first), eq(picnic));
+        verify(forecastChangeNotifier.notificationManager, times(1)).sendNotification(eq("Weather is getting worse!"), anyString(), eq(false), eq(second), eq(picnic));
+        verify(forecastChangeNotifier.notificationManager, times(1)).sendNotification(eq("Weather is getting worse!"), anyString(), eq(false), eq(second), eq(match));
+    }
+
+    @Test
+    public void testWeatherGettingBetter()
+    {
+        // From rain to sunny
+        Forecast sunny = new Forecast("milano", new Date(), "Sunny");
+        User user = this.createUser(1);
+        Event picnic = this.createEvent(10, "Picnic");
+        rows.add(new Object[]{picnic, this.createCalendar(user)});
+        assertEquals(1, forecastChangeNotifier.notifyChange(sunny, "Rain", WeatherCondition.RAIN.getBit()));
+        verify(forecastChangeNotifier.notificationManager, times(1)).sendNotification(eq("Weather is getting better!"), anyString(), eq(false), eq(user), eq(picnic));
+    }
+
+    private User createUser(long id)
+    {
+        User user = new User();
+        user.setId(id);
+        return user;
+    }
+
+    private Event createEvent(long id, String name)
+    {
+        Event event = new Event();
+        event.setId(id);
+        event.setName(name);
+        return event;
+    }
+
+    private Calendar createCalendar(User owner)
+    {
+        Calendar calendar = new Calendar();
+        calendar.setOwner(owner);
+        calendar.setRainIsBad(true);
+        return calendar;
+    }
+}
@@ -0,0 +1,203 @@
+package it.polimi.se2.meteocal.control;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ForecastFetcherUnitTest
+{
+    private ForecastFetcher forecastFetcher;
+    private CountDownLatch release;
+    private AtomicInteger httpRequests;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp()
+    {
+        release = new CountDownLatch(1);
+        httpRequests = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(8);
+        
+        // Fake provider that blocks until released
+        forecastFetcher = new ForecastFetcher();
+        forecastFetcher.setProvider(new WeatherProvider()
+        {
+            @Override
+            public ForecastWeek requestWeek(String city) throws WeatherProviderException
+            {
+                httpRequests.incrementAndGet();
+                try
+                {
+                    release.await(5, TimeUnit.SECONDS);
+                }
+                catch(InterruptedException e)
+                {
+                    throw new WeatherProviderException("Interrupted");
+                }
+                if("Nowhere".equals(city)) throw new WeatherProviderException("Unknown city");
+                if("Later".equals(city) && httpRequests.get()==1) throw new ForecastDeferredException("Quota reserved");
+                return new ForecastWeek(Arrays.asList("Sunny", "Rain"));
+            }
+        });
+    }
+    
+    @After
+    public void tearDown()
+    {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testConcurrentRequestsAreCoalesced() throws Exception
+    {
+        // Many callers for the same city
+        List<Future<List<String>>> results = new ArrayList<>();
+        for(int i=0; i<8; i++) results.add(executor.submit(this.fetch(i%2==0 ? "Milano" : " milano")));
+        
+        // Let the request complete once every caller is waiting
+        while(forecastFetcher.getCoalescedRequests()<7) Thread.sleep(5);
+        release.countDown();
+        
+        // Everyone gets the same result, only one request is sent
+        for(Future<List<String>> result : results) assertEquals("Rain", result.get().get(1));
+        assertEquals(1, httpRequests.get());
+        assertEquals(1, forecastFetcher.getProviderRequests());
+    }
+    
+    @Test
+    public void testDifferentCitiesAreNotCoalesced() throws Exception
+    {
+        release.countDown();
+        forecastFetcher.fetchWeek("Milano", ForecastPriority.INTERACTIVE);
+        forecastFetcher.fetchWeek("Roma", ForecastPriority.INTERACTIVE);
+        forecastFetcher.fetchWeek("Milano", ForecastPriority.INTERACTIVE);
+        assertEquals(3, httpRequests.get());
+        assertEquals(0, forecastFetcher.getCoalescedRequests());
+    }
+    
+    @Test
+    public void testErrorsAreShared() throws Exception
+    {
+        Future<List<String>> first = executor.submit(this.fetch("Nowhere"));
+        Future<List<String>> second = executor.submit(this.fetch("Nowhere"));
+        while(forecastFetcher.getCoalescedRequests()<1) Thread.sleep(5);
+        release.countDown();
+        
+        // Both callers fail with the same error
+        for(Future<List<String>> result : Arrays.asList(first, second))
+        {
+            try
+            {
+                result.get();
+                fail("error expected");
+            }
+            catch(Exception e)
+            {
+                assertEquals("Unknown city", e.getCause().getMessage());
+            }
+        }
+        assertEquals(1, httpRequests.get());
+    }
+    
+    @Test
+    public void testDeferredRequestRetriedByInteractiveCaller() throws Exception
+    {
+        // A background request is joined by an interactive one, then deferred
+        Future<List<String>> background = executor.submit(this.fetch("Later", ForecastPriority.BACKGROUND));
+        while(httpRequests.get()<1) Thread.sleep(5);
+        Future<List<String>> interactive = executor.submit(this.fetch("Later", ForecastPriority.INTERACTIVE));
+        while(forecastFetcher.getCoalescedRequests()<1) Thread.sleep(5);
+        release.countDown();
+        
+        // The background caller is deferred, the interactive one tries again with its own priority
+        try
+        {
+            background.get();
+            fail("error expected");
+        }
+        catch(Exception e)
+        {
+            assertTrue(e.getCause() instanceof ForecastDeferredException);
+        }
+        assertEquals("Rain", interactive.get().get(1));
+        assertEquals(2, httpRequests.get());
+    }
+    
+    @Test
+    public void testCircuitBreakerFailsFast() throws Exception
+    {
+        // Provider down
+        StubWeatherProvider stub = new StubWeatherProvider();
+        stub.setFailing(true);
+        forecastFetcher.setProvider(stub);
+        
+        // After the threshold the provider is not called anymore
+        for(int i=0; i<ForecastFetcher.FAILURE_THRESHOLD+3; i++)
+        {
+            try
+            {
+                forecastFetcher.fetchWeek("Milano", ForecastPriority.INTERACTIVE);
+                fail("error expected");
+            }
+            catch(WeatherProviderException e)
+            {
+            }
+        }
+        assertEquals(ForecastFetcher.FAILURE_THRESHOLD, stub.getRequests());
+        assertEquals(CircuitBreaker.State.OPEN, forecastFetcher.getCircuitBreaker().getState());
+        assertEquals(3, forecastFetcher.getCircuitBreaker().getRejectedCalls());
+    }
+    
+    @Test
+    public void testUnknownCitiesDoNotOpenCircuit() throws Exception
+    {
+        // The provider answers, but does not know the city
+        StubWeatherProvider stub = new StubWeatherProvider();
+        stub.setForecast("Nowhere", new ArrayList<String>());
+        forecastFetcher.setProvider(stub);
+        
+        // Well past the threshold the provider is still called
+        for(int i=0; i<ForecastFetcher.FAILURE_THRESHOLD*2; i++)
+        {
+            try
+            {
+                forecastFetcher.fetchWeek("Nowhere", ForecastPriority.INTERACTIVE);
+                fail("error expected");
+            }
+            catch(UnknownCityException e)
+            {
+            }
+        }
+        assertEquals(ForecastFetcher.FAILURE_THRESHOLD*2, stub.getRequests());
+        assertEquals(CircuitBreaker.State.CLOSED, forecastFetcher.getCircuitBreaker().getState());
+        assertEquals(0, forecastFetcher.getCircuitBreaker().getRejectedCalls());
+    }
+    
+    private Callable<List<String>> fetch(String city)
+    {
+        return this.fetch(city, ForecastPriority.INTERACTIVE);
+    }
+    
+    private Callable<List<String>> fetch(final String city, final ForecastPriority priority)
+    {
+        return new Callable<List<String>>()
+        {
+            @Override
+            public List<String> call() throws Exception
+            {
+                return forecastFetcher.fetchWeek(city, priority);
+            }
+        };
+    }
+}
@@ -0,0 +1,147 @@
+package it.polimi.se2.meteocal.control;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.Arrays;
+import java.util.zip.ZipException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ForecastHistoryStoreUnitTest
+{
+    private Path directory;
+    private ForecastHistoryStore store;
+    private LocalDate day;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        directory = Files.createTempDirectory("meteocal-history");
+        store = new ForecastHistoryStore(directory);
+        day = LocalDate.of(2015, 1, 30);
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        try(DirectoryStream<Path> files = Files.newDirectoryStream(directory))
+        {
+            for(Path file : files) Files.delete(file);
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    public void testAccuracyByLeadTime() throws IOException
+    {
+        // Two days ago: rain predicted for the 30th and for the 31st
+        store.record("gh:u0nd", day.minusDays(2), Arrays.asList("Sunny", "Sunny", "Rain", "Rain"));
+        store.flush();
+
+        // Yesterday: still rain for the 30th, sunny for the 31st
+        store.record("gh:u0nd", day.minusDays(1), Arrays.asList("Sunny", "Rain", "Sunny"));
+        store.flush();
+
+        // On the day: it's rain on the 30th, cloudy with rain on the 31st
+        store.record("gh:u0nd", day, Arrays.asList("Rain"));
+        store.record("gh:u0nd", day.plusDays(1), Arrays.asList("Cloudy and rain"));
+        store.flush();
+
+        // One day in advance: the 29th and the 30th were both right
+        ForecastHistoryStore.AccuracyReport report = store.computeAccuracy(YearMonth.of(2015, 1), YearMonth.of(2015, 1));
+        assertEquals(2, report.getSamples(1));
+        assertEquals(1.0, report.getAccuracy(1), 0.001);
+        
+        // Two days in advance: right for the 30th, wrong for the 31st ("Sunny" missed both clouds and rain)
+        assertEquals(2, report.getSamples(2));
+        assertEquals(0.5, report.getAccuracy(2), 0.001);
+        assertEquals((3+1)/6.0, report.getConditionAccuracy(2), 0.001);
+        
+        // Three days in advance: "Rain" for the 31st missed only the clouds
+        assertEquals(1, report.getSamples(3));
+        assertEquals(0, report.getAccuracy(3), 0.001);
+        assertEquals(2/3.0, report.getConditionAccuracy(3), 0.001);
+        assertEquals(0, report.getSamples(4));
+    }
+
+    @Test
+    public void testMonthlyPartitions() throws IOException
+    {
+        // A week crossing the end of the month is split between two partitions
+        store.record("Roma", day, Arrays.asList("Rain", "Rain", "Rain", "Rain"));
+        store.flush();
+        assertEquals(Arrays.asList(YearMonth.of(2015, 1), YearMonth.of(2015, 2)), store.getPartitions());
+
+        // Each month is scanned on its own
+        assertEquals(1, store.computeAccuracy(YearMonth.of(2015, 2), YearMonth.of(2015, 3)).getMonths());
+    }
+
+    @Test
+    public void testTruncatedPartition() throws IOException
+    {
+        store.record("gh:u0nd", day.minusDays(1), Arrays.asList("Sunny", "Rain"));
+        store.record("gh:u0nd", day, Arrays.asList("Rain"));
+        store.flush();
+
+        // A flush interrupted half-way does not hide the records before it
+        try(OutputStream output = Files.newOutputStream(directory.resolve("forecasts-2015-01.gz"), StandardOpenOption.APPEND))
+        {
+            output.write(new byte[]{0x1f, (byte) 0x8b, 8, 0, 0});
+        }
+        assertEquals(1.0, store.computeAccuracy(YearMonth.of(2015, 1), YearMonth.of(2015, 1)).getAccuracy(1), 0.001);
+    }
+
+    @Test
+    public void testCorruptPartition() throws IOException
+    {
+        store.record("gh:u0nd", day.minusDays(1), Arrays.asList("Sunny", "Rain"));
+        store.record("gh:u0nd", day, Arrays.asList("Rain"));
+        store.flush();
+
+        // A member with invalid data is not mistaken for the end of the partition
+        byte[] corrupt = new byte[64];
+        Arrays.fill(corrupt, (byte) 0xff);
+        System.arraycopy(new byte[]{0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff}, 0, corrupt, 0, 10);
+        try(OutputStream output = Files.newOutputStream(directory.resolve("forecasts-2015-01.gz"), StandardOpenOption.APPEND))
+        {
+            output.write(corrupt);
+        }
+        try
+        {
+            store.computeAccuracy(YearMonth.of(2015, 1), YearMonth.of(2015, 1));
+            fail();
+        }
+        catch(ZipException ex)
+        {
+        }
+    }
+
+    @Test
+    public void testDefaultDirectory()
+    {
+        // Never in the temporary directory, unless chosen explicitly
+        String previous = System.getProperty("meteocal.history.dir");
+        try
+        {
+            System.clearProperty("meteocal.history.dir");
+            assertFalse(ForecastHistoryStore.getDefaultDirectory().startsWith(Paths.get(System.getProperty("java.io.tmpdir"))));
+            assertEquals(ForecastHistoryStore.DEFAULT_DIRECTORY, ForecastHistoryStore.getDefaultDirectory().getFileName().toString());
+            System.setProperty("meteocal.history.dir", directory.toString());
+            assertEquals(directory, ForecastHistoryStore.getDefaultDirectory());
+        }
+        finally
+        {
+            if(previous==null) System.clearProperty("meteocal.history.dir");
+            else System.setProperty("meteocal.history.dir", previous);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package it.polimi.se2.meteocal.control;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+* JMH comparison between the streaming parser and the previous org.json tree, on a provider response of a week. Run it with the "main" method from the test classpath: the GC profiler reports the bytes allocated per response (gc.alloc.rate.norm)
+**/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ForecastJsonParserBenchmark
+{
+    @Param({"false", "true"})
+    boolean hourly;
+
+    private String response;
+
+    @Setup
+    public void setUp()
+    {
+        // A week with the daily condition and, optionally, the 24 hours of each day
+        StringBuilder json = new StringBuilder("[");
+        for(int day=0; day<7; day++)
+        {
+            json.append(day==0 ? "" : ",").append("{\"day\":\"Day ").append(day).append("\",\"condition\":\"Light rain\",\"high\":\"21C\",\"low\":\"12C\"");
+            if(hourly)
+            {
+                json.append(",\"hourly\":[");
+                for(int hour=0; hour<24; hour++)
+                {
+                    json.append(hour==0 ? "" : ",").append("{\"hour\":").append(hour).append(",\"condition\":\"Cloudy\",\"precipitation\":0.4,\"temperature\":15.5}");
+                }
+                json.append("]");
+            }
+            json.append("}");
+        }
+        response = json.append("]").toString();
+    }
+
+    @Benchmark
+    public ForecastWeek streaming() throws IOException
+    {
+        return ForecastJsonParser.parse(new StringReader(response));
+    }
+
+    @Benchmark
+    public ForecastWeek jsonTree()
+    {
+        // The parsing done before the streaming parser
+        JSONArray array = new JSONArray(new JSONTokener(new StringReader(response)));
+        List<String> conditions = new ArrayList<>(array.length());
+        HourlyForecast[] hours = new HourlyForecast[array.length()];
+        for(int i=0; i<array.length(); i++)
+        {
+            JSONObject dayForecast = array.optJSONObject(i);
+            conditions.add(dayForecast==null ? null : dayForecast.optString("condition", null));
+            JSONArray hourArray = (dayForecast==null) ? null : dayForecast.optJSONArray("hourly");
+            if(hourArray==null) continue;
+            hours[i] = new HourlyForecast();
+            for(int j=0; j<hourArray.length(); j++)
+            {
+                JSONObject hour = hourArray.optJSONObject(j);
+                if(hour==null || hour.optInt("hour", -1)<0 || hour.optInt("hour", -1)>=HourlyForecast.HOURS) continue;
+                hours[i].setHour(hour.getInt("hour"), hour.optString("condition", null), hour.optDouble("precipitation", 0), hour.optDouble("temperature", 0));
+            }
+        }
+        return new ForecastWeek(conditions, hours);
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        new Runner(new OptionsBuilder().include(ForecastJsonParserBenchmark.class.getSimpleName()).addProfiler(GCProfiler.class).build()).run();
+    }
+}
@@ -0,0 +1,87 @@
+package it.polimi.se2.meteocal.control;
+
+import it.polimi.se2.meteocal.entity.WeatherCondition;
+import java.io.IOException;
+import java.io.StringReader;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ForecastJsonParserUnitTest
+{
+    @Before
+    public void setUp()
+    {
+    }
+
+    @After
+    public void tearDown()
+    {
+    }
+
+    @Test
+    public void testUnknownFieldsAreSkipped() throws Exception
+    {
+        // Nested objects, arrays and literals around the fields we read
+        ForecastWeek week = this.parse("[ {\"day\":{\"name\":\"Today\",\"list\":[1,[2],{}]},\"condition\":\"Light \\\"rain\\\"\",\"windy\":true,\"gust\":null},"
+            +"\n\t{\"condition\":12}, \"not a day\", {\"condition\":\"Sunny\\u0021\"} ]");
+        assertEquals(4, week.size());
+        assertEquals("Light \"rain\"", week.get(0));
+        assertNull(week.get(1));
+        assertNull(week.get(2));
+        assertEquals("Sunny!", week.get(3));
+    }
+
+    @Test
+    public void testHours() throws Exception
+    {
+        // Fields in any order, numbers in every form, invalid hours skipped
+        ForecastWeek week = this.parse("[{\"hourly\":[{\"temperature\":-1.5e1,\"hour\":7,\"condition\":\"SNOW\"},{\"hour\":8.0,\"precipitation\":0.25E+1},{\"hour\":24},{\"hour\":\"9\"},5],\"condition\":\"Snow\"}]");
+        HourlyForecast hours = week.getHours(0);
+        assertTrue(hours.hasHour(7));
+        assertTrue(hours.hasHour(8));
+        assertFalse(hours.hasHour(9));
+        assertEquals(WeatherCondition.SNOW.getBit(), hours.getConditionMask(7));
+        assertEquals(-15, hours.getTemperature(7), 0.001);
+        assertEquals(2.5, hours.getPrecipitation(8), 0.001);
+        assertEquals("Snow", week.get(0));
+
+        // No valid hour at all
+        assertNull(this.parse("[{\"hourly\":[{\"hour\":-1}]}]").getHours(0));
+    }
+
+    @Test
+    public void testLongResponse() throws Exception
+    {
+        // Longer than the read buffer, so tokens cross the buffer boundaries
+        StringBuilder json = new StringBuilder("[");
+        for(int i=0; i<500; i++) json.append(i==0 ? "" : ",").append("{\"condition\":\"Cloudy ").append(i).append("\"}");
+        ForecastWeek week = this.parse(json.append("]").toString());
+        assertEquals(500, week.size());
+        assertEquals("Cloudy 499", week.get(499));
+    }
+
+    @Test
+    public void testInvalidJson()
+    {
+        String[] invalid = {"", "{}", "[{\"condition\":\"Rain\"", "[{\"condition\" \"Rain\"}]", "[{\"condition\":\"Rain\\x\"}]", "[-]", "[,]"};
+        for(String json : invalid)
+        {
+            try
+            {
+                this.parse(json);
+                fail("Invalid JSON accepted: "+json);
+            }
+            catch(IOException ex)
+            {
+                // Expected
+            }
+        }
+    }
+
+    private ForecastWeek parse(String json) throws IOException
+    {
+        return ForecastJsonParser.parse(new StringReader(json));
+    }
+}
@@ -0,0 +1,143 @@
+package it.polimi.se2.meteocal.control;
+
+import it.polimi.se2.meteocal.entity.Forecast;
+import it.polimi.se2.meteocal.entity.WeatherCondition;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Date;
+import javax.ejb.EJBException;
+import javax.ejb.SessionContext;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceException;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+import org.mockito.ArgumentCaptor;
+
+public class ForecastManagerUnitTest
+{
+    private ForecastManager forecastManager;
+    private ForecastManager self;
+    private final Date day = new Date();
+
+    @Before
+    public void setUp()
+    {
+        forecastManager = spy(new ForecastManager());
+        forecastManager.entityManager = mock(EntityManager.class);
+        forecastManager.forecastChangeNotifier = mock(ForecastChangeNotifier.class);
+        forecastManager.sessionContext = mock(SessionContext.class);
+        forecastManager.transactionRegistry = mock(TransactionSynchronizationRegistry.class);
+        self = mock(ForecastManager.class);
+        when(forecastManager.sessionContext.getBusinessObject(ForecastManager.class)).thenReturn(self);
+    }
+
+    @After
+    public void tearDown()
+    {
+    }
+
+    @Test
+    public void testForecastEntity()
+    {
+        // The location key is stored as given, the mask follows the condition
+        Forecast forecast = new Forecast("u0nd9", day, "Rain in the morning");
+        assertEquals("u0nd9", forecast.getCity());
+        assertEquals(WeatherCondition.RAIN.getBit(), forecast.getConditionMask());
+        assertNotNull(forecast.getFetchedAt());
+        forecast.setCondition("Sunny");
+        assertEquals(0, forecast.getConditionMask());
+    }
+
+    @Test
+    public void testSaveNewForecast()
+    {
+        // Missing forecast: inserted in its own transaction, then read in the caller's one
+        Forecast saved = new Forecast("u0nd9", day, "Sunny");
+        doReturn(null).doReturn(saved).when(forecastManager).getForecast("u0nd9", day);
+        assertSame(saved, forecastManager.saveForecast("u0nd9", day, "Sunny"));
+        verify(self, times(1)).insertForecast("u0nd9", day, "Sunny");
+        verify(forecastManager.forecastChangeNotifier, never()).notifyChange(any(Forecast.class), anyString(), anyInt());
+    }
+
+    @Test
+    public void testSaveExistingForecast()
+    {
+        // Same conditions: no insert and no notification
+        Forecast saved = new Forecast("u0nd9", day, "Sunny");
+        doReturn(saved).when(forecastManager).getForecast("u0nd9", day);
+        assertSame(saved, forecastManager.saveForecast("u0nd9", day, "Sunny"));
+        verify(self, never()).insertForecast(anyString(), any(Date.class), anyString());
+        verify(forecastManager.forecastChangeNotifier, never()).notifyChange(any(Forecast.class), anyString(), anyInt());
+
+        // Changed conditions: updated in place and notified
+        assertSame(saved, forecastManager.saveForecast("u0nd9", day, "Rain"));
+        assertEquals("Rain", saved.getCondition());
+        verify(forecastManager.forecastChangeNotifier, times(1)).notifyChange(saved, "Sunny", 0);
+    }
+
+    @Test
+    public void testFailedNotification()
+    {
+        // The notifications fail: the forecast is updated anyway
+        Forecast saved = new Forecast("u0nd9", day, "Sunny");
+        doReturn(saved).when(forecastManager).getForecast("u0nd9", day);
+        doThrow(new EJBException("notifications not sent")).when(forecastManager.forecastChangeNotifier).notifyChange(saved, "Sunny", 0);
+        assertSame(saved, forecastManager.saveForecast("u0nd9", day, "Rain"));
+        assertEquals("Rain", saved.getCondition());
+    }
+
+    @Test
+    public void testNotificationAfterCommit()
+    {
+        // In a transaction, the change is notified only once it has committed
+        Forecast saved = new Forecast("u0nd9", day, "Sunny");
+        doReturn(saved).when(forecastManager).getForecast("u0nd9", day);
+        when(forecastManager.transactionRegistry.getTransactionKey()).thenReturn("transaction");
+        forecastManager.saveForecast("u0nd9", day, "Rain");
+        ArgumentCaptor<Synchronization> synchronization = ArgumentCaptor.forClass(Synchronization.class);
+        verify(forecastManager.transactionRegistry, times(1)).registerInterposedSynchronization(synchronization.capture());
+        verify(forecastManager.forecastChangeNotifier, never()).notifyChange(any(Forecast.class), anyString(), anyInt());
+        synchronization.getValue().afterCompletion(Status.STATUS_COMMITTED);
+        verify(forecastManager.forecastChangeNotifier, times(1)).notifyChange(saved, "Sunny", 0);
+    }
+
+    @Test
+    public void testRolledBackSave()
+    {
+        // The save is rolled back: nothing is notified
+        Forecast saved = new Forecast("u0nd9", day, "Sunny");
+        doReturn(saved).when(forecastManager).getForecast("u0nd9", day);
+        when(forecastManager.transactionRegistry.getTransactionKey()).thenReturn("transaction");
+        forecastManager.saveForecast("u0nd9", day, "Rain");
+        ArgumentCaptor<Synchronization> synchronization = ArgumentCaptor.forClass(Synchronization.class);
+        verify(forecastManager.transactionRegistry, times(1)).registerInterposedSynchronization(synchronization.capture());
+        synchronization.getValue().afterCompletion(Status.STATUS_ROLLEDBACK);
+        verify(forecastManager.forecastChangeNotifier, never()).notifyChange(any(Forecast.class), anyString(), anyInt());
+    }
+
+    @Test
+    public void testConcurrentInsert()
+    {
+        // Another thread inserted the same forecast meanwhile: its row is updated instead
+        Forecast winner = new Forecast("u0nd9", day, "Sunny");
+        doReturn(null).doReturn(winner).when(forecastManager).getForecast("u0nd9", day);
+        doThrow(new EJBException(new PersistenceException(new SQLIntegrityConstraintViolationException("duplicate key")))).when(self).insertForecast("u0nd9", day, "Snow");
+        assertSame(winner, forecastManager.saveForecast("u0nd9", day, "Snow"));
+        assertEquals("Snow", winner.getCondition());
+    }
+
+    @Test(expected = EJBException.class)
+    public void testFailedInsert()
+    {
+        // Any other failure is not hidden
+        doReturn(null).when(forecastManager).getForecast("u0nd9", day);
+        doThrow(new EJBException(new PersistenceException(new SQLTransientConnectionException("connection lost")))).when(self).insertForecast("u0nd9", day, "Snow");
+        forecastManager.saveForecast("u0nd9", day, "Snow");
+    }
+}
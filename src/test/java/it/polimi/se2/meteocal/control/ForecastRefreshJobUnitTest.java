@@ -0,0 +1,123 @@
+package it.polimi.se2.meteocal.control;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class ForecastRefreshJobUnitTest
+{
+    private List<ForecastRefreshQueue.RefreshTask> due;
+    private Map<String, Long> lastRefresh;
+    private long now;
+    private ForecastRefreshJob job;
+
+    @Before
+    public void setUp()
+    {
+        due = new ArrayList<>();
+        lastRefresh = new HashMap<>();
+        now = System.currentTimeMillis();
+        
+        // Job with a single city to refresh
+        job = spy(new ForecastRefreshJob());
+        job.forecastFetcher = mock(ForecastFetcher.class);
+        job.forecastCache = mock(ForecastCache.class);
+        job.hourlyForecastStore = mock(HourlyForecastStore.class);
+        job.forecastManager = mock(ForecastManager.class);
+        job.citySubscriptionRegistry = mock(CitySubscriptionRegistry.class);
+        job.forecastHistoryStore = mock(ForecastHistoryStore.class);
+        doAnswer(new Answer<ForecastRefreshQueue>()
+        {
+            @Override
+            public ForecastRefreshQueue answer(InvocationOnMock invocation)
+            {
+                ForecastRefreshQueue queue = new ForecastRefreshQueue();
+                queue.offer("Milano", 1, true, 3);
+                return queue;
+            }
+        }).when(job).buildQueue(any(LocalDate.class));
+    }
+
+    @After
+    public void tearDown()
+    {
+    }
+
+    @Test
+    public void testWithinBudget()
+    {
+        // Everything fits: all the cities, in priority order
+        for(int i=0; i<10; i++) due.add(new ForecastRefreshQueue.RefreshTask("city"+i, "City"+i, 1, true, 1));
+        assertSame(due, ForecastRefreshJob.selectTasks(due, lastRefresh, now));
+    }
+
+    @Test
+    public void testDistantCitiesNotStarved()
+    {
+        // More imminent cities than the budget, all refreshed an hour ago
+        for(int i=0; i<ForecastRefreshJob.MAX_REQUESTS_PER_RUN+50; i++)
+        {
+            due.add(new ForecastRefreshQueue.RefreshTask("near"+i, "Near"+i, 0, true, 10));
+            lastRefresh.put("near"+i, now-TimeUnit.HOURS.toMillis(1));
+        }
+
+        // Distant cities last refreshed three days ago, and one never refreshed
+        for(int i=0; i<5; i++)
+        {
+            due.add(new ForecastRefreshQueue.RefreshTask("far"+i, "Far"+i, 6, true, 1));
+            lastRefresh.put("far"+i, now-TimeUnit.DAYS.toMillis(3));
+        }
+        due.add(new ForecastRefreshQueue.RefreshTask("new", "New", 6, false, 1));
+
+        // The budget is respected, the most urgent cities come first and the reserve takes the overdue ones
+        List<ForecastRefreshQueue.RefreshTask> selected = ForecastRefreshJob.selectTasks(due, lastRefresh, now);
+        assertEquals(ForecastRefreshJob.MAX_REQUESTS_PER_RUN, selected.size());
+        assertEquals("near0", selected.get(0).getCity());
+        assertEquals("new", selected.get(ForecastRefreshJob.MAX_REQUESTS_PER_RUN-ForecastRefreshJob.OVERDUE_REQUESTS_PER_RUN).getCity());
+        Set<String> cities = new HashSet<>();
+        for(ForecastRefreshQueue.RefreshTask task : selected) cities.add(task.getCity());
+        for(int i=0; i<5; i++) assertTrue(cities.contains("far"+i));
+    }
+    
+    @Test
+    public void testNotModifiedLinksEvents() throws Exception
+    {
+        // Unchanged forecast: the rows are not rewritten, but the new events are linked
+        ForecastWeek week = new ForecastWeek(Arrays.asList("Sunny", "Rain")).asNotModified();
+        when(job.forecastFetcher.fetchWeek("Milano", ForecastPriority.BACKGROUND)).thenReturn(week);
+        when(job.forecastManager.linkWeek(eq("milano"), any(LocalDate.class), eq(week))).thenReturn(2);
+        ForecastRefreshJob.RunStatistics statistics = job.refreshAll();
+        verify(job.forecastManager, never()).saveWeek(anyString(), any(LocalDate.class), anyListOf(String.class));
+        assertEquals(1, statistics.getNotModified());
+        assertEquals(1, statistics.getCities());
+        assertEquals(2, statistics.getLinkedEvents());
+    }
+    
+    @Test
+    public void testFailedSaveInvalidatesForecast() throws Exception
+    {
+        // The forecast is received but cannot be saved
+        ForecastWeek week = new ForecastWeek(Arrays.asList("Sunny", "Rain"));
+        when(job.forecastFetcher.fetchWeek("Milano", ForecastPriority.BACKGROUND)).thenReturn(week);
+        when(job.forecastManager.saveWeek(eq("milano"), any(LocalDate.class), eq(week))).thenThrow(new IllegalStateException("database down"));
+        assertEquals(1, job.refreshAll().getFailures());
+        
+        // The provider forgets it, and the city is requested again at the next run
+        verify(job.forecastFetcher, times(1)).invalidate("Milano");
+        job.refreshAll();
+        verify(job.forecastFetcher, times(2)).fetchWeek("Milano", ForecastPriority.BACKGROUND);
+    }
+}
@@ -0,0 +1,80 @@
+package it.polimi.se2.meteocal.control;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ForecastRefreshQueueUnitTest
+{
+    private ForecastRefreshQueue queue;
+
+    @Before
+    public void setUp()
+    {
+        queue = new ForecastRefreshQueue();
+    }
+    
+    @After
+    public void tearDown()
+    {
+    }
+
+    @Test
+    public void testPriorityOrder()
+    {
+        queue.offer("Roma", 5, true, 100);
+        queue.offer("Milano", 1, false, 3);
+        queue.offer("Torino", 1, true, 2);
+        queue.offer("Napoli", 1, true, 10);
+        
+        // Nearest first, then outdoor, then most attended
+        assertEquals("napoli", queue.poll().getCity());
+        assertEquals("torino", queue.poll().getCity());
+        assertEquals("milano", queue.poll().getCity());
+        assertEquals("roma", queue.poll().getCity());
+        assertNull(queue.poll());
+    }
+    
+    @Test
+    public void testSameCityKeepsMostUrgentEvents()
+    {
+        queue.offer("Milano", 5, true, 100);
+        queue.offer("milano ", 2, false, 1);
+        queue.offer("MILANO", 2, false, 4);
+        queue.offer("Roma", 3, true, 1);
+        assertEquals(2, queue.size());
+        
+        // Milano is ranked by its events in two days, with the attendees merged
+        ForecastRefreshQueue.RefreshTask task = queue.poll();
+        assertEquals("milano", task.getCity());
+        assertEquals(2, task.getDaysAhead());
+        assertFalse(task.isOutdoor());
+        assertEquals(5, task.getAttendees());
+    }
+    
+    @Test
+    public void testNearbyCitiesShareTask() throws Exception
+    {
+        LocationIndex locationIndex = new LocationIndex();
+        locationIndex.initialize();
+        queue.offer(locationIndex.resolve("Milan"), 1, true, 2);
+        queue.offer(locationIndex.resolve("San Donato Milanese"), 1, true, 3);
+        
+        // A single task for the bucket, requested with the name of its main city
+        assertEquals(1, queue.size());
+        ForecastRefreshQueue.RefreshTask task = queue.poll();
+        assertEquals("Milano", task.getCityName());
+        assertEquals(5, task.getAttendees());
+    }
+    
+    @Test
+    public void testRefreshIntervals()
+    {
+        assertEquals(TimeUnit.HOURS.toMillis(1), ForecastRefreshQueue.getRefreshInterval(0));
+        assertEquals(TimeUnit.HOURS.toMillis(1), ForecastRefreshQueue.getRefreshInterval(1));
+        assertEquals(TimeUnit.HOURS.toMillis(6), ForecastRefreshQueue.getRefreshInterval(3));
+        assertEquals(TimeUnit.DAYS.toMillis(1), ForecastRefreshQueue.getRefreshInterval(6));
+    }
+}
@@ -0,0 +1,144 @@
+package it.polimi.se2.meteocal.control;
+
+import it.polimi.se2.meteocal.entity.WeatherCondition;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ForecastSnapshotUnitTest
+{
+    private Path directory;
+    private Path file;
+    private ForecastCache cache;
+    private HourlyForecastStore hourlyStore;
+    private LocalDate today;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        directory = Files.createTempDirectory("meteocal");
+        file = directory.resolve("forecasts.bin");
+        cache = new ForecastCache();
+        hourlyStore = new HourlyForecastStore();
+        today = LocalDate.now();
+
+        // Two days in Milano, one with the hours
+        HourlyForecast hours = new HourlyForecast();
+        for(int hour=18; hour<24; hour++) hours.setHour(hour, "Rain", 3.5, 12);
+        ForecastWeek week = new ForecastWeek(Arrays.asList("Rain", "Sunny"), new HourlyForecast[]{hours});
+        cache.putAll("gh:u0nd", today, week);
+        hourlyStore.putWeek("gh:u0nd", today, week);
+        cache.put("Z\u00fcrich", today, "Snow");
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(directory);
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException
+    {
+        assertEquals(4, ForecastSnapshot.save(file, cache, hourlyStore));
+
+        // A fresh instance gets everything back, with the original expiration times
+        ForecastCache restoredCache = new ForecastCache();
+        HourlyForecastStore restoredStore = new HourlyForecastStore();
+        assertEquals(4, ForecastSnapshot.load(file, restoredCache, restoredStore, today));
+        assertEquals("Rain", restoredCache.get("gh:u0nd", today));
+        assertEquals("Sunny", restoredCache.get("gh:u0nd", today.plusDays(1)));
+        assertEquals("Snow", restoredCache.get("Z\u00fcrich", today));
+
+        // The hours are restored bit for bit
+        HourlyForecast hours = restoredStore.get("gh:u0nd", today);
+        assertEquals(WeatherCondition.RAIN.getBit(), hours.getConditionMask(18, 24));
+        assertFalse(hours.hasHour(10));
+        assertEquals(3.5, hours.getMaxPrecipitation(0, 24), 0.001);
+        assertEquals(12, hours.getTemperature(20), 0.001);
+    }
+
+    @Test
+    public void testPastDaysAreSkipped() throws IOException
+    {
+        ForecastSnapshot.save(file, cache, hourlyStore);
+
+        // Loaded tomorrow, only the second Milano day is still useful
+        ForecastCache restoredCache = new ForecastCache();
+        HourlyForecastStore restoredStore = new HourlyForecastStore();
+        assertEquals(1, ForecastSnapshot.load(file, restoredCache, restoredStore, today.plusDays(1)));
+        assertEquals("Sunny", restoredCache.get("gh:u0nd", today.plusDays(1)));
+        assertEquals(0, restoredStore.size());
+    }
+
+    @Test
+    public void testNewerEntriesAreKept() throws IOException
+    {
+        ForecastSnapshot.save(file, cache, hourlyStore);
+
+        // A forecast received before the load is newer than the snapshot
+        ForecastCache restoredCache = new ForecastCache();
+        restoredCache.put("gh:u0nd", today, "Cloudy");
+        ForecastSnapshot.load(file, restoredCache, new HourlyForecastStore(), today);
+        assertEquals("Cloudy", restoredCache.get("gh:u0nd", today));
+        assertEquals(3, restoredCache.size());
+    }
+
+    @Test
+    public void testInvalidFile() throws IOException
+    {
+        // Not a snapshot
+        Files.write(file, "not a snapshot".getBytes("UTF-8"));
+        try
+        {
+            ForecastSnapshot.load(file, new ForecastCache(), new HourlyForecastStore(), today);
+            fail("Invalid file accepted");
+        }
+        catch(IOException ex)
+        {
+            // Expected
+        }
+
+        // Truncated snapshot
+        ForecastSnapshot.save(file, cache, hourlyStore);
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length-10));
+        try
+        {
+            ForecastSnapshot.load(file, new ForecastCache(), new HourlyForecastStore(), today);
+            fail("Truncated file accepted");
+        }
+        catch(IOException ex)
+        {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testDefaultFile()
+    {
+        // Never in the temporary directory, unless chosen explicitly
+        String previous = System.getProperty("meteocal.snapshot.file");
+        try
+        {
+            System.clearProperty("meteocal.snapshot.file");
+            assertFalse(ForecastSnapshotJob.getDefaultFile().startsWith(Paths.get(System.getProperty("java.io.tmpdir"))));
+            assertEquals(ForecastHistoryStore.getDataRoot().resolve(ForecastSnapshotJob.DEFAULT_FILE), ForecastSnapshotJob.getDefaultFile());
+            System.setProperty("meteocal.snapshot.file", file.toString());
+            assertEquals(file, ForecastSnapshotJob.getDefaultFile());
+        }
+        finally
+        {
+            if(previous==null) System.clearProperty("meteocal.snapshot.file");
+            else System.setProperty("meteocal.snapshot.file", previous);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package it.polimi.se2.meteocal.control;
+
+import it.polimi.se2.meteocal.entity.Event;
+import it.polimi.se2.meteocal.entity.Forecast;
+import it.polimi.se2.meteocal.entity.User;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class ForecastUpdaterUnitTest
+{
+    private ForecastUpdater forecastUpdater;
+    private CountDownLatch started;
+    private CountDownLatch release;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        forecastUpdater = new ForecastUpdater();
+        forecastUpdater.eventManager = mock(EventManager.class);
+        forecastUpdater.calendarManager = mock(CalendarManager.class);
+        started = new CountDownLatch(ForecastUpdater.MAX_CONCURRENT_REQUESTS);
+        release = new CountDownLatch(1);
+
+        // The provider requests are held until released, so the slots stay busy
+        when(forecastUpdater.eventManager.getEventById(anyLong())).thenReturn(new Event());
+        when(forecastUpdater.calendarManager.requestWeatherForecast(any(Event.class))).thenAnswer(new Answer<String>()
+        {
+            @Override
+            public String answer(InvocationOnMock invocation) throws Exception
+            {
+                started.countDown();
+                release.await(10, TimeUnit.SECONDS);
+                return "Sunny";
+            }
+        });
+    }
+
+    @After
+    public void tearDown()
+    {
+    }
+
+    @Test
+    public void testBusySlots() throws Exception
+    {
+        // Take all the slots
+        List<Thread> threads = this.takeAllSlots();
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        // A new request does not wait for a slot, it's queued
+        long start = System.nanoTime();
+        forecastUpdater.updateEventForecast(100L);
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime()-start)<1000);
+        assertEquals(1, forecastUpdater.getPendingRequests());
+
+        // The running threads take it when they are done
+        release.countDown();
+        for(Thread thread : threads) thread.join(10000);
+        assertEquals(0, forecastUpdater.getPendingRequests());
+        verify(forecastUpdater.eventManager, times(1)).getEventById(100L);
+        verify(forecastUpdater.eventManager, times(ForecastUpdater.MAX_CONCURRENT_REQUESTS+1)).linkWeatherForecast(eq("Sunny"), any(Event.class));
+    }
+
+    @Test
+    public void testRequestOfAnotherUser() throws Exception
+    {
+        // The running threads belong to the first user, the queued request to the second one
+        User first = new User("First", "First", "first@email.com", "firstpassword");
+        first.setId((long) 1);
+        User second = new User("Second", "Second", "second@email.com", "secondpassword");
+        second.setId((long) 2);
+        EventManager eventManager = spy(new EventManager());
+        eventManager.userManager = mock(UserManager.class);
+        eventManager.forecastManager = mock(ForecastManager.class);
+        eventManager.locationIndex = new LocationIndex();
+        when(eventManager.userManager.getLoggedUser()).thenReturn(first);
+        Event event = new Event();
+        event.setId(100L);
+        event.setCity("Milano");
+        event.setOrganizer(second);
+        doReturn(new Event()).when(eventManager).getEventById(anyLong());
+        doReturn(event).when(eventManager).getEventById(100L);
+        Forecast forecast = new Forecast("milano", new Date(), "Sunny");
+        when(eventManager.forecastManager.saveForecast(anyString(), any(Date.class), eq("Sunny"))).thenReturn(forecast);
+        forecastUpdater.eventManager = eventManager;
+        List<Thread> threads = this.takeAllSlots();
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        forecastUpdater.updateEventForecast(100L);
+
+        // The forecast is linked anyway by the first user's thread
+        release.countDown();
+        for(Thread thread : threads) thread.join(10000);
+        verify(eventManager.forecastManager, times(1)).linkEvent(event, forecast);
+    }
+
+    private List<Thread> takeAllSlots()
+    {
+        List<Thread> threads = new ArrayList<>();
+        for(int i=0; i<ForecastUpdater.MAX_CONCURRENT_REQUESTS; i++)
+        {
+            final long eventId = i+1;
+            Thread thread = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    forecastUpdater.updateEventForecast(eventId);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        return threads;
+    }
+}
@@ -0,0 +1,101 @@
+package it.polimi.se2.meteocal.control;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class HedgedWeatherProviderUnitTest
+{
+    private StubWeatherProvider primary;
+    private StubWeatherProvider secondary;
+    private ExecutorService executor;
+    private HedgedWeatherProvider provider;
+
+    @Before
+    public void setUp()
+    {
+        // Two local stand-ins with different answers
+        primary = new StubWeatherProvider();
+        primary.setForecast("Milano", Arrays.asList("Sunny"));
+        secondary = new StubWeatherProvider();
+        secondary.setForecast("Milano", Arrays.asList("Rain"));
+        executor = Executors.newCachedThreadPool();
+        provider = new HedgedWeatherProvider(primary, secondary, executor, 95);
+    }
+    
+    @After
+    public void tearDown()
+    {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testFastPrimaryIsNotHedged() throws Exception
+    {
+        List<String> conditions = provider.requestWeek("Milano");
+        assertEquals("Sunny", conditions.get(0));
+        assertEquals(0, provider.getHedgedRequests());
+        assertEquals(0, secondary.getRequests());
+    }
+    
+    @Test
+    public void testSlowPrimaryIsHedged() throws Exception
+    {
+        // The primary is much slower than the default delay
+        primary.setLatency(HedgedWeatherProvider.DEFAULT_DELAY*10);
+        long start = System.currentTimeMillis();
+        List<String> conditions = provider.requestWeek("Milano");
+        
+        // The secondary answers right after the delay
+        assertEquals("Rain", conditions.get(0));
+        assertTrue(System.currentTimeMillis()-start<HedgedWeatherProvider.DEFAULT_DELAY*5);
+        assertEquals(1, provider.getHedgedRequests());
+        assertEquals(1, provider.getSecondaryWins());
+    }
+    
+    @Test
+    public void testLosingPrimaryLatencyIsRecorded() throws Exception
+    {
+        // The primary loses to the secondary and is cancelled
+        primary.setLatency(HedgedWeatherProvider.DEFAULT_DELAY*10);
+        assertEquals("Rain", provider.requestWeek("Milano").get(0));
+        
+        // Its latency is still recorded, once
+        Thread.sleep(100);
+        assertEquals(1, provider.getLatencySamples());
+    }
+    
+    @Test
+    public void testFailingPrimaryFallsBackToSecondary() throws Exception
+    {
+        primary.setFailing(true);
+        assertEquals("Rain", provider.requestWeek("Milano").get(0));
+        assertEquals(1, provider.getSecondaryWins());
+    }
+    
+    @Test(expected = WeatherProviderException.class)
+    public void testBothFailing() throws Exception
+    {
+        primary.setFailing(true);
+        secondary.setFailing(true);
+        provider.requestWeek("Milano");
+    }
+    
+    @Test
+    public void testDelayFollowsPrimaryLatencies() throws Exception
+    {
+        // Collect enough latencies
+        primary.setLatency(HedgedWeatherProvider.MIN_DELAY*2);
+        for(int i=0; i<HedgedWeatherProvider.MIN_SAMPLES; i++) provider.requestWeek("Milano");
+        
+        // The delay is now close to the primary latency instead of the default one
+        long delay = provider.getHedgingDelay();
+        assertTrue(delay>=HedgedWeatherProvider.MIN_DELAY*2);
+        assertTrue(delay<HedgedWeatherProvider.DEFAULT_DELAY);
+    }
+}
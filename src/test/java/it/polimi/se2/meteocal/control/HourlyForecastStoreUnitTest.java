@@ -0,0 +1,82 @@
+package it.polimi.se2.meteocal.control;
+
+import it.polimi.se2.meteocal.entity.WeatherCondition;
+import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class HourlyForecastStoreUnitTest
+{
+    private final SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm");
+    private HourlyForecastStore store;
+    private LocalDate today;
+
+    @Before
+    public void setUp()
+    {
+        store = new HourlyForecastStore();
+        today = LocalDate.now();
+        
+        // Sunny morning, rainy evening
+        HourlyForecast hours = new HourlyForecast();
+        for(int hour=6; hour<18; hour++) hours.setHour(hour, "Sunny", 0, 18);
+        for(int hour=18; hour<24; hour++) hours.setHour(hour, "Rain", 3.5, 12);
+        store.putWeek("milano", today, new ForecastWeek(Arrays.asList("Rain", "Sunny"), new HourlyForecast[]{hours}));
+    }
+    
+    @After
+    public void tearDown()
+    {
+    }
+
+    @Test
+    public void testEventHours() throws Exception
+    {
+        // A morning event is not affected by the evening rain
+        assertEquals(0, store.getConditionMask("Milano", today, timeFormat.parse("10:00"), timeFormat.parse("12:00")));
+        
+        // An event ending at 18:30 covers the first rainy hour, one ending at 18:00 does not
+        assertEquals(WeatherCondition.RAIN.getBit(), store.getConditionMask("Milano", today, timeFormat.parse("17:00"), timeFormat.parse("18:30")));
+        assertEquals(0, store.getConditionMask("Milano", today, timeFormat.parse("17:00"), timeFormat.parse("18:00")));
+        
+        // No hours for the night or for tomorrow: the daily forecast must be used
+        assertEquals(-1, store.getConditionMask("Milano", today, timeFormat.parse("02:00"), timeFormat.parse("04:00")));
+        assertEquals(-1, store.getConditionMask("Milano", today.plusDays(1), timeFormat.parse("10:00"), timeFormat.parse("12:00")));
+        
+        // Some of the event hours are missing: they are not assumed to be clear
+        assertEquals(-1, store.getConditionMask("Milano", today, timeFormat.parse("05:00"), timeFormat.parse("08:00")));
+    }
+    
+    @Test
+    public void testWeekWithoutHours() throws Exception
+    {
+        // A newer week without hours: the older hours do not override its daily forecast
+        store.putWeek("milano", today, new ForecastWeek(Arrays.asList("Rain", "Sunny"), new HourlyForecast[0]));
+        assertNull(store.get("milano", today));
+        assertEquals(-1, store.getConditionMask("Milano", today, timeFormat.parse("10:00"), timeFormat.parse("12:00")));
+    }
+    
+    @Test
+    public void testCompactValues()
+    {
+        HourlyForecast hours = store.get("milano", today);
+        assertEquals(3.5, hours.getMaxPrecipitation(0, 24), 0.001);
+        assertEquals(0, hours.getMaxPrecipitation(6, 18), 0.001);
+        assertEquals(12, hours.getTemperature(20), 0.001);
+        
+        // A day stays in the hundreds of bytes
+        assertTrue(HourlyForecast.MEMORY_SIZE<300);
+        assertEquals(HourlyForecast.MEMORY_SIZE, store.getMemoryEstimate());
+    }
+    
+    @Test
+    public void testRemovePastDays()
+    {
+        store.removeBefore(today.plusDays(1));
+        assertEquals(0, store.size());
+    }
+}
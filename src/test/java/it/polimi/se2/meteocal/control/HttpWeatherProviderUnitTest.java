@@ -0,0 +1,189 @@
+package it.polimi.se2.meteocal.control;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class HttpWeatherProviderUnitTest
+{
+    private HttpServer server;
+    private String url;
+    private volatile int status;
+    private volatile String body;
+    private volatile long delay;
+    private volatile String etag;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        // Local stand-in for the weather provider
+        status = 200;
+        delay = 0;
+        etag = null;
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/api.php", new HttpHandler()
+        {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException
+            {
+                try
+                {
+                    Thread.sleep(delay);
+                }
+                catch(InterruptedException e)
+                {
+                    return;
+                }
+                
+                // Conditional requests for an unchanged forecast get no body
+                if(etag!=null && etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match")))
+                {
+                    exchange.sendResponseHeaders(304, -1);
+                    exchange.close();
+                    return;
+                }
+                if(etag!=null) exchange.getResponseHeaders().set("ETag", etag);
+                byte[] response = body.getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(status, response.length);
+                try(OutputStream output = exchange.getResponseBody())
+                {
+                    output.write(response);
+                }
+            }
+        });
+        server.start();
+        url = "http://127.0.0.1:"+server.getAddress().getPort()+"/api.php?location=";
+    }
+    
+    @After
+    public void tearDown()
+    {
+        server.stop(0);
+    }
+
+    @Test
+    public void testWeekIsParsed() throws Exception
+    {
+        body = "[{\"day\":\"Today\",\"condition\":\"Sunny\"},{\"day\":\"Tomorrow\"},{\"condition\":\"Rain\"}]";
+        List<String> conditions = new HttpWeatherProvider(url, null, 1000, 1000).requestWeek("San Donato Milanese");
+        assertEquals(3, conditions.size());
+        assertEquals("Sunny", conditions.get(0));
+        assertNull(conditions.get(1));
+        assertEquals("Rain", conditions.get(2));
+    }
+    
+    @Test
+    public void testHoursAreParsed() throws Exception
+    {
+        body = "[{\"condition\":\"Rain\",\"hourly\":[{\"hour\":9,\"condition\":\"Sunny\",\"precipitation\":0,\"temperature\":14.5},{\"hour\":20,\"condition\":\"Heavy rain\",\"precipitation\":6.2,\"temperature\":11},{\"hour\":99}]},{\"condition\":\"Sunny\"}]";
+        ForecastWeek week = new HttpWeatherProvider(url, null, 1000, 1000).requestWeek("Milano");
+        
+        // Only the valid hours of the first day are available
+        HourlyForecast hours = week.getHours(0);
+        assertTrue(hours.hasHour(9));
+        assertFalse(hours.hasHour(10));
+        assertEquals(0, hours.getConditionMask(9));
+        assertEquals(14.5, hours.getTemperature(9), 0.001);
+        assertEquals(6.2, hours.getPrecipitation(20), 0.001);
+        assertNull(week.getHours(1));
+        assertEquals("Sunny", week.get(1));
+    }
+    
+    @Test
+    public void testConditionalRequests() throws Exception
+    {
+        HttpWeatherProvider provider = new HttpWeatherProvider(url, null, 1000, 1000);
+        etag = "\"v1\"";
+        body = "[{\"condition\":\"Sunny\"},{\"condition\":\"Rain\"}]";
+        ForecastWeek first = provider.requestWeek("Milano");
+        assertFalse(first.isNotModified());
+        
+        // Same version: the forecast received before is returned without a body
+        body = "not parsed";
+        ForecastWeek second = provider.requestWeek("Milano");
+        assertTrue(second.isNotModified());
+        assertEquals(first, second);
+        assertEquals(1, provider.getNotModifiedResponses());
+        
+        // New version: the new forecast is downloaded
+        etag = "\"v2\"";
+        body = "[{\"condition\":\"Rain\"}]";
+        ForecastWeek third = provider.requestWeek("Milano");
+        assertFalse(third.isNotModified());
+        assertEquals("Rain", third.get(0));
+    }
+    
+    @Test
+    public void testInvalidatedValidators() throws Exception
+    {
+        HttpWeatherProvider provider = new HttpWeatherProvider(url, null, 1000, 1000);
+        etag = "\"v1\"";
+        body = "[{\"condition\":\"Sunny\"}]";
+        provider.requestWeek("Milano");
+        
+        // The forecast could not be saved: the same version is downloaded again instead of being "not modified"
+        provider.invalidate(" milano");
+        ForecastWeek second = provider.requestWeek("Milano");
+        assertFalse(second.isNotModified());
+        assertEquals(0, provider.getNotModifiedResponses());
+    }
+    
+    @Test(expected = WeatherProviderException.class)
+    public void testHttpError() throws Exception
+    {
+        status = 500;
+        body = "error";
+        new HttpWeatherProvider(url, null, 1000, 1000).requestWeek("Milano");
+    }
+    
+    @Test
+    public void testUnknownCity() throws Exception
+    {
+        // Both an empty week and a 404 mean that the city is unknown
+        body = "[]";
+        try
+        {
+            new HttpWeatherProvider(url, null, 1000, 1000).requestWeek("Nowhere");
+            fail("unknown city expected");
+        }
+        catch(UnknownCityException e)
+        {
+        }
+        status = 404;
+        body = "not found";
+        try
+        {
+            new HttpWeatherProvider(url, null, 1000, 1000).requestWeek("Nowhere");
+            fail("unknown city expected");
+        }
+        catch(UnknownCityException e)
+        {
+        }
+    }
+    
+    @Test
+    public void testReadTimeout() throws Exception
+    {
+        delay = 2000;
+        body = "[]";
+        long start = System.currentTimeMillis();
+        try
+        {
+            new HttpWeatherProvider(url, null, 1000, 200).requestWeek("Milano");
+            fail("timeout expected");
+        }
+        catch(WeatherProviderException e)
+        {
+            assertTrue(System.currentTimeMillis()-start<1500);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package it.polimi.se2.meteocal.control;
+
+import java.io.StringReader;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class LocationIndexUnitTest
+{
+    private LocationIndex locationIndex;
+
+    @Before
+    public void setUp()
+    {
+        locationIndex = new LocationIndex();
+        locationIndex.initialize();
+    }
+    
+    @After
+    public void tearDown()
+    {
+    }
+
+    @Test
+    public void testGeohash()
+    {
+        // Reference value, and prefixes shared by nearby points
+        assertEquals("u4pruydqqvj", Geohash.encode(57.64911, 10.40744, 11));
+        assertEquals("u4pr", Geohash.encode(57.64911, 10.40744, 4));
+    }
+    
+    @Test
+    public void testAliasesShareLocation()
+    {
+        // Different ways of writing the same city
+        Location milano = locationIndex.resolve("Milano");
+        assertTrue(milano.isResolved());
+        assertEquals("milano", milano.getCanonicalId());
+        assertEquals(milano.getKey(), locationIndex.resolve(" milano ").getKey());
+        assertEquals(milano.getKey(), locationIndex.resolve("Milan").getKey());
+        assertEquals(milano.getKey(), locationIndex.resolve("Milano, Italy").getKey());
+        assertEquals(locationIndex.resolve("Zurich").getKey(), locationIndex.resolve("Z\u00fcrich").getKey());
+        assertEquals(6, locationIndex.getResolved());
+    }
+    
+    @Test
+    public void testNearbyCitiesShareBucket()
+    {
+        // A nearby town uses the forecast of the main city of its bucket
+        Location town = locationIndex.resolve("San Donato Milanese");
+        assertEquals(locationIndex.resolve("Milano").getKey(), town.getKey());
+        assertEquals("san donato milanese", town.getCanonicalId());
+        assertEquals("Milano", town.getName());
+        
+        // Distant cities do not
+        assertNotEquals(locationIndex.resolve("Milano").getKey(), locationIndex.resolve("Roma").getKey());
+    }
+    
+    @Test
+    public void testUnknownCity()
+    {
+        // Unknown cities are keyed by their normalized name
+        Location location = locationIndex.resolve("  Nowhere  Town ");
+        assertFalse(location.isResolved());
+        assertEquals("nowhere town", location.getKey());
+        assertEquals("Nowhere  Town", location.getName());
+        assertEquals(1, locationIndex.getUnresolved());
+    }
+    
+    @Test
+    public void testCustomGazetteer() throws Exception
+    {
+        // Malformed lines are skipped, the first city of a bucket is its main one
+        locationIndex.load(new StringReader("# comment\nAlpha;45.0;9.0;A1,A2\nbroken line\nBeta;45.0001;9.0001;\nGamma;x;y;"));
+        assertEquals(4, locationIndex.size());
+        assertEquals("Alpha", locationIndex.resolve("beta").getName());
+        assertEquals(locationIndex.resolve("A2").getKey(), locationIndex.resolve("Beta").getKey());
+        assertFalse(locationIndex.resolve("Gamma").isResolved());
+    }
+}
@@ -4,21 +4,29 @@ import it.polimi.se2.meteocal.entity.Calendar;
 import it.polimi.se2.meteocal.entity.Event;
 import it.polimi.se2.meteocal.entity.Notification;
 import it.polimi.se2.meteocal.entity.User;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.SQLTransientConnectionException;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.List;
+import javax.ejb.EJBException;
+import javax.ejb.SessionContext;
 import javax.persistence.EntityManager;
+import javax.persistence.PersistenceException;
+import javax.transaction.TransactionSynchronizationRegistry;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.*;
-import org.junit.Ignore;
 import static org.mockito.Mockito.*;
 
-@Ignore
 public class NotificationManagerUnitTest
 {
     private NotificationManager notificationManager;
+    private NotificationManager self;
     
     private Calendar senderCalendar;
     private Calendar receiverCalendar;
@@ -35,6 +43,11 @@ public class NotificationManagerUnitTest
         notificationManager.entityManager = mock(EntityManager.class);
         notificationManager.userManager = mock(UserManager.class);
         notificationManager.calendarManager = mock(CalendarManager.class);
+        notificationManager.citySubscriptionRegistry = mock(CitySubscriptionRegistry.class);
+        notificationManager.transactionRegistry = mock(TransactionSynchronizationRegistry.class);
+        notificationManager.sessionContext = mock(SessionContext.class);
+        self = mock(NotificationManager.class);
+        when(notificationManager.sessionContext.getBusinessObject(NotificationManager.class)).thenReturn(self);
         
         // Mock entities
         this.resetMockedEntities();
@@ -157,4 +170,55 @@ public class NotificationManagerUnitTest
         // There are no changes in the calendar
         assertEquals(receiver.getCalendar(), null);
     }
+    
+    @Test
+    public void testDuplicateAlerts() throws Exception
+    {
+        // A concurrent sender wrote one of the alerts: the batch fails, then the others are written one by one
+        event.setId((long) 1);
+        Notification first = notificationManager.createBadWeatherAlert(receiver, event);
+        Notification second = notificationManager.createBadWeatherAlert(sender, event);
+        List<Notification> alerts = Arrays.asList(first, second);
+        EJBException duplicate = new EJBException(new PersistenceException(new SQLIntegrityConstraintViolationException("duplicate key")));
+        doThrow(duplicate).when(self).insertAlerts(alerts);
+        doThrow(duplicate).when(self).insertAlerts(Collections.singletonList(first));
+        doReturn(1).when(self).insertAlerts(Collections.singletonList(second));
+        assertEquals(1, notificationManager.sendAlerts(alerts));
+        verify(self, times(3)).insertAlerts(anyObject());
+    }
+    
+    @Test
+    public void testFailedAlerts() throws Exception
+    {
+        event.setId((long) 1);
+        List<Notification> alerts = Arrays.asList(notificationManager.createBadWeatherAlert(receiver, event), notificationManager.createBadWeatherAlert(sender, event));
+        EJBException failure = new EJBException(new PersistenceException(new SQLTransientConnectionException("connection lost")));
+        
+        // Any other failure of the batch is not hidden, nor retried
+        doThrow(failure).when(self).insertAlerts(alerts);
+        try
+        {
+            notificationManager.sendAlerts(alerts);
+            fail();
+        }
+        catch(EJBException ex)
+        {
+            assertSame(failure, ex);
+        }
+        verify(self, times(1)).insertAlerts(anyObject());
+        
+        // Nor is a failure of a single alert after a duplicate key
+        doThrow(new EJBException(new PersistenceException(new SQLIntegrityConstraintViolationException("duplicate key")))).when(self).insertAlerts(alerts);
+        doThrow(failure).when(self).insertAlerts(Collections.singletonList(alerts.get(0)));
+        try
+        {
+            notificationManager.sendAlerts(alerts);
+            fail();
+        }
+        catch(EJBException ex)
+        {
+            assertSame(failure, ex);
+        }
+        verify(self, never()).insertAlerts(Collections.singletonList(alerts.get(1)));
+    }
 }
@@ -0,0 +1,116 @@
+package it.polimi.se2.meteocal.control;
+
+import it.polimi.se2.meteocal.entity.Calendar;
+import it.polimi.se2.meteocal.entity.Forecast;
+import it.polimi.se2.meteocal.entity.WeatherCondition;
+import java.util.Arrays;
+import java.util.Date;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class WeatherConditionUnitTest
+{
+    private CalendarManager calendarManager;
+    private Calendar calendar;
+
+    @Before
+    public void setUp()
+    {
+        calendarManager = new CalendarManager();
+        calendar = new Calendar();
+    }
+    
+    @After
+    public void tearDown()
+    {
+    }
+
+    @Test
+    public void testParse()
+    {
+        assertEquals(0, WeatherCondition.parse(null));
+        assertEquals(0, WeatherCondition.parse("Sunny all day"));
+        assertEquals(WeatherCondition.CLOUDY.getBit(), WeatherCondition.parse("The weather will be CLOUDY in the morning"));
+        assertEquals(WeatherCondition.RAIN.getBit()|WeatherCondition.SNOW.getBit(), WeatherCondition.parse("Rain and snow"));
+        
+        // The forecast entity keeps the mask aligned with its description
+        Forecast forecast = new Forecast("milano", new Date(), "Light rain");
+        assertEquals(WeatherCondition.RAIN.getBit(), forecast.getConditionMask());
+        forecast.setCondition("Partly cloudy");
+        assertEquals(WeatherCondition.CLOUDY.getBit(), forecast.getConditionMask());
+    }
+    
+    @Test
+    public void testCalendarMask()
+    {
+        // The mask follows the preferences
+        assertEquals(0, calendar.getBadWeatherMask());
+        calendar.setRainIsBad(true);
+        calendar.setSnowIsBad(true);
+        assertEquals(WeatherCondition.RAIN.getBit()|WeatherCondition.SNOW.getBit(), calendar.getBadWeatherMask());
+        calendar.setRainIsBad(false);
+        assertEquals(WeatherCondition.SNOW.getBit(), calendar.getBadWeatherMask());
+    }
+    
+    @Test
+    public void testBadWeather()
+    {
+        // Same results as the old substring checks
+        calendar.setRainIsBad(true);
+        assertTrue(calendarManager.isBadWeather(calendar, "Rain until midnight"));
+        assertFalse(calendarManager.isBadWeather(calendar, "It will snow"));
+        assertFalse(calendarManager.isBadWeather(calendar, null));
+        assertTrue(calendarManager.isBadWeather(calendar, WeatherCondition.parse("Cloudy with rain")));
+    }
+    
+    @Test
+    public void testIntersectingMasks()
+    {
+        // The masks used in the queries are the ones sharing at least a bit
+        assertEquals(Arrays.asList(2, 3, 6, 7), WeatherCondition.getIntersectingMasks(WeatherCondition.RAIN.getBit()));
+        assertEquals(7, WeatherCondition.getIntersectingMasks(WeatherCondition.ALL).size());
+        assertTrue(WeatherCondition.getIntersectingMasks(0).isEmpty());
+    }
+    
+    @Test
+    public void testCrossingMasks()
+    {
+        int rain = WeatherCondition.RAIN.getBit();
+        int cloudy = WeatherCondition.CLOUDY.getBit();
+        
+        // Sunny to rain matters only to the ones that don't like rain
+        assertEquals(Arrays.asList(2, 3, 6, 7), WeatherCondition.getCrossingMasks(0, rain));
+        
+        // Rain to cloudy and rain: bad weather both before and after for everyone who minds the rain
+        assertEquals(Arrays.asList(1, 5), WeatherCondition.getCrossingMasks(rain, rain|cloudy));
+        
+        // A different description with the same conditions is not a change
+        assertTrue(WeatherCondition.getCrossingMasks(rain, rain).isEmpty());
+    }
+    
+    @Test
+    public void testBackfillQueries()
+    {
+        // The back-fill queries have the bits written as literals: they must match the enum
+        String calendarUpdate = this.getQuery(Calendar.class, Calendar.updateMissingBadWeatherMasks);
+        String forecastUpdate = this.getQuery(Forecast.class, Forecast.updateMissingConditionMasks);
+        for(WeatherCondition condition : WeatherCondition.values())
+        {
+            assertTrue(calendarUpdate.contains("c."+condition.name().toLowerCase()+"IsBad = TRUE THEN "+condition.getBit()+" "));
+        }
+        for(String keyword : Arrays.asList("cloud", "rain", "snow"))
+        {
+            assertTrue(forecastUpdate.contains("LIKE '%"+keyword+"%' THEN "+WeatherCondition.parse(keyword)+" "));
+        }
+    }
+    
+    private String getQuery(Class<?> entity, String name)
+    {
+        for(NamedQuery query : entity.getAnnotation(NamedQueries.class).value()) if(query.name().equals(name)) return query.query();
+        throw new AssertionError("Missing query "+name);
+    }
+}
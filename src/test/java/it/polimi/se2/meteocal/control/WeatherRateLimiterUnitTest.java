@@ -0,0 +1,59 @@
+package it.polimi.se2.meteocal.control;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class WeatherRateLimiterUnitTest
+{
+    private WeatherRateLimiter rateLimiter;
+
+    @Before
+    public void setUp()
+    {
+        rateLimiter = new WeatherRateLimiter(10, 1000);
+    }
+    
+    @After
+    public void tearDown()
+    {
+    }
+
+    @Test
+    public void testBackgroundLeavesReserve()
+    {
+        // Background requests stop at 80% of the minute budget
+        int allowed = 0;
+        while(rateLimiter.tryAcquire(ForecastPriority.BACKGROUND)) allowed++;
+        assertEquals(8, allowed);
+        assertEquals(1, rateLimiter.getDeniedBackground());
+        
+        // Interactive requests can still use the reserve
+        assertTrue(rateLimiter.tryAcquire(ForecastPriority.INTERACTIVE));
+        assertTrue(rateLimiter.tryAcquire(ForecastPriority.INTERACTIVE));
+        assertFalse(rateLimiter.tryAcquire(ForecastPriority.INTERACTIVE));
+        assertEquals(1, rateLimiter.getDeniedInteractive());
+    }
+    
+    @Test
+    public void testDayBudget()
+    {
+        // The day budget is exhausted before the minute one
+        rateLimiter = new WeatherRateLimiter(100, 5);
+        for(int i=0; i<5; i++) assertTrue(rateLimiter.tryAcquire(ForecastPriority.INTERACTIVE));
+        assertFalse(rateLimiter.tryAcquire(ForecastPriority.INTERACTIVE));
+        assertEquals(0, rateLimiter.getAvailableToday());
+    }
+    
+    @Test
+    public void testRefill() throws Exception
+    {
+        // A bucket of 10 tokens per 100 ms gets one token every 10 ms
+        TokenBucket bucket = new TokenBucket(10, 100);
+        while(bucket.tryAcquire(0));
+        Thread.sleep(30);
+        assertTrue(bucket.tryAcquire(0));
+        assertTrue(bucket.getAvailableTokens()<=10);
+    }
+}